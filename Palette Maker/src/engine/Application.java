@@ -4,20 +4,112 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.imageio.ImageIO;
+import engine.Instrumentation.Stage;
 
 public class Application {
 	
 	/**
-	 * Resolution of each swatch in the exported image.
+	 * Resolution of each swatch in the exported image, the png writer repeats
+	 * every swatch res times along a scanline and every scanline res times,
+	 * so a value of 1 exports a pixel per swatch. Can be changed with
+	 * -Dpalette.exportResolution.
 	 */
-	private static final int EXPORT_RESOLUTION = 16;
+	private static final int EXPORT_RESOLUTION = Math.max(1, Integer.getInteger("palette.exportResolution", 16));
+	
+	/**
+	 * Deflate level of the exported png, from 0 to 9. Can be changed with -Dpalette.pngLevel.
+	 */
+	private static final int EXPORT_PNG_LEVEL = Integer.getInteger("palette.pngLevel", 9);
+	
+	/**
+	 * Comma separated formats written on export, all in the same pass.
+	 * Can be changed with -Dpalette.exportFormats, for example "png,gpl,ase,hex,json,raw".
+	 */
+	private static final String EXPORT_FORMATS = System.getProperty("palette.exportFormats", "png");
+	
+	/**
+	 * Lattice size of the 3D LUT baked with L while picking the render style.
+	 * Can be changed with -Dpalette.lutSize.
+	 */
+	private static final int LUT_SIZE = Integer.getInteger("palette.lutSize", 33);
+	
+	/**
+	 * How the LUT maps colors to the palette, "nearest" or "blend". Can be
+	 * changed with -Dpalette.lutMode. With -Dpalette.lutStrip=true a 2D strip
+	 * image of the LUT is written next to the .cube file.
+	 */
+	private static final PaletteLut.Mode LUT_MODE = PaletteLut.Mode.valueOf(
+			System.getProperty("palette.lutMode", "nearest").trim().toUpperCase(Locale.ROOT));
+	private static final boolean LUT_STRIP = Boolean.getBoolean("palette.lutStrip");
+	
+	/**
+	 * Image remapped to the palette on export, as palette_N.remap.png. Can be
+	 * set with -Dpalette.remapImage, nothing is remapped by default.
+	 */
+	private static final String REMAP_IMAGE = System.getProperty("palette.remapImage");
+	
+	/**
+	 * Size of the smooth gradient texture written on export as
+	 * palette_N.ramp.png, like "4096" or "16384x1024". Can be set with
+	 * -Dpalette.rampSize, no ramp is written by default.
+	 */
+	private static final String RAMP_SIZE = System.getProperty("palette.rampSize");
+	
+	/**
+	 * Reference image of the IMAGE hue style. Can be set with -Dpalette.hueImage.
+	 */
+	private static final String HUE_IMAGE = System.getProperty("palette.hueImage");
+	
+	/**
+	 * Exports that can wait to be written before ENTER waits for them.
+	 * Can be changed with -Dpalette.exportQueue.
+	 */
+	private static final int EXPORT_QUEUE_SIZE = Integer.getInteger("palette.exportQueue", ExportQueue.DEFAULT_CAPACITY);
+	
+	/**
+	 * Where a snapshot of the session is saved on every state transition, so
+	 * it can be resumed with -resume. Can be changed with -Dpalette.sessionDir.
+	 */
+	private static final Path SESSION_DIRECTORY = Path.of(System.getProperty("palette.sessionDir",
+			System.getProperty("user.home") + "/.palette-maker/sessions"));
+	
+	/**
+	 * Most hues that can be picked. Palettes too big for the screen are
+	 * shrunk to fit and can be zoomed into. LUTs and remaps are only written
+	 * for palettes of up to PaletteExporters.MAX_LOOKUP_SWATCHES, and the
+	 * render style previews of palettes over StylePreviews.MAX_KEPT_SWATCHES
+	 * only keep their thumbnails. Can be changed with -Dpalette.maxHues.
+	 */
+	static final int MAX_HUE_COUNT = Math.max(1, Integer.getInteger("palette.maxHues", 4096));
+	
+	/**
+	 * Most values that can be picked. Can be changed with -Dpalette.maxValues.
+	 */
+	static final int MAX_VALUE_COUNT = Math.max(3, Integer.getInteger("palette.maxValues", 4096));
+	
+	/**
+	 * Whether the frame time overlay is shown from the start, F3 toggles it
+	 * either way. Can be turned on with -Dpalette.hud=true.
+	 */
+	private static final boolean HUD = Boolean.getBoolean("palette.hud");
+	
+	/**
+	 * How often the overlay works out its frame times from the frames since.
+	 */
+	private static final long HUD_WINDOW_NANOS = 1_000_000_000L;
 
 	/**
 	 * Different methods of deriving the hues based on the
@@ -26,10 +118,25 @@ public class Application {
 	 * <p> LINEAR - Equidistant hues
 	 * 
 	 * <p> RADIAL - Loosly based off a chunk of the unit circle
+	 * 
+	 * <p> IMAGE - Dominant hues of a reference image
 	 */
-	enum HueStyle {
+	public enum HueStyle {
 		LINEAR,
-		RADIAL
+		RADIAL,
+		IMAGE
+	}
+	
+	/**
+	 * Color space the value ramps and render style blends are worked out in.
+	 * 
+	 * <p> HSB - Ramps in HSB and blends in sRGB, like the palettes always were
+	 * 
+	 * <p> OKLAB - Ramps in OKLCh and blends in OKLab, perceptually even steps
+	 */
+	public enum WorkingSpace {
+		HSB,
+		OKLAB
 	}
 	
 	/**
@@ -46,14 +153,30 @@ public class Application {
 	 * 		 - Each swatch takes an increasing
 	 * 		   weighted average (based on swatch count)
 	 * 		   of the previous swatch column.
+	 * 
+	 * <p> PAIRWISE GRADIENT DEGREE N
+	 * 		 - Same as PAIRWISE GRADIENT but with the
+	 * 		   swatch column N columns over.
+	 * 
+	 * <p> Every style is a NeighborBlend with a different distance and weight curve.
 	 */
-	enum RenderStyle {
-		BASIC,
-		PAIRWISE_GRADIENT,
-		INVERSE_PAIRWISE_GRADIENT,
-		PAIRWISE_GRADIENT_DEGREE_2,
-		PAIRWISE_GRADIENT_DEGREE_3,
-		PAIRWISE_GRADIENT_DEGREE_4,
+	public enum RenderStyle {
+		BASIC(NeighborBlend.NONE),
+		PAIRWISE_GRADIENT(new NeighborBlend(1, NeighborBlend.ASCENDING)),
+		INVERSE_PAIRWISE_GRADIENT(new NeighborBlend(1, NeighborBlend.DESCENDING)),
+		PAIRWISE_GRADIENT_DEGREE_2(new NeighborBlend(2, NeighborBlend.ASCENDING)),
+		PAIRWISE_GRADIENT_DEGREE_3(new NeighborBlend(3, NeighborBlend.ASCENDING)),
+		PAIRWISE_GRADIENT_DEGREE_4(new NeighborBlend(4, NeighborBlend.ASCENDING));
+		
+		private final NeighborBlend blend;
+		
+		RenderStyle(NeighborBlend blend) {
+			this.blend = blend;
+		}
+		
+		public NeighborBlend getBlend() {
+			return blend;
+		}
 	}
 	
 	///////////////////////////////////////////////////////////////////////////////
@@ -61,8 +184,12 @@ public class Application {
 	// Variables
 
 	// Instance variables
-	private final Dimension SCREEN = Toolkit.getDefaultToolkit().getScreenSize();
-	private final int swatchRes = SCREEN.width / 32;
+	private final Dimension SCREEN;
+	private final int swatchRes;
+	private final List<PaletteExporter> exporters = exporters();
+	private final List<PaletteExporter> lutExporters = LUT_STRIP
+			? List.of(new PaletteExporters.Cube(LUT_SIZE, LUT_MODE), new PaletteExporters.LutStrip(LUT_SIZE, LUT_MODE, EXPORT_PNG_LEVEL))
+			: List.of(new PaletteExporters.Cube(LUT_SIZE, LUT_MODE));
 
 	ApplicationState state;
 	int selectionVal;
@@ -71,6 +198,7 @@ public class Application {
 
 	// State-controlled variables
 	HueStyle hueStyle = HueStyle.LINEAR;
+	ImageHues imageHues;
 	float hueOffset = 0.0f;
 	int hueCount = 1;
 	float[] hues;
@@ -79,17 +207,35 @@ public class Application {
 	float saturationAdjustment;
 	float brightnessAdjustment;
 	double rTint, gTint, bTint;
-	Color[][] rawColors;
+	PaletteBuffer rawColors;
 	RenderStyle renderStyle = RenderStyle.BASIC;
-	Color[][] finalColors;
+	PaletteBuffer finalColors;
+	WorkingSpace workingSpace = WorkingSpace.HSB;
 	
 	// Control variables
-	boolean rightArrowQueued = false;
-	boolean leftArrowQueued = false;
-	boolean upArrowQueued = false;
-	boolean downArrowQueued = false;
-	boolean enterQueued = false;
+	// Key presses from the Keylistener thread, executed in update()
+	private final InputQueue input = new InputQueue();
 	char selectedColor = 'r';
+	
+	// Whether anything visible changed since the last render, also set by
+	// the preview and export threads
+	private final AtomicBoolean changed = new AtomicBoolean(true);
+	// Bumped whenever an input of the swatch grid changes
+	private long revision = 0;
+	// Shows the palette, only the part that's on screen is drawn
+	private final SwatchViewport viewport = new SwatchViewport();
+	// Colors of the current choices, only the stages after a change are redone
+	private final PalettePipeline pipeline = new PalettePipeline();
+	// Called when something changed off the update thread
+	private volatile Runnable frameRequest = () -> {};
+	// Every render style of rawColors, worked out in the background
+	private final StylePreviews previews = new StylePreviews(this::backgroundChanged);
+	// Writes exports in the background, started with the first one
+	private ExportQueue exportQueue;
+	// Frame time overlay
+	private boolean hudVisible = HUD;
+	private String hudText = "Frame time: measuring...";
+	private long hudWindowStart = System.nanoTime();
 
 	///////////////////////////////////////////////////////////////////////////////
 	//
@@ -100,33 +246,119 @@ public class Application {
 	 * with the appropiate minimum/maximum selection options.
 	 */
 	public Application() {
+		this(Toolkit.getDefaultToolkit().getScreenSize());
+	}
+	
+	/**
+	 * Creates Application that lays itself out for the given screen size
+	 * instead of asking the Toolkit for it.
+	 */
+	public Application(Dimension screen) {
+		SCREEN = screen;
+		swatchRes = SCREEN.width / 32;
 		state = ApplicationState.PICK_HUE_STYLE;
 		selectionVal = 0;
 		selectionMin = 0;
 		selectionMax = HueStyle.values().length - 1;
 	}
 
+	/**
+	 * Exporters of the selected formats, plus the remap of REMAP_IMAGE and
+	 * the ramp of RAMP_SIZE if there are any.
+	 */
+	private static List<PaletteExporter> exporters() {
+		List<PaletteExporter> exporters = new ArrayList<>(PaletteExporters.parse(EXPORT_FORMATS, EXPORT_RESOLUTION, EXPORT_PNG_LEVEL));
+		if (REMAP_IMAGE != null && !REMAP_IMAGE.isBlank()) {
+			exporters.add(new PaletteExporters.Remap(Path.of(REMAP_IMAGE), EXPORT_PNG_LEVEL));
+		}
+		if (RAMP_SIZE != null && !RAMP_SIZE.isBlank()) {
+			exporters.add(PaletteExporters.Ramp.parse(RAMP_SIZE, EXPORT_PNG_LEVEL));
+		}
+		return exporters;
+	}
+	
 	///////////////////////////////////////////////////////////////////////////////
 	//
 	// Update
 	/**
-	 * Called every frame before render(). Executes the actions
-	 * of the queued controls. Adjusts hues for certain states.
+	 * Called every frame before render(). Executes every key pressed since
+	 * the last call in order. Adjusts hues for certain states.
 	 */
 	public void update() {
-		// Update the queued controls
-		queuedControlsUpdate();
-		// Check if for hue reevaluation
-		reevaluateHues();
+		long start = Instrumentation.begin(Stage.UPDATE);
+		for (int keyCode = input.poll(); keyCode != InputQueue.EMPTY; keyCode = input.poll()) {
+			handleKey(keyCode);
+			// Check for hue reevaluation, the next key may already depend on it
+			reevaluateHues();
+		}
+		Instrumentation.record(Stage.UPDATE, start);
+	}
+	
+	/**
+	 * Parks the calling thread until a key is pressed, wake() is called or
+	 * the time is up. Returns false if the time ran out.
+	 */
+	public boolean awaitInput(long timeoutMillis) {
+		return input.await(timeoutMillis, TimeUnit.MILLISECONDS);
 	}
 	
 	/**
-	 * Executes the actions of queued control buttons. Done to avoid
-	 * concurrently modifying anything wiith the Keylistener thread.
+	 * Makes awaitInput() return as if a key was pressed, from any thread.
 	 */
-	private void queuedControlsUpdate() {
-		// Right arrow
-		if (rightArrowQueued) {
+	public void wake() {
+		input.wake();
+	}
+	
+	/**
+	 * Whether the state changed since the last call, from a key press, a hue
+	 * offset or a state transition. Lets the main loop skip frames that would
+	 * look exactly like the previous one. Clears the flag in the same step,
+	 * so a change marked by another thread meanwhile is never lost.
+	 */
+	public boolean consumeChange() {
+		return changed.getAndSet(false);
+	}
+	
+	/**
+	 * Called whenever the state or an input of the palette changes.
+	 */
+	private void stateChanged() {
+		changed.set(true);
+		revision++;
+	}
+	
+	/**
+	 * Forces the next consumeChange() to report a change, for example when
+	 * the window has to be redrawn.
+	 */
+	public void markChanged() {
+		changed.set(true);
+	}
+	
+	/**
+	 * Sets what to call when background work finished something that
+	 * should be drawn, so a main loop waiting for input wakes up.
+	 */
+	public void setFrameRequest(Runnable frameRequest) {
+		this.frameRequest = frameRequest;
+	}
+	
+	/**
+	 * Called by background work that changed something visible.
+	 */
+	private void backgroundChanged() {
+		markChanged();
+		frameRequest.run();
+	}
+	
+	/**
+	 * Executes the action of one key press. Done on the update thread to
+	 * avoid concurrently modifying anything with the Keylistener thread.
+	 */
+	private void handleKey(int keyCode) {
+		switch (keyCode) {
+		case KeyEvent.VK_RIGHT:
+			stateChanged();
 			// Right arrow functions
 			if (state == ApplicationState.ADJUST_TINTS) {
 				switch (selectedColor) {
@@ -149,12 +381,10 @@ public class Application {
 			} else {
 				selectionVal = (selectionVal + 1 > selectionMax) ? selectionMax : selectionVal + 1;
 			}
-			// Increment boolean
-			rightArrowQueued = false;
-		}
+			break;
 
-		// Left arrow
-		if (leftArrowQueued) {
+		case KeyEvent.VK_LEFT:
+			stateChanged();
 			// Left arrow functions
 			if (state == ApplicationState.ADJUST_TINTS) {
 				switch (selectedColor) {
@@ -171,12 +401,10 @@ public class Application {
 			} else {
 				selectionVal = (selectionVal - 1 < selectionMin) ? selectionMin : selectionVal - 1;
 			}
-			// Increment boolean
-			leftArrowQueued = false;
-		}
+			break;
 
-		// Up arrow
-		if (upArrowQueued) {
+		case KeyEvent.VK_UP:
+			stateChanged();
 			// Up arrow functions
 			if (state == ApplicationState.ADJUST_TINTS) {
 				switch (selectedColor) {
@@ -191,14 +419,12 @@ public class Application {
 					break;
 				}
 			} else {
-				modifyHueOffset();
+				modifyHueOffset(1);
 			}
-			// Increment boolean
-			upArrowQueued = false;
-		}
+			break;
 
-		// Down arrow
-		if (downArrowQueued) {
+		case KeyEvent.VK_DOWN:
+			stateChanged();
 			// Down arrow functions
 			if (state == ApplicationState.ADJUST_TINTS) {
 				switch (selectedColor) {
@@ -213,19 +439,81 @@ public class Application {
 					break;
 				}
 			} else {
-				// Up arrow functions
-				modifyHueOffset();
+				modifyHueOffset(-1);
 			}
-			// Increment boolean
-			downArrowQueued = false;
-		}
+			break;
 
-		// Enter
-		if (enterQueued) {
+		case KeyEvent.VK_ENTER:
+			stateChanged();
 			// Enter functions
 			incrementState();
-			// Increment boolean
-			enterQueued = false;
+			break;
+
+		case KeyEvent.VK_P:
+			// Working space
+			stateChanged();
+			workingSpace = (workingSpace == WorkingSpace.HSB) ? WorkingSpace.OKLAB : WorkingSpace.HSB;
+			// Colors already finalized follow the new space
+			if (rawColors != null) finalizeTints();
+			if (state == ApplicationState.PICK_RENDER_STYLE) startPreviews();
+			break;
+
+		case KeyEvent.VK_L:
+			// LUT
+			if (state == ApplicationState.PICK_RENDER_STYLE) {
+				exportLut();
+			}
+			break;
+
+		case KeyEvent.VK_PAGE_UP:
+		case KeyEvent.VK_PAGE_DOWN:
+			// Doubles or halves the selection, counts go into the thousands
+			if (state != ApplicationState.ADJUST_TINTS) {
+				stateChanged();
+				if (keyCode == KeyEvent.VK_PAGE_UP) {
+					selectionVal = Math.min(selectionMax, Math.max(selectionVal + 1, selectionVal * 2));
+				} else {
+					selectionVal = Math.max(selectionMin, selectionVal / 2);
+				}
+			}
+			break;
+
+		case KeyEvent.VK_EQUALS:
+		case KeyEvent.VK_ADD:
+			// Zoom into the grid
+			viewport.zoom(1);
+			markChanged();
+			break;
+
+		case KeyEvent.VK_MINUS:
+		case KeyEvent.VK_SUBTRACT:
+			viewport.zoom(-1);
+			markChanged();
+			break;
+
+		case KeyEvent.VK_0:
+		case KeyEvent.VK_NUMPAD0:
+			viewport.resetView();
+			markChanged();
+			break;
+
+		case KeyEvent.VK_W:
+		case KeyEvent.VK_A:
+		case KeyEvent.VK_S:
+		case KeyEvent.VK_D:
+			// Pan around a zoomed grid
+			viewport.pan((keyCode == KeyEvent.VK_D) ? 1 : (keyCode == KeyEvent.VK_A) ? -1 : 0,
+					(keyCode == KeyEvent.VK_S) ? 1 : (keyCode == KeyEvent.VK_W) ? -1 : 0);
+			markChanged();
+			break;
+
+		case KeyEvent.VK_F3:
+			// Frame time overlay
+			hudVisible = !hudVisible;
+			hudWindowStart = System.nanoTime();
+			Instrumentation.drainFrames();
+			markChanged();
+			break;
 		}
 	}
 
@@ -235,46 +523,24 @@ public class Application {
 	 */
 	private  void reevaluateHues() {
 		if (state == ApplicationState.PICK_HUES && hues.length != selectionVal) {
-			switch (hueStyle) {
-			case LINEAR:
-				hues = new float[selectionVal];
-				float hueStep = 1.0f / ((float) selectionVal);
-				for (int i = 0; i < selectionVal; i++) {
-					hues[i] = hueStep * i + hueOffset;
-				}
-				break;
-			case RADIAL:
-				hues = new float[selectionVal];
-				for (int i = 0; i < selectionVal; i++) {
-					float x = ((float) i) / ((float) selectionVal);
-					float a = (float) Math.sqrt(1 - (x * x));
-					float b = (1.0f - x);
-					hues[i] = (a + b) * 0.5f + hueOffset;
-				}
-				break;
-			}
+			hues = PaletteEngine.deriveHues(hueStyle, selectionVal, hueOffset, imageHues);
+			stateChanged();
 		}
 	}
 	
 	/**
 	 * Adjusts the main hues offset. Adjusts the hues directly but
 	 * saves the total hueOffset in case the hues are recalculated.
+	 *
+	 * @param direction 1 to step the hues up, -1 to step them down
 	 */
-	private void modifyHueOffset() {
+	private void modifyHueOffset(int direction) {
 		if (state.ordinal() > ApplicationState.PICK_HUE_STYLE.ordinal()) {
-			float hueStep = 0.025f;
-			if (upArrowQueued) {
-				for (int i = 0; i < hues.length; i++) {
-					hues[i] += hueStep;
-				}
-				hueOffset += hueStep;
-			}
-			if (downArrowQueued) {
-				for (int i = 0; i < hues.length; i++) {
-					hues[i] -= hueStep;
-				}
-				hueOffset -= hueStep;
+			float hueStep = 0.025f * direction;
+			for (int i = 0; i < hues.length; i++) {
+				hues[i] += hueStep;
 			}
+			hueOffset += hueStep;
 		}
 	}
 	
@@ -287,11 +553,27 @@ public class Application {
 	 * Renders all the aspects of the applicaiton in their not too specific order.
 	 */
 	public void render(Graphics2D g) {
+		long start = Instrumentation.begin(Stage.RENDER);
+		long stage = Instrumentation.begin(Stage.RENDER_BACKGROUND);
 		renderBackground(g);
+		Instrumentation.record(Stage.RENDER_BACKGROUND, stage);
+		stage = Instrumentation.begin(Stage.RENDER_PROMPT);
 		renderPrompt(g);
+		Instrumentation.record(Stage.RENDER_PROMPT, stage);
+		stage = Instrumentation.begin(Stage.RENDER_SELECTION);
 		renderSelection(g);
+		Instrumentation.record(Stage.RENDER_SELECTION, stage);
+		stage = Instrumentation.begin(Stage.RENDER_VISUALS);
 		renderVisuals(g);
+		Instrumentation.record(Stage.RENDER_VISUALS, stage);
+		stage = Instrumentation.begin(Stage.RENDER_PREVIEWS);
+		renderPreviews(g);
+		Instrumentation.record(Stage.RENDER_PREVIEWS, stage);
+		stage = Instrumentation.begin(Stage.RENDER_CONTROLS);
 		renderControls(g);
+		Instrumentation.record(Stage.RENDER_CONTROLS, stage);
+		if (hudVisible) renderHud(g);
+		Instrumentation.record(Stage.RENDER, start);
 	}
 	
 	/**
@@ -353,6 +635,9 @@ public class Application {
 		switch (state) {
 		case PICK_HUE_STYLE:
 			selectionText = "Selected style: " + HueStyle.values()[selectionVal];
+			if (HueStyle.values()[selectionVal] == HueStyle.IMAGE && !hasHueImage()) {
+				selectionText += " (set -Dpalette.hueImage, LINEAR is used without it)";
+			}
 			break;
 		case PICK_HUES:
 			selectionText = "Hue count: " + selectionVal;
@@ -406,9 +691,16 @@ public class Application {
 		case PICK_VALUE_COUNT:
 		case ADJUST_SATURATION:
 		case ADJUST_BRIGHTNESS:
-		case PICK_RENDER_STYLE:
 			controlText = "Use LEFT / RIGHT arrows to adjust. Press ENTER to submit.";
 			break;
+		case PICK_RENDER_STYLE:
+			if (rawColors.size() > PaletteExporters.MAX_LOOKUP_SWATCHES) {
+				controlText = "Use LEFT / RIGHT arrows to adjust. Press ENTER to export and start over. LUTs and remaps take at most "
+						+ PaletteExporters.MAX_LOOKUP_SWATCHES + " swatches.";
+			} else {
+				controlText = "Use LEFT / RIGHT arrows to adjust. Press L to bake a LUT. Press ENTER to export and start over.";
+			}
+			break;
 		case ADJUST_TINTS:
 			controlText = ">>>> Use UP / DOWN to cycle RGB. Use LEFT / RIGHT arrows to adjust. Press ENTER to submit. <<<<";
 			break;
@@ -420,289 +712,207 @@ public class Application {
 		int controlsTextWidth = g.getFontMetrics().stringWidth(controlText);
 		g.drawString(controlText, SCREEN.width / 2 - controlsTextWidth / 2,
 				SCREEN.height - swatchRes);
+		String spaceText = "Working space: " + workingSpace + " (press P to switch)";
+		int spaceTextWidth = g.getFontMetrics().stringWidth(spaceText);
+		g.drawString(spaceText, SCREEN.width / 2 - spaceTextWidth / 2, SCREEN.height - swatchRes * 2);
+		int pending = (exportQueue == null) ? 0 : exportQueue.getPending();
+		if (pending > 0) {
+			String exportText = "Writing " + pending + ((pending == 1) ? " export..." : " exports...");
+			int exportTextWidth = g.getFontMetrics().stringWidth(exportText);
+			g.drawString(exportText, SCREEN.width / 2 - exportTextWidth / 2, SCREEN.height - swatchRes * 3);
+		}
+		if (viewport.isFitted()) {
+			String viewText = "Zoom " + (1L << viewport.getZoom()) + "x (+ / - to zoom, W A S D to pan, 0 to reset)";
+			int viewTextWidth = g.getFontMetrics().stringWidth(viewText);
+			g.drawString(viewText, SCREEN.width - viewTextWidth - swatchRes / 4, g.getFontMetrics().getAscent() + swatchRes / 4);
+		}
+	}
+	
+	/**
+	 * Renders the frame times and frame rate of the last second or so in the
+	 * top left corner. They're worked out again once a window has passed,
+	 * the main loop redraws at least that often.
+	 */
+	private void renderHud(Graphics2D g) {
+		long now = System.nanoTime();
+		if (now - hudWindowStart >= HUD_WINDOW_NANOS) {
+			LatencyHistogram frames = Instrumentation.drainFrames();
+			double fps = frames.getCount() * 1e9 / (now - hudWindowStart);
+			hudText = String.format(Locale.ROOT, "Frame time p50 %.2f ms  p99 %.2f ms  max %.2f ms  %.1f fps",
+					frames.percentile(0.5) / 1e6, frames.percentile(0.99) / 1e6, frames.getMax() / 1e6, fps);
+			hudWindowStart = now;
+		}
+		g.setColor(Color.white);
+		g.drawString(hudText, swatchRes / 4, g.getFontMetrics().getAscent() + swatchRes / 4);
 	}
 	
 	/**
 	 * Renders a visual representation of the current palette based off of the state and currently selected values.
 	 */
 	private void renderVisuals(Graphics2D g) {
-		int res = swatchRes;
-		if (state == ApplicationState.PICK_HUES) {
-			// By hues
-			int offset = selectionVal * res / 2;
-			for (int i = 0; i < selectionVal; i++) {
-				g.setColor(Color.getHSBColor(hues[i], 1.0f, 1.0f));
-				g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2, res, res);
-			}
-		}
-		
-		if (state == ApplicationState.PICK_VALUE_COUNT) {
-			// By values
-			float[] valIDs = deriveValueId();
-			for (int j = 0; j < valIDs.length; j++) {
-				int verticalOffset = selectionVal * res / 2;
-				int individualVerticalOffset = -j * res;
-				// By hues
-				int offset = hues.length * res / 2;
-				for (int i = 0; i < hues.length; i++) {
-					float valueID = valIDs[j];
-					if (valueID > 1.0f) {
-						g.setColor(Color.getHSBColor(hues[i], 2.0f - valIDs[j], 1.0f));
-					} else {
-						g.setColor(Color.getHSBColor(hues[i], 1.0f, valIDs[j]));
-					}
-					g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-				}
-			}
-		}
-		
-		if (state == ApplicationState.ADJUST_SATURATION) {
-			float saturationAdjustment = ((float) selectionVal) / 10.0f;
-			// By values
-			for (int j = 0; j < valueIDs.length; j++) {
-				int verticalOffset = valueCount * res / 2;
-				int individualVerticalOffset = -j * res;
-				// By hues
-				int offset = hues.length * res / 2;
-				for (int i = 0; i < hues.length; i++) {
-					float valueID = valueIDs[j];
-					if (valueID > 1.0f) {
-						g.setColor(Color.getHSBColor(hues[i], (2.0f - valueIDs[j]) * saturationAdjustment, 1.0f));
-					} else {
-						g.setColor(Color.getHSBColor(hues[i], 1.0f * saturationAdjustment, valueIDs[j]));
-					}
-					g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-				}
+		// Only hand the viewport new colors when something they depend on changed
+		if (viewport.isStale(revision)) {
+			PaletteBuffer colors = previewColors();
+			if (colors == null) {
+				viewport.clear();
+				return;
 			}
+			viewport.update(colors, revision);
 		}
 		
-		if (state == ApplicationState.ADJUST_BRIGHTNESS) {
-			float brightnessAdjustment = ((float) selectionVal) / 10.0f;
+		// Grid is centered horizontally, the first row of values starts at the vertical center
+		int centerY = SCREEN.height / 2 + swatchRes;
+		if (state == ApplicationState.PICK_HUES) centerY -= swatchRes / 2;
+		viewport.draw(g, gridArea(), SCREEN.width / 2, centerY, swatchRes);
+	}
+	
+	/**
+	 * Space the grid can take up, between the texts at the top and the
+	 * ones at the bottom. Palettes that don't fit at swatchRes are shrunk into it.
+	 */
+	private Rectangle gridArea() {
+		int top = thumbnailTop();
+		if (state == ApplicationState.PICK_RENDER_STYLE) top += thumbnailSpace() + swatchRes / 2;
+		int bottom = SCREEN.height - swatchRes * 3 - swatchRes / 2;
+		return new Rectangle(swatchRes / 2, top, SCREEN.width - swatchRes, bottom - top);
+	}
+	
+	/**
+	 * Colors of the current palette based off of the state and currently
+	 * selected values, or null if the state has nothing to show.
+	 */
+	private PaletteBuffer previewColors() {
+		switch (state) {
+		case PICK_HUES:
+			// By hues
+			return untintedColors(new float[] {1.0f}, 1.0f, 1.0f);
+		case PICK_VALUE_COUNT:
 			// By values
-			for (int j = 0; j < valueIDs.length; j++) {
-				int verticalOffset = valueCount * res / 2;
-				int individualVerticalOffset = -j * res;
-				// By hues
-				int offset = hues.length * res / 2;
-				for (int i = 0; i < hues.length; i++) {
-					float valueID = valueIDs[j];
-					if (valueID > 1.0f) {
-						g.setColor(Color.getHSBColor(hues[i], (2.0f - valueIDs[j]) * saturationAdjustment, 1.0f * brightnessAdjustment));
-					} else {
-						g.setColor(Color.getHSBColor(hues[i], 1.0f * saturationAdjustment, valueIDs[j] * brightnessAdjustment));
-					}
-					g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-				}
-			}
+			return untintedColors(deriveValueId(), 1.0f, 1.0f);
+		case ADJUST_SATURATION:
+			// Saturation being picked
+			return untintedColors(valueIDs, ((float) selectionVal) / 10.0f, 1.0f);
+		case ADJUST_BRIGHTNESS:
+			// Brightness being picked
+			return untintedColors(valueIDs, saturationAdjustment, ((float) selectionVal) / 10.0f);
+		case ADJUST_TINTS:
+			return tintedColors();
+		case PICK_RENDER_STYLE:
+			// Blended in the background, nothing is drawn until it's done
+			return previews.colors(RenderStyle.values()[selectionVal]);
+		default:
+			return null;
 		}
-		
-		if (state == ApplicationState.ADJUST_TINTS) {
-			// By values
-			for (int j = 0; j < valueIDs.length; j++) {
-				int verticalOffset = valueCount * res / 2;
-				int individualVerticalOffset = -j * res;
-				// By hues
-				int offset = hues.length * res / 2;
-				for (int i = 0; i < hues.length; i++) {
-					// Calculate the color just like normal
-					float valueID = valueIDs[j];
-					Color c;
-					if (valueID > 1.0f) {
-						c = Color.getHSBColor(hues[i], (2.0f - valueIDs[j]) * saturationAdjustment, 1.0f * brightnessAdjustment);
-					} else {
-						c = Color.getHSBColor(hues[i], 1.0f * saturationAdjustment, valueIDs[j] * brightnessAdjustment);
-					}
-					// Adjust RGB values with weighted average with tint
-					double redRatio = rTint / 100.0;
-					double greenRatio = gTint / 100.0;
-					double blueRatio = bTint / 100.0;
-					int deltaRed = (int) (redRatio * 255);
-					int deltaGreen = (int) (greenRatio * 255);
-					int deltaBlue = (int) (blueRatio * 255);
-					int newRed = c.getRed();
-					int newGreen = c.getGreen();
-					int newBlue = c.getBlue();
-					// Adjust red tint with weighted aberage
-					newRed = deltaRed + (int)(newRed * (1.0 - redRatio));
-					newRed = Math.min(newRed, 255);
-					newRed = Math.max(newRed, 0);
-					newGreen = deltaGreen + (int)(newGreen * (1.0 - redRatio));
-					newGreen = Math.min(newGreen, 255);
-					newGreen = Math.max(newGreen, 0);
-					newBlue = deltaBlue + (int)(newBlue * (1.0 - redRatio));
-					newBlue = Math.min(newBlue, 255);
-					newBlue = Math.max(newBlue, 0);
-					c = new Color(newRed, newGreen, newBlue);
-					// Set color and render
-					g.setColor(c);
-					g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-				}
+	}
+	
+	/**
+	 * Colors of the hues with the given values before any tint, from the
+	 * pipeline. Shared with it, not to be modified.
+	 */
+	private PaletteBuffer untintedColors(float[] valueIDs, float saturation, float brightness) {
+		return pipeline.hues(hues).valueIDs(valueIDs).saturation(saturation).brightness(brightness)
+				.workingSpace(workingSpace).colors();
+	}
+	
+	/**
+	 * Colors of every choice so far including the tint, from the pipeline.
+	 * Shared with it, not to be modified.
+	 */
+	private PaletteBuffer tintedColors() {
+		untintedColors(valueIDs, saturationAdjustment, brightnessAdjustment);
+		return pipeline.tint(rTint, gTint, bTint).tinted();
+	}
+	
+	/**
+	 * Renders a thumbnail of every render style in a row between the
+	 * selection text and the grid, the selected one framed in white.
+	 * Styles that aren't worked out yet leave a gap.
+	 */
+	private void renderPreviews(Graphics2D g) {
+		if (state != ApplicationState.PICK_RENDER_STYLE) return;
+		RenderStyle[] styles = RenderStyle.values();
+		Dimension size = thumbnailSize();
+		int width = size.width;
+		int height = size.height;
+		int gap = swatchRes / 2;
+		int x = SCREEN.width / 2 - (styles.length * width + (styles.length - 1) * gap) / 2;
+		int y = thumbnailTop() + (thumbnailSpace() - height) / 2;
+		for (int i = 0; i < styles.length; i++, x += width + gap) {
+			BufferedImage thumbnail = previews.thumbnail(styles[i]);
+			if (thumbnail != null) {
+				g.drawImage(thumbnail, x, y, null);
 			}
-		}
-		
-		if (state == ApplicationState.PICK_RENDER_STYLE) {
-			switch (RenderStyle.values()[selectionVal]) {
-			case BASIC:
-				// By values
-				for (int j = 0; j < valueIDs.length; j++) {
-					int verticalOffset = valueCount * res / 2;
-					int individualVerticalOffset = -j * res;
-					// By hues
-					int offset = hues.length * res / 2;
-					for (int i = 0; i < hues.length; i++) {
-						g.setColor(rawColors[j][i]);
-						g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-					}
-				}
-				break;
-			case PAIRWISE_GRADIENT:
-				// By values
-				double gradientStep = 1.0 / valueIDs.length;
-				for (int j = 0; j < valueIDs.length; j++) {
-					int verticalOffset = valueCount * res / 2;
-					int individualVerticalOffset = -j * res;
-					// By hues
-					int offset = hues.length * res / 2;
-					for (int i = 0; i < hues.length; i++) {
-						int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-						Color currentColor = rawColors[j][i];
-						Color nextColor = rawColors[j][nextIndex];
-						// Take weighted average of each color
-						double gradient = gradientStep * j + gradientStep / 2.0;
-						double invGradient = 1 - gradient;
-						int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextColor.getRed() * invGradient));
-						int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextColor.getGreen() * invGradient));
-						int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextColor.getBlue() * invGradient));
-						g.setColor(new Color (wr, wg, wb));
-						g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-					}
-				}
-				break;
-			case INVERSE_PAIRWISE_GRADIENT:
-				// By values
-				gradientStep = 1.0 / valueIDs.length;
-				for (int j = 0; j < valueIDs.length; j++) {
-					int verticalOffset = valueCount * res / 2;
-					int individualVerticalOffset = -j * res;
-					// By hues
-					int offset = hues.length * res / 2;
-					for (int i = 0; i < hues.length; i++) {
-						int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-						Color currentColor = rawColors[j][i];
-						Color nextColor = rawColors[j][nextIndex];
-						// Take weighted average of each color
-						double invGradient = gradientStep * j  + gradientStep / 2.0;
-						double gradient = 1 - invGradient;
-						int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextColor.getRed() * invGradient));
-						int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextColor.getGreen() * invGradient));
-						int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextColor.getBlue() * invGradient));
-						g.setColor(new Color (wr, wg, wb));
-						g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-					}
-				}
-				break;
-			case PAIRWISE_GRADIENT_DEGREE_2:
-				// By values
-				gradientStep = 1.0 / valueIDs.length;
-				for (int j = 0; j < valueIDs.length; j++) {
-					int verticalOffset = valueCount * res / 2;
-					int individualVerticalOffset = -j * res;
-					// By hues
-					int offset = hues.length * res / 2;
-					for (int i = 0; i < hues.length; i++) {
-						int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-						int nextNextIndex = (nextIndex == hues.length - 1) ? 0 : nextIndex + 1;
-						Color currentColor = rawColors[j][i];
-						Color nextNextColor = rawColors[j][nextNextIndex];
-						// Take weighted average of each color
-						double gradient = gradientStep * j + gradientStep / 2.0;
-						double invGradient = 1 - gradient;
-						int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextNextColor.getRed() * invGradient));
-						int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextNextColor.getGreen() * invGradient));
-						int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextNextColor.getBlue() * invGradient));
-						g.setColor(new Color (wr, wg, wb));
-						g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-					}
-				}
-				break;
-			case PAIRWISE_GRADIENT_DEGREE_3:
-				// By values
-				gradientStep = 1.0 / valueIDs.length;
-				for (int j = 0; j < valueIDs.length; j++) {
-					int verticalOffset = valueCount * res / 2;
-					int individualVerticalOffset = -j * res;
-					// By hues
-					int offset = hues.length * res / 2;
-					for (int i = 0; i < hues.length; i++) {
-						int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-						int nextNextIndex = (nextIndex == hues.length - 1) ? 0 : nextIndex + 1;
-						int nextNextNextIndex = (nextNextIndex == hues.length - 1) ? 0 : nextNextIndex + 1;
-						Color currentColor = rawColors[j][i];
-						Color nextNextNextColor = rawColors[j][nextNextNextIndex];
-						// Take weighted average of each color
-						double gradient = gradientStep * j + gradientStep / 2.0;
-						double invGradient = 1 - gradient;
-						int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextNextNextColor.getRed() * invGradient));
-						int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextNextNextColor.getGreen() * invGradient));
-						int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextNextNextColor.getBlue() * invGradient));
-						g.setColor(new Color (wr, wg, wb));
-						g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-					}
-				}
-				break;
-			case PAIRWISE_GRADIENT_DEGREE_4:
-				// By values
-				gradientStep = 1.0 / valueIDs.length;
-				for (int j = 0; j < valueIDs.length; j++) {
-					int verticalOffset = valueCount * res / 2;
-					int individualVerticalOffset = -j * res;
-					// By hues
-					int offset = hues.length * res / 2;
-					for (int i = 0; i < hues.length; i++) {
-						int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-						int nextNextIndex = (nextIndex == hues.length - 1) ? 0 : nextIndex + 1;
-						int nextNextNextIndex = (nextNextIndex == hues.length - 1) ? 0 : nextNextIndex + 1;
-						int nextNextNextNextIndex = (nextNextNextIndex == hues.length - 1) ? 0 : nextNextNextIndex + 1;
-						Color currentColor = rawColors[j][i];
-						Color nextNextNextNextColor = rawColors[j][nextNextNextNextIndex];
-						// Take weighted average of each color
-						double gradient = gradientStep * j + gradientStep / 2.0;
-						double invGradient = 1 - gradient;
-						int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextNextNextNextColor.getRed() * invGradient));
-						int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextNextNextNextColor.getGreen() * invGradient));
-						int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextNextNextNextColor.getBlue() * invGradient));
-						g.setColor(new Color (wr, wg, wb));
-						g.fillRect(SCREEN.width / 2 - offset + i * res, SCREEN.height / 2 + individualVerticalOffset + verticalOffset, res, res);
-					}
-				}
-				break;
+			if (i == selectionVal) {
+				g.setColor(Color.white);
+				g.drawRect(x - 2, y - 2, width + 3, height + 3);
 			}
 		}
 	}
 	
+	/**
+	 * Top of the space for the thumbnails, below the selection text.
+	 */
+	private int thumbnailTop() {
+		return SCREEN.height / 9 + swatchRes + swatchRes / 2;
+	}
+	
+	/**
+	 * Height of the space for the thumbnails, down to just above the grid.
+	 * Grids too tall to leave room for them get a fixed band instead.
+	 */
+	private int thumbnailSpace() {
+		int rows = rawColors.getValueCount();
+		int gridTop = SCREEN.height / 2 - rows * swatchRes / 2 + swatchRes;
+		int space = gridTop - swatchRes / 2 - thumbnailTop();
+		return (space >= swatchRes) ? space : SCREEN.height / 8;
+	}
+	
+	/**
+	 * Width each thumbnail has to fit in, so every style fits in a row.
+	 */
+	private int thumbnailWidth() {
+		return SCREEN.width / (RenderStyle.values().length + 1);
+	}
+	
+	/**
+	 * Size of the thumbnails, with swatches at most half the grid's.
+	 */
+	private Dimension thumbnailSize() {
+		return PaletteRaster.fitSize(rawColors.getHueCount(), rawColors.getValueCount(), thumbnailWidth(),
+				thumbnailSpace(), swatchRes / 2);
+	}
+	
 	///////////////////////////////////////////////////////////////////////////////
 	//
 	// Control
 
 	/**
 	 * Queues the button presses to be executed in the update function.
+	 * Only to be called from one thread at a time, the Keylistener thread.
 	 */
 	public void keyPressed(KeyEvent e) {
 		switch (e.getKeyCode()) {
 		case KeyEvent.VK_RIGHT:
-			rightArrowQueued = true;
-			break;
 		case KeyEvent.VK_LEFT:
-			leftArrowQueued = true;
-			break;
 		case KeyEvent.VK_UP:
-			upArrowQueued = true;
-			break;
 		case KeyEvent.VK_DOWN:
-			downArrowQueued = true;
-			break;
 		case KeyEvent.VK_ENTER:
-			enterQueued = true;
+		case KeyEvent.VK_L:
+		case KeyEvent.VK_P:
+		case KeyEvent.VK_F3:
+		case KeyEvent.VK_PAGE_UP:
+		case KeyEvent.VK_PAGE_DOWN:
+		case KeyEvent.VK_EQUALS:
+		case KeyEvent.VK_ADD:
+		case KeyEvent.VK_MINUS:
+		case KeyEvent.VK_SUBTRACT:
+		case KeyEvent.VK_0:
+		case KeyEvent.VK_NUMPAD0:
+		case KeyEvent.VK_W:
+		case KeyEvent.VK_A:
+		case KeyEvent.VK_S:
+		case KeyEvent.VK_D:
+			input.put(e.getKeyCode());
 			break;
 		}
 	}
@@ -712,22 +922,27 @@ public class Application {
 	// Misc
 
 	private void incrementState() {
+		ApplicationState previous = state;
 		switch (state) {
 		case PICK_HUE_STYLE:
 			// State specific change
 			hueStyle = HueStyle.values()[selectionVal];
+			if (hueStyle == HueStyle.IMAGE) {
+				imageHues = loadImageHues();
+				if (imageHues == null) hueStyle = HueStyle.LINEAR;
+			}
 			hues = new float[] {0.0f};
 			// Increment
 			state = ApplicationState.PICK_HUES;
 			selectionMin = 1;
-			selectionMax = 28;
+			selectionMax = MAX_HUE_COUNT;
 			selectionVal = selectionMin;
 			break;
 		case PICK_HUES:
 			// Increment
 			state = ApplicationState.PICK_VALUE_COUNT;
 			selectionMin = 3;
-			selectionMax = 8;
+			selectionMax = MAX_VALUE_COUNT;
 			selectionVal = selectionMin;
 			break;
 		case PICK_VALUE_COUNT:
@@ -757,13 +972,13 @@ public class Application {
 			break;
 		case ADJUST_TINTS:
 			// State specific change
-			rawColors = new Color[valueIDs.length][hues.length];
 			finalizeTints();
 			// Increment
 			state = ApplicationState.PICK_RENDER_STYLE;
 			selectionVal = 0;
 			selectionMin = 0;
 			selectionMax = RenderStyle.values().length - 1;
+			startPreviews();
 			break;
 		case PICK_RENDER_STYLE:
 			// State specific change
@@ -772,56 +987,97 @@ public class Application {
 			exportPalette();
 			break;
 		}
-
+		if (state != previous) saveSession();
 	}
 
 	/**
-	 * Called after the last application state. Turns the rawColors
-	 * color array into an image file to be exported. If the user has
-	 * a folder on their desktop named "palettes", the image will be
-	 * exported there. Otherwise the image will be exported to the desktop.
+	 * Called after the last application state. Queues the finalColors to
+	 * be written as an image file and any other selected formats, then
+	 * starts over with the next palette. If the user has a folder on their
+	 * desktop named "palettes", the image will be exported there.
+	 * Otherwise the image will be exported to the desktop. Formats that
+	 * can't take a palette this big are left out.
 	 */
 	private void exportPalette() {
-		int res = EXPORT_RESOLUTION;
-		int height = valueIDs.length * res;
-		int width = hues.length * res;
-		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		
-		for (int j = 0; j < valueIDs.length; j++) {
-			for (int i = 0; i < hues.length; i++) {
-				int xOff = i * res;
-				int yOff = j * res;
-				for (int y = 0; y < res; y++) {
-					for (int x = 0; x < res; x++) {
-						image.setRGB(xOff + x, height - (yOff + y) - 1, finalColors[j][i].getRGB());
-					}
-				}
-			}
+		List<PaletteExporter> supporting = PaletteExporters.supporting(exporters, finalColors.size());
+		if (!supporting.isEmpty()) {
+			exportQueue().submit(finalColors, Path.of(outputDirectory()), "palette_", supporting);
 		}
-		
+		startOver();
+	}
+	
+	/**
+	 * Queues a 3D LUT of the render style currently being previewed, it's
+	 * baked and written where palettes are exported.
+	 */
+	private void exportLut() {
+		if (rawColors.size() > PaletteExporters.MAX_LOOKUP_SWATCHES) return;
+		PaletteBuffer colors = styleColors(RenderStyle.values()[selectionVal]);
+		exportQueue().submit(colors, Path.of(outputDirectory()), "lut_", lutExporters);
+	}
+	
+	private ExportQueue exportQueue() {
+		if (exportQueue == null) {
+			exportQueue = new ExportQueue(EXPORT_QUEUE_SIZE, this::backgroundChanged);
+		}
+		return exportQueue;
+	}
+	
+	/**
+	 * Goes back to the first state for the next palette, the working space stays.
+	 */
+	private void startOver() {
+		previews.clear();
+		viewport.resetView();
+		state = ApplicationState.PICK_HUE_STYLE;
+		selectionVal = 0;
+		selectionMin = 0;
+		selectionMax = HueStyle.values().length - 1;
+		hueOffset = 0.0f;
+		hues = null;
+		valueIDs = null;
+		selectedColor = 'r';
+		rTint = 0;
+		gTint = 0;
+		bTint = 0;
+		rawColors = null;
+		finalColors = null;
+	}
+	
+	/**
+	 * The "palettes" folder on the desktop if there is one, otherwise the desktop.
+	 */
+	private static String outputDirectory() {
+		File directoryPath = new File(System.getProperty("user.home") + "/Desktop/palettes/");
+		if (directoryPath.exists() && directoryPath.isDirectory()) {
+			return System.getProperty("user.home") + "/Desktop/palettes/";
+		} else {
+			return System.getProperty("user.home") + "/Desktop/";
+		}
+	}
+	
+	/**
+	 * Whether an image for the IMAGE hue style was given.
+	 */
+	private static boolean hasHueImage() {
+		return HUE_IMAGE != null && !HUE_IMAGE.isBlank();
+	}
+	
+	/**
+	 * Reads the hue histogram of HUE_IMAGE, or returns null if there is no
+	 * usable image so the IMAGE hue style can fall back to LINEAR.
+	 */
+	private static ImageHues loadImageHues() {
+		if (!hasHueImage()) return null;
 		try {
-			String outputDirectory;
-			File directoryPath = new File(System.getProperty("user.home") + "/Desktop/palettes/");
-			if (directoryPath.exists() && directoryPath.isDirectory()) {
-				outputDirectory = System.getProperty("user.home") + "/Desktop/palettes/";
-			} else {
-				outputDirectory = System.getProperty("user.home") + "/Desktop/";
-			}
-			String fileName;
-			File filePath;
-			int paletteNum = 0;
-			do {
-				fileName = "palette_" + paletteNum + ".png";
-				filePath = new File(outputDirectory + fileName);
-				paletteNum++;
-			} while (filePath.exists());
-			ImageIO.write(image, "png", filePath);
+			long start = Instrumentation.begin(Stage.IMAGE_HUES);
+			ImageHues imageHues = ImageHues.read(Path.of(HUE_IMAGE));
+			Instrumentation.record(Stage.IMAGE_HUES, start);
+			return imageHues;
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}
-		
-		System.out.println("outputted image");
-		System.exit(0);
 	}
 	
 	/** 
@@ -829,42 +1085,9 @@ public class Application {
 	 * into concrete colors into an array of Colors, rawColors.
 	 */
 	private void finalizeTints() {
-		for (int j = 0; j < valueIDs.length; j++) {
-			// By hues
-			for (int i = 0; i < hues.length; i++) {
-				// Calculate the color just like normal
-				float valueID = valueIDs[j];
-				Color c;
-				if (valueID > 1.0f) {
-					c = Color.getHSBColor(hues[i], (2.0f - valueIDs[j]) * saturationAdjustment, 1.0f * brightnessAdjustment);
-				} else {
-					c = Color.getHSBColor(hues[i], 1.0f * saturationAdjustment, valueIDs[j] * brightnessAdjustment);
-				}
-				// Adjust RGB values with weighted average with tint
-				double redRatio = rTint / 100.0;
-				double greenRatio = gTint / 100.0;
-				double blueRatio = bTint / 100.0;
-				int deltaRed = (int) (redRatio * 255);
-				int deltaGreen = (int) (greenRatio * 255);
-				int deltaBlue = (int) (blueRatio * 255);
-				int newRed = c.getRed();
-				int newGreen = c.getGreen();
-				int newBlue = c.getBlue();
-				// Adjust red tint with weighted aberage
-				newRed = deltaRed + (int)(newRed * (1.0 - redRatio));
-				newRed = Math.min(newRed, 255);
-				newRed = Math.max(newRed, 0);
-				newGreen = deltaGreen + (int)(newGreen * (1.0 - redRatio));
-				newGreen = Math.min(newGreen, 255);
-				newGreen = Math.max(newGreen, 0);
-				newBlue = deltaBlue + (int)(newBlue * (1.0 - redRatio));
-				newBlue = Math.min(newBlue, 255);
-				newBlue = Math.max(newBlue, 0);
-				c = new Color(newRed, newGreen, newBlue);
-				// Set color to raw colors
-				rawColors[j][i] = c;
-			}
-		}
+		long start = Instrumentation.begin(Stage.FINALIZE_TINTS);
+		rawColors = tintedColors();
+		Instrumentation.record(Stage.FINALIZE_TINTS, start);
 	}
 	
 	/** 
@@ -873,138 +1096,119 @@ public class Application {
 	 * to the colors before being exportation.
 	 */
 	private void finalizeColors() {
-		finalColors = new Color[valueIDs.length][hues.length];
-		
-		switch (renderStyle) {
-		case BASIC:
-			for (int j = 0; j < valueIDs.length; j++) {
-				for (int i = 0; i < hues.length; i++) {
-					finalColors[j][i] = rawColors[j][i];
-				}
-			}
-			break;
-		case PAIRWISE_GRADIENT:
-			// By values
-			double gradientStep = 1.0 / valueIDs.length;
-			for (int j = 0; j < valueIDs.length; j++) {
-				// By hues
-				for (int i = 0; i < hues.length; i++) {
-					int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-					Color currentColor = rawColors[j][i];
-					Color nextColor = rawColors[j][nextIndex];
-					// Take weighted average of each color
-					double gradient = gradientStep * j + gradientStep / 2.0;
-					double invGradient = 1 - gradient;
-					int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextColor.getRed() * invGradient));
-					int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextColor.getGreen() * invGradient));
-					int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextColor.getBlue() * invGradient));
-					finalColors[j][i] = new Color (wr, wg, wb);
-				}
-			}
-			break;
-		case INVERSE_PAIRWISE_GRADIENT:
-			// By values
-			gradientStep = 1.0 / valueIDs.length;
-			for (int j = 0; j < valueIDs.length; j++) {
-				// By hues
-				for (int i = 0; i < hues.length; i++) {
-					int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-					Color currentColor = rawColors[j][i];
-					Color nextColor = rawColors[j][nextIndex];
-					// Take weighted average of each color
-					double invGradient = gradientStep * j  + gradientStep / 2.0;
-					double gradient = 1 - invGradient;
-					int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextColor.getRed() * invGradient));
-					int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextColor.getGreen() * invGradient));
-					int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextColor.getBlue() * invGradient));
-					finalColors[j][i] = new Color (wr, wg, wb);
-				}
-			}
-			break;
-		case PAIRWISE_GRADIENT_DEGREE_2:
-			// By values
-			gradientStep = 1.0 / valueIDs.length;
-			for (int j = 0; j < valueIDs.length; j++) {
-				// By hues
-				for (int i = 0; i < hues.length; i++) {
-					int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-					int nextNextIndex = (nextIndex == hues.length - 1) ? 0 : nextIndex + 1;
-					Color currentColor = rawColors[j][i];
-					Color nextNextColor = rawColors[j][nextNextIndex];
-					// Take weighted average of each color
-					double gradient = gradientStep * j + gradientStep / 2.0;
-					double invGradient = 1 - gradient;
-					int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextNextColor.getRed() * invGradient));
-					int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextNextColor.getGreen() * invGradient));
-					int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextNextColor.getBlue() * invGradient));
-					finalColors[j][i] = new Color (wr, wg, wb);
-				}
-			}
-			break;
-		case PAIRWISE_GRADIENT_DEGREE_3:
-			// By values
-			gradientStep = 1.0 / valueIDs.length;
-			for (int j = 0; j < valueIDs.length; j++) {
-				// By hues
-				for (int i = 0; i < hues.length; i++) {
-					int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-					int nextNextIndex = (nextIndex == hues.length - 1) ? 0 : nextIndex + 1;
-					int nextNextNextIndex = (nextNextIndex == hues.length - 1) ? 0 : nextNextIndex + 1;
-					Color currentColor = rawColors[j][i];
-					Color nextNextNextColor = rawColors[j][nextNextNextIndex];
-					// Take weighted average of each color
-					double gradient = gradientStep * j + gradientStep / 2.0;
-					double invGradient = 1 - gradient;
-					int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextNextNextColor.getRed() * invGradient));
-					int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextNextNextColor.getGreen() * invGradient));
-					int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextNextNextColor.getBlue() * invGradient));
-					finalColors[j][i] = new Color (wr, wg, wb);
-				}
-			}
-			break;
-		case PAIRWISE_GRADIENT_DEGREE_4:
-			// By values
-			gradientStep = 1.0 / valueIDs.length;
-			for (int j = 0; j < valueIDs.length; j++) {
-				// By hues
-				for (int i = 0; i < hues.length; i++) {
-					int nextIndex = (i == hues.length - 1) ? 0 : i + 1;
-					int nextNextIndex = (nextIndex == hues.length - 1) ? 0 : nextIndex + 1;
-					int nextNextNextIndex = (nextNextIndex == hues.length - 1) ? 0 : nextNextIndex + 1;
-					int nextNextNextNextIndex = (nextNextNextIndex == hues.length - 1) ? 0 : nextNextNextIndex + 1;
-					Color currentColor = rawColors[j][i];
-					Color nextNextNextNextColor = rawColors[j][nextNextNextNextIndex];
-					// Take weighted average of each color
-					double gradient = gradientStep * j + gradientStep / 2.0;
-					double invGradient = 1 - gradient;
-					int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextNextNextNextColor.getRed() * invGradient));
-					int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextNextNextNextColor.getGreen() * invGradient));
-					int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextNextNextNextColor.getBlue() * invGradient));
-					finalColors[j][i] = new Color (wr, wg, wb);
-				}
-			}
-			break;
-		}
+		long start = Instrumentation.begin(Stage.FINALIZE_COLORS);
+		finalColors = styleColors(renderStyle);
+		Instrumentation.record(Stage.FINALIZE_COLORS, start);
+	}
+	
+	/**
+	 * Colors of rawColors in the render style, from the previews if that
+	 * style is already worked out.
+	 */
+	private PaletteBuffer styleColors(RenderStyle style) {
+		PaletteBuffer colors = previews.colors(style);
+		return (colors != null) ? colors : PaletteEngine.finalizeColors(rawColors, style, workingSpace);
+	}
+	
+	/**
+	 * Starts working out every render style of rawColors in the background.
+	 * Called whenever rawColors changes while picking the render style.
+	 */
+	private void startPreviews() {
+		previews.compute(rawColors, workingSpace, thumbnailWidth(), thumbnailSpace(), swatchRes / 2);
 	}
 	
 	/**
 	 * Called by the PICK_VALUE_COUNT state. Calculates the "valueID" 
 	 * of each swatch based on the selected amount. 
 	 * 
-	 * <p> "valueID"'s are my representation of value between 0.0f and 2.0f.
-	 * <p> Where 0.0f is black, where 1.0f is red (for example), and where 2.0 is white
-	 * 
-	 * <p> To go from 1.0f to 0.0f you would decrease the brightness from pure red. 
-	 * To go from 1.0f to 2.0f you would increase the saturation from pure red
+	 * @see PaletteEngine#deriveValueIds(int)
 	 */
 	private float[] deriveValueId() {
-		float[] values = new float[selectionVal]; 
-		float valueStep = 1.0f / ((float) selectionVal - 1);
-		for (int i = 0; i < selectionVal; i++) {
-			values[i] = valueStep * i;
-			values[i] *= 2;
+		return PaletteEngine.deriveValueIds(selectionVal);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Sessions
+
+	/**
+	 * Snapshot of everything picked so far.
+	 */
+	public SessionSnapshot snapshot() {
+		SessionSnapshot snapshot = new SessionSnapshot();
+		snapshot.state = state;
+		snapshot.selectionVal = selectionVal;
+		snapshot.selectionMin = selectionMin;
+		snapshot.selectionMax = selectionMax;
+		snapshot.hueStyle = hueStyle;
+		snapshot.hueOffset = hueOffset;
+		snapshot.hues = (hues == null) ? null : hues.clone();
+		snapshot.valueCount = valueCount;
+		snapshot.valueIDs = (valueIDs == null) ? null : valueIDs.clone();
+		snapshot.saturationAdjustment = saturationAdjustment;
+		snapshot.brightnessAdjustment = brightnessAdjustment;
+		snapshot.rTint = rTint;
+		snapshot.gTint = gTint;
+		snapshot.bTint = bTint;
+		snapshot.selectedColor = selectedColor;
+		snapshot.renderStyle = renderStyle;
+		snapshot.workingSpace = workingSpace;
+		return snapshot;
+	}
+	
+	/**
+	 * Picks a session back up at the state its snapshot was taken in.
+	 * Everything derived from the picks is worked out again.
+	 */
+	public void resume(SessionSnapshot snapshot) {
+		state = snapshot.state;
+		selectionVal = snapshot.selectionVal;
+		selectionMin = snapshot.selectionMin;
+		selectionMax = snapshot.selectionMax;
+		hueStyle = snapshot.hueStyle;
+		hueOffset = snapshot.hueOffset;
+		hues = (snapshot.hues == null) ? null : snapshot.hues.clone();
+		valueCount = snapshot.valueCount;
+		valueIDs = (snapshot.valueIDs == null) ? null : snapshot.valueIDs.clone();
+		saturationAdjustment = snapshot.saturationAdjustment;
+		brightnessAdjustment = snapshot.brightnessAdjustment;
+		rTint = snapshot.rTint;
+		gTint = snapshot.gTint;
+		bTint = snapshot.bTint;
+		selectedColor = snapshot.selectedColor;
+		renderStyle = snapshot.renderStyle;
+		workingSpace = snapshot.workingSpace;
+		// Image hues are only derived again while picking the hue count
+		if (state == ApplicationState.PICK_HUES && hueStyle == HueStyle.IMAGE) {
+			imageHues = loadImageHues();
+			if (imageHues == null) hueStyle = HueStyle.LINEAR;
+		}
+		if (state == ApplicationState.PICK_RENDER_STYLE) {
+			finalizeTints();
+			startPreviews();
+		}
+		stateChanged();
+	}
+	
+	/**
+	 * Reads the snapshot saved when the state was last entered.
+	 *
+	 * @param state State to resume at, or null for whichever was saved last
+	 */
+	public static SessionSnapshot loadSession(ApplicationState state) throws IOException {
+		return SessionSnapshot.load(SESSION_DIRECTORY, state);
+	}
+	
+	/**
+	 * Saves a snapshot of the state that was just entered.
+	 */
+	private void saveSession() {
+		try {
+			snapshot().save(SESSION_DIRECTORY);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		return values;
 	}
 	
 }
@@ -2,7 +2,7 @@ package engine;
 
 /**
  * States the application caries out in order of appearance. After the
- * last state the application exports the image and closes itself.
+ * last state the application queues the export and starts over.
  * 
  * @author Jello
  */
@@ -0,0 +1,140 @@
+package engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffers small writes in a ByteBuffer and hands them to a channel in
+ * big chunks. Numbers are big endian like most file formats want them.
+ */
+
+public final class ChannelWriter implements AutoCloseable {
+
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	public ChannelWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_CAPACITY);
+	}
+
+	public ChannelWriter(WritableByteChannel channel, int capacity) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.BIG_ENDIAN);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Writing
+
+	public ChannelWriter putByte(int b) throws IOException {
+		ensure(1);
+		buffer.put((byte) b);
+		return this;
+	}
+
+	public ChannelWriter putShort(int s) throws IOException {
+		ensure(2);
+		buffer.putShort((short) s);
+		return this;
+	}
+
+	public ChannelWriter putInt(int i) throws IOException {
+		ensure(4);
+		buffer.putInt(i);
+		return this;
+	}
+
+	public ChannelWriter putFloat(float f) throws IOException {
+		ensure(4);
+		buffer.putFloat(f);
+		return this;
+	}
+
+	public ChannelWriter putBytes(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			ensure(1);
+			int n = Math.min(length, buffer.remaining());
+			buffer.put(bytes, offset, n);
+			offset += n;
+			length -= n;
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the text as UTF-8.
+	 */
+	public ChannelWriter putText(CharSequence text) throws IOException {
+		byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		return putBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes each char as UTF-16 big endian, no byte order mark.
+	 */
+	public ChannelWriter putUtf16(CharSequence text) throws IOException {
+		for (int k = 0; k < text.length(); k++) {
+			putShort(text.charAt(k));
+		}
+		return this;
+	}
+
+	/**
+	 * OutputStream view for code that writes to streams. Flushing it
+	 * flushes this writer, closing it does nothing.
+	 */
+	public OutputStream asOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				putByte(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				putBytes(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				ChannelWriter.this.flush();
+			}
+		};
+	}
+
+	/**
+	 * Hands everything buffered so far to the channel.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Flushes and closes the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+}
@@ -0,0 +1,318 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Balanced k-d tree over the distinct RGB colors of a palette, for finding
+ * the palette color closest to any other color. Distances are squared
+ * euclidean distances in 8-bit RGB.
+ *
+ * <p> The tree is stored in flat arrays: the median of each range is the
+ * node and the halves to its left and right are its subtrees. Each median
+ * is found with a three way quickselect on the packed colors themselves,
+ * so building the tree takes n log n steps and never boxes a color, which
+ * matters for palettes of millions of swatches. Immutable once built, so
+ * one tree can be searched from many threads at once.
+ */
+
+public final class ColorKdTree {
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	// Distinct colors in tree order and their channels
+	private final int[] colors;
+	private final int[][] channels;
+	// Split axis of the node at each index
+	private final byte[] axes;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * Builds the tree from packed RGB colors. Duplicates are dropped and
+	 * alpha is ignored.
+	 */
+	public ColorKdTree(int[] palette) {
+		if (palette.length == 0) throw new IllegalArgumentException("Can't build a tree without colors");
+		colors = distinct(palette);
+		channels = new int[3][colors.length];
+		axes = new byte[colors.length];
+		build(0, colors.length);
+		for (int k = 0; k < colors.length; k++) {
+			channels[0][k] = PaletteBuffer.red(colors[k]);
+			channels[1][k] = PaletteBuffer.green(colors[k]);
+			channels[2][k] = PaletteBuffer.blue(colors[k]);
+		}
+	}
+
+	public ColorKdTree(PaletteBuffer palette) {
+		this(palette.array());
+	}
+
+	/**
+	 * The distinct RGB colors in the order they first appear, marked off in a
+	 * bit per possible color.
+	 */
+	private static int[] distinct(int[] palette) {
+		long[] seen = new long[1 << 18];
+		int[] distinct = new int[palette.length];
+		int count = 0;
+		for (int color : palette) {
+			int rgb = color & 0xffffff;
+			long bit = 1L << rgb;
+			if ((seen[rgb >>> 6] & bit) == 0) {
+				seen[rgb >>> 6] |= bit;
+				distinct[count++] = rgb;
+			}
+		}
+		return Arrays.copyOf(distinct, count);
+	}
+
+	/**
+	 * Splits the range at its median on the widest channel and recurses
+	 * into both halves.
+	 */
+	private void build(int from, int to) {
+		if (to - from <= 0) return;
+		int axis = widestAxis(from, to);
+		int middle = (from + to) >>> 1;
+		select(from, to, middle, 16 - axis * 8);
+		axes[middle] = (byte) axis;
+		build(from, middle);
+		build(middle + 1, to);
+	}
+
+	/**
+	 * Reorders the range so the color at nth has the channel value it would
+	 * have sorted, with nothing bigger before it and nothing smaller after.
+	 * Partitions three ways since a channel has only 256 values and
+	 * palettes repeat them a lot.
+	 */
+	private void select(int from, int to, int nth, int shift) {
+		while (to - from > 1) {
+			int pivot = medianOfThree(channel(colors[from], shift), channel(colors[(from + to) >>> 1], shift),
+					channel(colors[to - 1], shift));
+			// [from, less) < pivot, [less, k) == pivot, (greater, to) > pivot
+			int less = from;
+			int greater = to - 1;
+			int k = from;
+			while (k <= greater) {
+				int v = channel(colors[k], shift);
+				if (v < pivot) {
+					swap(less++, k++);
+				} else if (v > pivot) {
+					swap(k, greater--);
+				} else {
+					k++;
+				}
+			}
+			if (nth < less) {
+				to = less;
+			} else if (nth > greater) {
+				from = greater + 1;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static int channel(int color, int shift) {
+		return (color >> shift) & 0xff;
+	}
+
+	private static int medianOfThree(int a, int b, int c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+
+	private void swap(int i, int j) {
+		int t = colors[i];
+		colors[i] = colors[j];
+		colors[j] = t;
+	}
+
+	private int widestAxis(int from, int to) {
+		int best = 0;
+		int bestSpread = -1;
+		for (int axis = 0; axis < 3; axis++) {
+			int shift = 16 - axis * 8;
+			int min = 255, max = 0;
+			for (int k = from; k < to; k++) {
+				int v = (colors[k] >> shift) & 0xff;
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+			}
+			if (max - min > bestSpread) {
+				bestSpread = max - min;
+				best = axis;
+			}
+		}
+		return best;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Queries
+
+	/**
+	 * Amount of distinct colors in the tree.
+	 */
+	public int size() {
+		return colors.length;
+	}
+
+	/**
+	 * Packed RGB color at the given tree index.
+	 */
+	public int color(int index) {
+		return colors[index];
+	}
+
+	/**
+	 * Tree index of the color closest to r, g, b.
+	 */
+	public int nearest(int r, int g, int b) {
+		int[] best = { -1, Integer.MAX_VALUE };
+		nearest(0, colors.length, r, g, b, best, new int[3], 0);
+		return best[0];
+	}
+
+	/**
+	 * Closest palette color to the packed RGB color.
+	 */
+	public int nearestColor(int rgb) {
+		return colors[nearest(PaletteBuffer.red(rgb), PaletteBuffer.green(rgb), PaletteBuffer.blue(rgb))];
+	}
+
+	/**
+	 * Searches a subtree whose colors are at least boxDistance away, with
+	 * offsets holding how far its box is on each channel. Tracking the whole
+	 * box instead of only the last splitting plane is what keeps searches
+	 * from far outside a dense palette from visiting most of the tree.
+	 */
+	private void nearest(int from, int to, int r, int g, int b, int[] best, int[] offsets, int boxDistance) {
+		if (to <= from) return;
+		int node = (from + to) >>> 1;
+		int dr = channels[0][node] - r;
+		int dg = channels[1][node] - g;
+		int db = channels[2][node] - b;
+		int distance = dr * dr + dg * dg + db * db;
+		if (distance < best[1]) {
+			best[0] = node;
+			best[1] = distance;
+		}
+		int axis = axes[node];
+		int diff = (axis == 0) ? -dr : (axis == 1) ? -dg : -db;
+		// Closer half first, the other one only if its box is closer than the best so far
+		int offset = offsets[axis];
+		int farDistance = boxDistance - offset * offset + diff * diff;
+		if (diff < 0) {
+			nearest(from, node, r, g, b, best, offsets, boxDistance);
+			if (farDistance < best[1]) {
+				offsets[axis] = diff;
+				nearest(node + 1, to, r, g, b, best, offsets, farDistance);
+				offsets[axis] = offset;
+			}
+		} else {
+			nearest(node + 1, to, r, g, b, best, offsets, boxDistance);
+			if (farDistance < best[1]) {
+				offsets[axis] = diff;
+				nearest(from, node, r, g, b, best, offsets, farDistance);
+				offsets[axis] = offset;
+			}
+		}
+	}
+
+	/**
+	 * Finds the colors whose squared distance to the box from min to max on
+	 * every channel, both inclusive, is at most bound. Stops as soon as there
+	 * are more than found can hold.
+	 *
+	 * @param found Filled with tree indices in no particular order
+	 * @return How many were found, or -1 if there are more than found.length
+	 */
+	public int within(int[] min, int[] max, int bound, int[] found) {
+		return within(0, colors.length, min, max, bound, found, 0);
+	}
+
+	private int within(int from, int to, int[] min, int[] max, int bound, int[] found, int count) {
+		if (to <= from || count < 0) return count;
+		int node = (from + to) >>> 1;
+		int distance = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			int v = channels[axis][node];
+			int d = (v < min[axis]) ? min[axis] - v : (v > max[axis]) ? v - max[axis] : 0;
+			distance += d * d;
+		}
+		if (distance <= bound) {
+			if (count == found.length) return -1;
+			found[count++] = node;
+		}
+		int axis = axes[node];
+		int v = channels[axis][node];
+		// Colors before the node are at most v on the axis and the ones after at least v
+		int below = (v < min[axis]) ? min[axis] - v : 0;
+		int above = (v > max[axis]) ? v - max[axis] : 0;
+		if (below * below <= bound) count = within(from, node, min, max, bound, found, count);
+		if (above * above <= bound) count = within(node + 1, to, min, max, bound, found, count);
+		return count;
+	}
+
+	/**
+	 * Finds the k closest colors to r, g, b, closest first.
+	 *
+	 * @param indices Filled with tree indices, at least k long
+	 * @param distances Filled with their squared distances, at least k long
+	 * @return How many were found, less than k if the tree is smaller
+	 */
+	public int nearest(int r, int g, int b, int k, int[] indices, int[] distances) {
+		k = Math.min(k, colors.length);
+		Arrays.fill(distances, 0, k, Integer.MAX_VALUE);
+		Arrays.fill(indices, 0, k, -1);
+		nearestK(0, colors.length, r, g, b, k, indices, distances, new int[3], 0);
+		return k;
+	}
+
+	private void nearestK(int from, int to, int r, int g, int b, int k, int[] indices, int[] distances, int[] offsets,
+			int boxDistance) {
+		if (to <= from) return;
+		int node = (from + to) >>> 1;
+		int dr = channels[0][node] - r;
+		int dg = channels[1][node] - g;
+		int db = channels[2][node] - b;
+		int distance = dr * dr + dg * dg + db * db;
+		if (distance < distances[k - 1]) {
+			// Insertion into the sorted result
+			int p = k - 1;
+			while (p > 0 && distances[p - 1] > distance) {
+				distances[p] = distances[p - 1];
+				indices[p] = indices[p - 1];
+				p--;
+			}
+			distances[p] = distance;
+			indices[p] = node;
+		}
+		int axis = axes[node];
+		int diff = (axis == 0) ? -dr : (axis == 1) ? -dg : -db;
+		int offset = offsets[axis];
+		int farDistance = boxDistance - offset * offset + diff * diff;
+		if (diff < 0) {
+			nearestK(from, node, r, g, b, k, indices, distances, offsets, boxDistance);
+			if (farDistance < distances[k - 1]) {
+				offsets[axis] = diff;
+				nearestK(node + 1, to, r, g, b, k, indices, distances, offsets, farDistance);
+				offsets[axis] = offset;
+			}
+		} else {
+			nearestK(node + 1, to, r, g, b, k, indices, distances, offsets, boxDistance);
+			if (farDistance < distances[k - 1]) {
+				offsets[axis] = diff;
+				nearestK(from, node, r, g, b, k, indices, distances, offsets, farDistance);
+				offsets[axis] = offset;
+			}
+		}
+	}
+
+}
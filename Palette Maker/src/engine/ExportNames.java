@@ -0,0 +1,136 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Numbered export names like palette_0, palette_1, ... handed out from a
+ * counter file in the export directory, so picking a name costs the same
+ * however many palettes the directory already holds.
+ *
+ * <p> The counter of each prefix lives in a small text file next to the
+ * exports, .palette_counter for "palette_". It's only read and bumped
+ * while holding a lock on it, so exporters in other threads or processes
+ * never get the same number. The first time a directory is used the
+ * counter starts after the highest number already in it.
+ *
+ * <p> The files themselves are created with CREATE_NEW. If something else
+ * put a file under the reserved name anyway, the next number is reserved
+ * and the export tried again.
+ */
+
+public final class ExportNames {
+
+	private static final int MAX_ATTEMPTS = 16;
+
+	// FileLocks belong to the whole JVM, threads of the same one queue up here
+	private static final Object LOCK = new Object();
+
+	private ExportNames() {
+	}
+
+	/**
+	 * Exports the palette under the next free number of the prefix.
+	 *
+	 * @return The files written
+	 */
+	public static List<Path> exportNext(PaletteBuffer colors, Path directory, String prefix,
+			List<PaletteExporter> exporters) throws IOException {
+		for (int attempt = 1;; attempt++) {
+			String baseName = reserve(directory, prefix, exporters);
+			try {
+				return PaletteExporters.exportAll(colors, directory, baseName, exporters);
+			} catch (FileAlreadyExistsException e) {
+				if (attempt == MAX_ATTEMPTS) throw e;
+			}
+		}
+	}
+
+	/**
+	 * Reserves the next number of the prefix in the directory and returns
+	 * prefix + number. Names with a file of any exporter's extension are
+	 * skipped, that's a few stat calls, not one per export in the directory.
+	 */
+	public static String reserve(Path directory, String prefix, List<PaletteExporter> exporters) throws IOException {
+		Path counterFile = directory.resolve("." + prefix + "counter");
+		synchronized (LOCK) {
+			try (FileChannel channel = FileChannel.open(counterFile, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// Released when the channel closes
+				channel.lock();
+				long next = read(channel);
+				if (next < 0) next = scan(directory, prefix);
+				while (taken(directory, prefix + next, exporters)) {
+					next++;
+				}
+				write(channel, next + 1);
+				return prefix + next;
+			}
+		}
+	}
+
+	private static boolean taken(Path directory, String baseName, List<PaletteExporter> exporters) {
+		for (PaletteExporter exporter : exporters) {
+			if (Files.exists(directory.resolve(baseName + "." + exporter.getExtension()))) return true;
+		}
+		return false;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Counter file
+
+	/**
+	 * The counter, or -1 if the file is new or doesn't hold a number.
+	 */
+	private static long read(FileChannel channel) throws IOException {
+		int size = (int) Math.min(channel.size(), 32);
+		if (size == 0) return -1;
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) break;
+		}
+		try {
+			long value = Long.parseLong(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII).trim());
+			return (value < 0) ? -1 : value;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void write(FileChannel channel, long value) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap((value + "\n").getBytes(StandardCharsets.US_ASCII));
+		channel.truncate(0);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, buffer.position());
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * One past the highest number of the prefix in the directory, done
+	 * once for a directory that has exports from before the counter.
+	 */
+	private static long scan(Path directory, String prefix) throws IOException {
+		long next = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				int end = prefix.length();
+				while (end < name.length() && name.charAt(end) >= '0' && name.charAt(end) <= '9') end++;
+				if (end == prefix.length() || end == name.length() || name.charAt(end) != '.' || end - prefix.length() > 18) continue;
+				next = Math.max(next, Long.parseLong(name.substring(prefix.length(), end)) + 1);
+			}
+		}
+		return next;
+	}
+
+}
@@ -0,0 +1,171 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import engine.Instrumentation.Stage;
+
+/**
+ * Writes exports on a background thread so the window keeps running while
+ * palettes are encoded, and one session can export as many as it likes.
+ *
+ * <p> submit() copies the colors and hands them to a bounded queue, if it
+ * is full the caller waits for the writer to catch up. A single writer
+ * thread takes the exports in order and names and writes them through
+ * ExportNames. Exports still in the queue when the JVM shuts down are
+ * written before it exits.
+ */
+
+public final class ExportQueue implements AutoCloseable {
+
+	/**
+	 * Exports that can wait in the queue by default.
+	 */
+	public static final int DEFAULT_CAPACITY = 8;
+
+	// Tells the writer there is nothing more to come
+	private static final Export END = new Export(null, null, null, null);
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final BlockingQueue<Export> queue;
+	private final Thread writer;
+	private final Thread shutdownHook;
+	private final Runnable onWritten;
+	// Submitted and not written yet
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile boolean closed;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * Starts the writer thread.
+	 *
+	 * @param capacity Exports that can wait in the queue
+	 * @param onWritten Run on the writer thread after every export
+	 */
+	public ExportQueue(int capacity, Runnable onWritten) {
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+		this.onWritten = onWritten;
+		this.writer = new Thread(this::write, "PaletteExport");
+		this.writer.setDaemon(true);
+		this.writer.start();
+		this.shutdownHook = new Thread(this::close, "PaletteExportFlush");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Exporting
+
+	/**
+	 * Queues an export of a copy of the colors as the next free prefix + number
+	 * in the directory. Waits if the queue is full.
+	 */
+	public synchronized void submit(PaletteBuffer colors, Path directory, String prefix, List<PaletteExporter> exporters) {
+		if (closed) throw new IllegalStateException("Export queue is closed");
+		pending.incrementAndGet();
+		try {
+			queue.put(new Export(colors.copy(), directory, prefix, exporters));
+		} catch (InterruptedException e) {
+			pending.decrementAndGet();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Exports submitted and not written yet.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	private void write() {
+		while (true) {
+			Export export;
+			try {
+				export = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (export == END) return;
+			try {
+				long start = Instrumentation.begin(Stage.EXPORT);
+				List<Path> files = ExportNames.exportNext(export.colors, export.directory, export.prefix, export.exporters);
+				Instrumentation.recordExport(start, baseName(files.get(0)), extensions(export.exporters), start - export.submitted);
+				System.out.println("outputted " + files.get(0).getFileName() + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace();
+			}
+			pending.decrementAndGet();
+			onWritten.run();
+		}
+	}
+
+	private static String baseName(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		return (dot < 0) ? name : name.substring(0, dot);
+	}
+
+	private static String extensions(List<PaletteExporter> exporters) {
+		StringBuilder extensions = new StringBuilder();
+		for (PaletteExporter exporter : exporters) {
+			if (extensions.length() > 0) extensions.append(',');
+			extensions.append(exporter.getExtension());
+		}
+		return extensions.toString();
+	}
+
+	/**
+	 * Stops taking exports and waits until every queued one is written.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+		try {
+			queue.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// Already shutting down
+			}
+		}
+	}
+
+	/**
+	 * One queued export.
+	 */
+	private static final class Export {
+
+		final PaletteBuffer colors;
+		final Path directory;
+		final String prefix;
+		final List<PaletteExporter> exporters;
+		final long submitted = System.nanoTime();
+
+		Export(PaletteBuffer colors, Path directory, String prefix, List<PaletteExporter> exporters) {
+			this.colors = colors;
+			this.directory = directory;
+			this.prefix = prefix;
+			this.exporters = exporters;
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package engine;
+
+/**
+ * Allocation free HSB to packed RGB conversion that gives exactly the same
+ * result as Color.HSBtoRGB, it does the same float operations in the same
+ * order.
+ *
+ * <p> The hue only decides which sector of the color wheel a swatch is in
+ * and how far into it, and a palette only has a handful of hues. A HueTable
+ * works those out once per hue so converting a swatch is left with a few
+ * multiplications.
+ */
+
+public final class HsbConverter {
+
+	private HsbConverter() {
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Conversion
+
+	/**
+	 * Same as Color.HSBtoRGB(hue, saturation, brightness).
+	 */
+	public static int toRGB(float hue, float saturation, float brightness) {
+		float h = (hue - (float) Math.floor(hue)) * 6.0f;
+		return toRGB((int) h, h - (float) Math.floor(h), saturation, brightness);
+	}
+
+	/**
+	 * Converts a swatch of hue number i of the table.
+	 */
+	public static int toRGB(HueTable table, int i, float saturation, float brightness) {
+		return toRGB(table.sectors[i], table.fractions[i], saturation, brightness);
+	}
+
+	/**
+	 * @param sector Which sixth of the color wheel the hue is in
+	 * @param f How far into the sector the hue is, from 0.0f to 1.0f
+	 */
+	private static int toRGB(int sector, float f, float saturation, float brightness) {
+		int r = 0, g = 0, b = 0;
+		if (saturation == 0) {
+			r = g = b = channel(brightness);
+		} else {
+			float p = brightness * (1.0f - saturation);
+			float q = brightness * (1.0f - saturation * f);
+			float t = brightness * (1.0f - (saturation * (1.0f - f)));
+			switch (sector) {
+			case 0:
+				r = channel(brightness);
+				g = channel(t);
+				b = channel(p);
+				break;
+			case 1:
+				r = channel(q);
+				g = channel(brightness);
+				b = channel(p);
+				break;
+			case 2:
+				r = channel(p);
+				g = channel(brightness);
+				b = channel(t);
+				break;
+			case 3:
+				r = channel(p);
+				g = channel(q);
+				b = channel(brightness);
+				break;
+			case 4:
+				r = channel(t);
+				g = channel(p);
+				b = channel(brightness);
+				break;
+			case 5:
+				r = channel(brightness);
+				g = channel(p);
+				b = channel(q);
+				break;
+			}
+		}
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+
+	private static int channel(float value) {
+		return (int) (value * 255.0f + 0.5f);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Hue table
+
+	/**
+	 * Color wheel sector and position within it of every hue of a palette.
+	 */
+	public static final class HueTable {
+
+		private final int[] sectors;
+		private final float[] fractions;
+
+		public HueTable(float[] hues) {
+			sectors = new int[hues.length];
+			fractions = new float[hues.length];
+			for (int i = 0; i < hues.length; i++) {
+				float h = (hues[i] - (float) Math.floor(hues[i])) * 6.0f;
+				sectors[i] = (int) h;
+				fractions[i] = h - (float) Math.floor(h);
+			}
+		}
+
+		public int size() {
+			return sectors.length;
+		}
+	}
+
+}
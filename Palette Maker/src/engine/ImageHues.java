@@ -0,0 +1,365 @@
+package engine;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Dominant hues of a reference image, for the IMAGE hue style.
+ *
+ * <p> The image is memory mapped and decoded with subsampling so at most
+ * MAX_SAMPLES pixels are looked at, however big the file is. The samples
+ * go into an RGB histogram in parallel, which is folded into a histogram
+ * of hues where every pixel counts as much as it is colorful, grays don't
+ * have a hue worth keeping.
+ *
+ * <p> The hues are found with k-means on the histogram. Hues wrap around,
+ * so every bin is a point on the unit circle and the clusters are the
+ * directions the colorful pixels pile up in. Only the histogram is ever
+ * clustered, so changing the hue count doesn't touch the image again.
+ *
+ * <p> Past MAX_CLUSTERS hues clustering gets slow and there are more hues
+ * than colorful bins to put them on, so the hues are spread over the
+ * histogram instead, as many in each bin as its share of the colorfulness.
+ */
+
+public final class ImageHues {
+
+	/**
+	 * Most pixels sampled from an image.
+	 */
+	public static final int MAX_SAMPLES = 1 << 20;
+
+	private static final int RGB_BITS = 5;
+	private static final int HUE_BINS = 1024;
+	private static final int MAX_ITERATIONS = 64;
+	private static final int MAX_CLUSTERS = 64;
+	private static final int ROWS_PER_TASK = 16;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	// How colorful the pixels of each hue bin are all together
+	private final double[] weights;
+	private final double totalWeight;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * @param weights Weight of each hue bin, evenly spaced around the color wheel
+	 */
+	private ImageHues(double[] weights) {
+		this.weights = weights;
+		this.totalWeight = Arrays.stream(weights).sum();
+	}
+
+	/**
+	 * Samples the image and builds its hue histogram.
+	 */
+	public static ImageHues read(Path image) throws IOException {
+		return fromImage(sample(image));
+	}
+
+	/**
+	 * Builds the hue histogram of an image that's already in memory.
+	 */
+	public static ImageHues fromImage(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int tasks = (height + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+		// One RGB histogram per task, summed afterwards
+		int[] rgbHistogram = IntStream.range(0, tasks).parallel().mapToObj(task -> {
+			int[] histogram = new int[1 << (3 * RGB_BITS)];
+			int[] row = new int[width];
+			int shift = 8 - RGB_BITS;
+			for (int y = task * ROWS_PER_TASK; y < Math.min(height, (task + 1) * ROWS_PER_TASK); y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int rgb : row) {
+					int r = PaletteBuffer.red(rgb) >> shift;
+					int g = PaletteBuffer.green(rgb) >> shift;
+					int b = PaletteBuffer.blue(rgb) >> shift;
+					histogram[(r << (2 * RGB_BITS)) | (g << RGB_BITS) | b]++;
+				}
+			}
+			return histogram;
+		}).reduce(new int[1 << (3 * RGB_BITS)], (a, b) -> {
+			int[] sum = new int[a.length];
+			for (int k = 0; k < sum.length; k++) {
+				sum[k] = a[k] + b[k];
+			}
+			return sum;
+		});
+
+		// Fold into hues, weighted by chroma
+		double[] weights = new double[HUE_BINS];
+		int mask = (1 << RGB_BITS) - 1;
+		float[] hsb = new float[3];
+		for (int bin = 0; bin < rgbHistogram.length; bin++) {
+			if (rgbHistogram[bin] == 0) continue;
+			int r = center(bin >> (2 * RGB_BITS));
+			int g = center((bin >> RGB_BITS) & mask);
+			int b = center(bin & mask);
+			int chroma = Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+			if (chroma == 0) continue;
+			Color.RGBtoHSB(r, g, b, hsb);
+			int hueBin = Math.min(HUE_BINS - 1, (int) (hsb[0] * HUE_BINS));
+			weights[hueBin] += (double) rgbHistogram[bin] * chroma;
+		}
+		return new ImageHues(weights);
+	}
+
+	/**
+	 * Middle of the channel values that fall into a histogram level.
+	 */
+	private static int center(int level) {
+		return (level << (8 - RGB_BITS)) + (1 << (7 - RGB_BITS));
+	}
+
+	/**
+	 * Decodes the image memory mapped and subsampled down to at most MAX_SAMPLES pixels.
+	 */
+	private static BufferedImage sample(Path image) throws IOException {
+		try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+			ImageInputStream stream = (channel.size() <= Integer.MAX_VALUE)
+					? new MappedImageInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))
+					: ImageIO.createImageInputStream(image.toFile());
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+				if (!readers.hasNext()) throw new IOException("No reader for " + image);
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(stream, true, true);
+					long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+					int step = Math.max(1, (int) Math.ceil(Math.sqrt((double) pixels / MAX_SAMPLES)));
+					ImageReadParam param = reader.getDefaultReadParam();
+					param.setSourceSubsampling(step, step, 0, 0);
+					return reader.read(0, param);
+				} finally {
+					reader.dispose();
+				}
+			} finally {
+				stream.close();
+			}
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Hues
+
+	/**
+	 * Whether the image has any color at all, grayscale images have no hues to pick.
+	 */
+	public boolean hasHues() {
+		return totalWeight > 0;
+	}
+
+	/**
+	 * The hueCount most dominant hues from 0.0f to 1.0f, in order around
+	 * the color wheel. Falls back to equidistant hues if the image is gray.
+	 */
+	public float[] hues(int hueCount) {
+		float[] hues = new float[hueCount];
+		if (!hasHues()) {
+			for (int i = 0; i < hueCount; i++) {
+				hues[i] = ((float) i) / hueCount;
+			}
+			return hues;
+		}
+		if (hueCount > MAX_CLUSTERS) return spread(hueCount);
+		double[] centers = kMeans(hueCount);
+		for (int i = 0; i < hueCount; i++) {
+			hues[i] = (float) centers[i];
+		}
+		Arrays.sort(hues);
+		return hues;
+	}
+
+	/**
+	 * Hues at evenly spaced quantiles of the colorfulness, already in order.
+	 */
+	private float[] spread(int hueCount) {
+		float[] hues = new float[hueCount];
+		int bin = 0;
+		double below = 0;
+		for (int i = 0; i < hueCount; i++) {
+			double target = (i + 0.5) / hueCount * totalWeight;
+			while (bin < HUE_BINS - 1 && below + weights[bin] <= target) {
+				below += weights[bin++];
+			}
+			// Where in the bin the quantile falls
+			double within = (weights[bin] > 0) ? Math.min(1, (target - below) / weights[bin]) : 0.5;
+			hues[i] = (float) ((bin + within) / HUE_BINS);
+		}
+		return hues;
+	}
+
+	/**
+	 * Hue of each cluster center from 0.0 to 1.0.
+	 */
+	private double[] kMeans(int k) {
+		double[] binX = new double[HUE_BINS];
+		double[] binY = new double[HUE_BINS];
+		for (int bin = 0; bin < HUE_BINS; bin++) {
+			double angle = 2 * Math.PI * (bin + 0.5) / HUE_BINS;
+			binX[bin] = Math.cos(angle);
+			binY[bin] = Math.sin(angle);
+		}
+
+		// k-means++ seeding, seeded so the same image always gives the same hues
+		Random random = new Random(HUE_BINS);
+		double[] centerX = new double[k];
+		double[] centerY = new double[k];
+		double[] nearest = new double[HUE_BINS];
+		Arrays.fill(nearest, Double.MAX_VALUE);
+		int first = pick(weights, totalWeight, random);
+		for (int c = 0; c < k; c++) {
+			int bin = (c == 0) ? first : pick(seedWeights(nearest), -1, random);
+			centerX[c] = binX[bin];
+			centerY[c] = binY[bin];
+			for (int b = 0; b < HUE_BINS; b++) {
+				double dx = binX[b] - centerX[c];
+				double dy = binY[b] - centerY[c];
+				nearest[b] = Math.min(nearest[b], dx * dx + dy * dy);
+			}
+		}
+
+		int[] assignment = new int[HUE_BINS];
+		Arrays.fill(assignment, -1);
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			// Assign every bin to its closest center
+			boolean moved = false;
+			for (int b = 0; b < HUE_BINS; b++) {
+				if (weights[b] == 0) continue;
+				int best = 0;
+				double bestDistance = Double.MAX_VALUE;
+				for (int c = 0; c < k; c++) {
+					double dx = binX[b] - centerX[c];
+					double dy = binY[b] - centerY[c];
+					double distance = dx * dx + dy * dy;
+					if (distance < bestDistance) {
+						bestDistance = distance;
+						best = c;
+					}
+				}
+				moved |= assignment[b] != best;
+				assignment[b] = best;
+			}
+			if (!moved) break;
+
+			// Move every center to the weighted mean direction of its bins
+			double[] sumX = new double[k];
+			double[] sumY = new double[k];
+			for (int b = 0; b < HUE_BINS; b++) {
+				if (weights[b] == 0) continue;
+				sumX[assignment[b]] += binX[b] * weights[b];
+				sumY[assignment[b]] += binY[b] * weights[b];
+			}
+			for (int c = 0; c < k; c++) {
+				double length = Math.hypot(sumX[c], sumY[c]);
+				if (length > 0) {
+					centerX[c] = sumX[c] / length;
+					centerY[c] = sumY[c] / length;
+				}
+			}
+		}
+
+		double[] centers = new double[k];
+		for (int c = 0; c < k; c++) {
+			double hue = Math.atan2(centerY[c], centerX[c]) / (2 * Math.PI);
+			centers[c] = (hue < 0) ? hue + 1 : hue;
+		}
+		return centers;
+	}
+
+	/**
+	 * Colorful bins weighted by their squared distance to the closest center
+	 * so far. Bins that already are centers are never picked again.
+	 */
+	private double[] seedWeights(double[] nearest) {
+		double[] seedWeights = new double[HUE_BINS];
+		for (int b = 0; b < HUE_BINS; b++) {
+			seedWeights[b] = (weights[b] > 0) ? weights[b] * nearest[b] : 0;
+		}
+		// Every colorful bin already is a center, any other bin will do as
+		// long as it isn't one, the farther from the centers the likelier
+		if (Arrays.stream(seedWeights).sum() == 0) System.arraycopy(nearest, 0, seedWeights, 0, HUE_BINS);
+		return seedWeights;
+	}
+
+	/**
+	 * Random bin with chances proportional to the weights.
+	 *
+	 * @param total Sum of the weights, or -1 to sum them up here
+	 */
+	private static int pick(double[] weights, double total, Random random) {
+		if (total < 0) total = Arrays.stream(weights).sum();
+		double target = random.nextDouble() * total;
+		for (int b = 0; b < weights.length; b++) {
+			target -= weights[b];
+			if (target < 0) return b;
+		}
+		return weights.length - 1;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Memory mapping
+
+	/**
+	 * ImageInputStream straight over a mapped file, readers seek around in
+	 * the mapping instead of having everything copied into a cache.
+	 */
+	private static final class MappedImageInputStream extends ImageInputStreamImpl {
+
+		private final MappedByteBuffer buffer;
+
+		MappedImageInputStream(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			checkClosed();
+			bitOffset = 0;
+			if (streamPos >= buffer.limit()) return -1;
+			return buffer.get((int) streamPos++) & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkClosed();
+			bitOffset = 0;
+			if (len == 0) return 0;
+			int remaining = buffer.limit() - (int) streamPos;
+			if (remaining <= 0) return -1;
+			int n = Math.min(len, remaining);
+			buffer.get((int) streamPos, b, off, n);
+			streamPos += n;
+			return n;
+		}
+
+		@Override
+		public long length() {
+			return buffer.limit();
+		}
+	}
+
+}
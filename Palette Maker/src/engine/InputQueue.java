@@ -0,0 +1,164 @@
+package engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring of key codes from one producer thread, the AWT
+ * event thread, to one consumer thread, the main loop.
+ *
+ * <p> Every key press is kept and comes out in the order it went in, so
+ * presses that land between two frames don't collapse into one. The
+ * producer only ever moves the tail and the consumer only the head.
+ *
+ * <p> Both are moved with volatile stores, not release-only lazySet().
+ * After moving the tail the producer reads waiter, and await() does the
+ * reverse: it writes waiter and then reads the tail. A release store
+ * could be reordered after the read, so the producer would see no
+ * waiter while the consumer sees no key, and the key would sit there
+ * until the park timed out. poll() and put() pair up the same way over
+ * the head and blocked.
+ *
+ * <p> The consumer can park in await() until a key or a wake() arrives.
+ * If the ring is full put() waits for the consumer to make room instead
+ * of dropping the key, so scripted input is never lost.
+ */
+
+public final class InputQueue {
+
+	/**
+	 * Returned by poll() when there is no key.
+	 */
+	public static final int EMPTY = -1;
+
+	/**
+	 * Keys the ring holds by default.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final long FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final int[] keys;
+	private final int mask;
+	// Next slot to read, only moved by the consumer
+	private final AtomicLong head = new AtomicLong();
+	// Next slot to write, only moved by the producer
+	private final AtomicLong tail = new AtomicLong();
+	// Consumer thread while it's parked in await()
+	private volatile Thread waiter;
+	// Producer thread while it's waiting for room in put()
+	private volatile Thread blocked;
+	private volatile boolean woken;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	public InputQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Keys the ring holds, rounded up to a power of two
+	 */
+	public InputQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		keys = new int[size];
+		mask = size - 1;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Producer
+
+	/**
+	 * Adds a key if there's room, returns false if the ring is full.
+	 */
+	public boolean offer(int keyCode) {
+		long t = tail.get();
+		if (t - head.get() == keys.length) return false;
+		keys[(int) t & mask] = keyCode;
+		// Volatile, so it can't pass the read of waiter in unpark()
+		tail.set(t + 1);
+		unpark();
+		return true;
+	}
+
+	/**
+	 * Adds a key, waiting for the consumer to make room if the ring is full.
+	 */
+	public void put(int keyCode) {
+		if (offer(keyCode)) return;
+		blocked = Thread.currentThread();
+		try {
+			while (!offer(keyCode)) {
+				unpark();
+				LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+			}
+		} finally {
+			blocked = null;
+		}
+	}
+
+	/**
+	 * Makes a parked or the next await() return without a key, from any thread.
+	 */
+	public void wake() {
+		woken = true;
+		unpark();
+	}
+
+	private void unpark() {
+		Thread thread = waiter;
+		if (thread != null) LockSupport.unpark(thread);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Consumer
+
+	/**
+	 * Takes the oldest key, or returns EMPTY if there is none.
+	 */
+	public int poll() {
+		long h = head.get();
+		if (h == tail.get()) return EMPTY;
+		int keyCode = keys[(int) h & mask];
+		// Volatile, so it can't pass the read of blocked
+		head.set(h + 1);
+		Thread producer = blocked;
+		if (producer != null) LockSupport.unpark(producer);
+		return keyCode;
+	}
+
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	/**
+	 * Parks until there is a key, wake() was called or the time is up.
+	 * Returns false if the time ran out or the thread was interrupted.
+	 */
+	public boolean await(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		// Published before checking, so a producer that misses the check sees it
+		waiter = Thread.currentThread();
+		try {
+			while (!woken && isEmpty()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || Thread.currentThread().isInterrupted()) return false;
+				LockSupport.parkNanos(this, remaining);
+			}
+			woken = false;
+			return true;
+		} finally {
+			waiter = null;
+		}
+	}
+
+}
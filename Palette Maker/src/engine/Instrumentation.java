@@ -0,0 +1,224 @@
+package engine;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Latency of every stage of the frame loop and the pipeline, always on.
+ *
+ * <p> Each Stage has a LatencyHistogram for the whole run, and frames also
+ * go into a short window the HUD drains once a second for its frame times
+ * and frame rate. A stage is timed with
+ *
+ * <pre>
+ * long start = Instrumentation.begin(Stage.RENDER_VISUALS);
+ * ...
+ * Instrumentation.record(Stage.RENDER_VISUALS, start);
+ * </pre>
+ *
+ * which costs two clock reads and a few atomic increments.
+ *
+ * <p> Every recorded stage is also a Flight Recorder event, "engine.Stage",
+ * and every export an "engine.Export", so a session recorded with
+ * -XX:StartFlightRecording can be profiled afterwards. begin() begins the
+ * event and record() ends and commits it, so the events sit on the
+ * recording's timeline where their stages ran. Whether a recording wants
+ * them is asked of their EventType first, so without one the events are
+ * never created.
+ */
+
+public final class Instrumentation {
+
+	/**
+	 * Parts of the application that are timed.
+	 */
+	public enum Stage {
+		FRAME,
+		UPDATE,
+		RENDER,
+		RENDER_BACKGROUND,
+		RENDER_PROMPT,
+		RENDER_SELECTION,
+		RENDER_VISUALS,
+		RENDER_PREVIEWS,
+		RENDER_CONTROLS,
+		FINALIZE_TINTS,
+		FINALIZE_COLORS,
+		IMAGE_HUES,
+		EXPORT
+	}
+
+	private static final Map<Stage, LatencyHistogram> HISTOGRAMS = new EnumMap<>(Stage.class);
+	private static final LatencyHistogram FRAME_WINDOW = new LatencyHistogram();
+
+	private static final EventType STAGE_EVENT = EventType.getEventType(StageEvent.class);
+	private static final EventType EXPORT_EVENT = EventType.getEventType(ExportEvent.class);
+
+	// Events begun by begin() on each thread and not recorded yet
+	private static final ThreadLocal<Map<Stage, StageEvent>> RUNNING = ThreadLocal.withInitial(() -> new EnumMap<>(Stage.class));
+	private static final ThreadLocal<ExportEvent> RUNNING_EXPORT = new ThreadLocal<>();
+
+	static {
+		for (Stage stage : Stage.values()) {
+			HISTOGRAMS.put(stage, new LatencyHistogram());
+		}
+	}
+
+	private Instrumentation() {
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Recording
+
+	/**
+	 * Starts a stage on this thread and begins its events if a recording
+	 * wants them.
+	 *
+	 * @return The System.nanoTime() to hand to record()
+	 */
+	public static long begin(Stage stage) {
+		if (STAGE_EVENT.isEnabled()) {
+			StageEvent event = new StageEvent();
+			event.begin();
+			RUNNING.get().put(stage, event);
+		}
+		if (stage == Stage.EXPORT && EXPORT_EVENT.isEnabled()) {
+			ExportEvent event = new ExportEvent();
+			event.begin();
+			RUNNING_EXPORT.set(event);
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a stage that started at the given System.nanoTime(), usually
+	 * from begin() on the same thread.
+	 *
+	 * @return The duration in nanoseconds
+	 */
+	public static long record(Stage stage, long start) {
+		long nanos = System.nanoTime() - start;
+		HISTOGRAMS.get(stage).record(nanos);
+		if (stage == Stage.FRAME) FRAME_WINDOW.record(nanos);
+		if (STAGE_EVENT.isEnabled()) {
+			StageEvent event = RUNNING.get().remove(stage);
+			if (event == null) {
+				// Not begun, the recording started halfway through the stage
+				event = new StageEvent();
+			}
+			event.end();
+			event.stage = stage.name();
+			event.latency = nanos;
+			event.commit();
+		}
+		return nanos;
+	}
+
+	/**
+	 * Records an export that started at the given System.nanoTime().
+	 *
+	 * @param name Name the export was written under
+	 * @param formats Extensions of the files written
+	 * @param queuedNanos How long it waited in the queue before being written
+	 */
+	public static void recordExport(long start, String name, String formats, long queuedNanos) {
+		long nanos = record(Stage.EXPORT, start);
+		ExportEvent event = RUNNING_EXPORT.get();
+		RUNNING_EXPORT.remove();
+		if (EXPORT_EVENT.isEnabled()) {
+			if (event == null) event = new ExportEvent();
+			event.end();
+			event.name = name;
+			event.formats = formats;
+			event.latency = nanos;
+			event.queued = queuedNanos;
+			event.commit();
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Statistics
+
+	/**
+	 * Every duration of the stage recorded so far.
+	 */
+	public static LatencyHistogram histogram(Stage stage) {
+		return HISTOGRAMS.get(stage);
+	}
+
+	/**
+	 * Frames recorded since the last call.
+	 */
+	public static LatencyHistogram drainFrames() {
+		return FRAME_WINDOW.drain();
+	}
+
+	/**
+	 * Table of the count, p50, p99 and max of every stage that ran, in milliseconds.
+	 */
+	public static String report() {
+		StringBuilder report = new StringBuilder(String.format(Locale.ROOT, "%-18s %8s %9s %9s %9s%n",
+				"stage", "count", "p50 ms", "p99 ms", "max ms"));
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = HISTOGRAMS.get(stage);
+			if (histogram.getCount() == 0) continue;
+			report.append(String.format(Locale.ROOT, "%-18s %8d %9.3f %9.3f %9.3f%n", stage, histogram.getCount(),
+					histogram.percentile(0.5) / 1e6, histogram.percentile(0.99) / 1e6, histogram.getMax() / 1e6));
+		}
+		return report.toString();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Flight Recorder
+
+	@Name("engine.Stage")
+	@Label("Palette Maker Stage")
+	@Description("One run of a timed stage of the frame loop or the palette pipeline")
+	@Category("Palette Maker")
+	@StackTrace(false)
+	static final class StageEvent extends Event {
+
+		@Label("Stage")
+		String stage;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+	}
+
+	@Name("engine.Export")
+	@Label("Palette Maker Export")
+	@Description("One palette or LUT written by the export queue")
+	@Category("Palette Maker")
+	@StackTrace(false)
+	static final class ExportEvent extends Event {
+
+		@Label("Name")
+		String name;
+
+		@Label("Formats")
+		String formats;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+
+		@Label("Time Queued")
+		@Timespan(Timespan.NANOSECONDS)
+		long queued;
+	}
+
+}
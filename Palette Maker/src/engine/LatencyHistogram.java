@@ -0,0 +1,119 @@
+package engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with a fixed number of buckets,
+ * so recording is an index calculation and an atomic increment no matter
+ * how many values were recorded.
+ *
+ * <p> Buckets are log-linear: every power of two is split into
+ * 2^SUB_BITS buckets and a percentile is reported as the middle of its
+ * bucket, off by at most 1/2^(SUB_BITS+1) of its value, about 6%. That
+ * covers everything from a nanosecond to centuries in under 500 buckets.
+ *
+ * <p> Safe to record into from any number of threads.
+ */
+
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Recording
+
+	/**
+	 * Adds a duration, negative ones count as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		if (value > max.get()) max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Copy of the histogram, then empties this one. Values recorded while
+	 * it runs end up in one of the two.
+	 */
+	public LatencyHistogram drain() {
+		LatencyHistogram copy = new LatencyHistogram();
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = counts.getAndSet(i, 0);
+			if (n != 0) copy.counts.set(i, n);
+		}
+		copy.count.set(count.getAndSet(0));
+		copy.total.set(total.getAndSet(0));
+		copy.max.set(max.getAndSet(0));
+		return copy;
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Middle of the values that fall into a bucket.
+	 */
+	private static long value(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		return (SUB_BUCKETS + sub) * width + width / 2;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Statistics
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Mean in nanoseconds, 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return (n == 0) ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * Duration that the given fraction of the values doesn't exceed, like
+	 * 0.99 for the 99th percentile. 0 if nothing was recorded.
+	 */
+	public long percentile(double fraction) {
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(value(i), max.get());
+		}
+		return max.get();
+	}
+
+}
@@ -7,9 +7,17 @@ import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferStrategy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Locale;
 
 import javax.swing.JFrame;
+
+import engine.Instrumentation.Stage;
  
 /**
  * Basic Main class that is a JFrame and organized like a
@@ -31,6 +39,20 @@ public class Main extends JFrame implements KeyListener {
 	 */
 	private static Main instance = null; 
 	
+	/*
+	 * Scheduling. By default a frame is only rendered after the application
+	 * changed, -Dpalette.loop=spin brings back the old render-every-iteration
+	 * loop. -Dpalette.maxFps caps the frame rate in both modes, 0 for no cap.
+	 */
+	private static final boolean RENDER_ON_DEMAND = !"spin".equals(System.getProperty("palette.loop"));
+	private static final int MAX_FPS = Integer.getInteger("palette.maxFps", 60);
+	private static final long IDLE_REDRAW_MILLIS = 1000;
+	
+	/*
+	 * -Dpalette.stats=true prints how long every stage took on exit.
+	 */
+	private static final boolean PRINT_STATS = Boolean.getBoolean("palette.stats");
+	
 	/*
 	 * Instance variables
 	 */
@@ -48,6 +70,17 @@ public class Main extends JFrame implements KeyListener {
 		
 		// Listener setup
 		addKeyListener(this);
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowActivated(WindowEvent e) {
+				requestFrame();
+			}
+			
+			@Override
+			public void windowDeiconified(WindowEvent e) {
+				requestFrame();
+			}
+		});
 		setSize(screenDimensions.width, screenDimensions.height);
 		setUndecorated(true);
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -55,6 +88,7 @@ public class Main extends JFrame implements KeyListener {
 		
 		// Run setup
 		app = new Application();
+		app.setFrameRequest(this::requestFrame);
 		isRunning = true;
 	}
 	
@@ -72,21 +106,75 @@ public class Main extends JFrame implements KeyListener {
 	// Main loop
 	
 	public void run() {
+		long frameNanos = (MAX_FPS > 0) ? 1_000_000_000L / MAX_FPS : 0;
+		long nextFrame = System.nanoTime();
 		while (isRunning) {
 			// Update
 			app.update();
+			// Sleep until something changes
+			if (RENDER_ON_DEMAND && !app.consumeChange()) {
+				waitForWake();
+				continue;
+			}
+			// Frame cap
+			if (frameNanos > 0) {
+				long wait = nextFrame - System.nanoTime();
+				if (wait > 0) {
+					sleepNanos(wait);
+				}
+				nextFrame = Math.max(nextFrame + frameNanos, System.nanoTime());
+			}
 			// Render
-			render();
-			
+			long start = Instrumentation.begin(Stage.FRAME);
+			boolean shown = render();
+			Instrumentation.record(Stage.FRAME, start);
+			if (!shown) {
+				app.markChanged();
+			}
+		}
+	}
+	
+	/**
+	 * Wakes the main loop up so it updates and renders again.
+	 */
+	public void requestFrame() {
+		app.markChanged();
+		app.wake();
+	}
+	
+	/**
+	 * Parks on the application's input queue until requestFrame() or a key
+	 * press, redraws once in a while anyway in case the window got damaged
+	 * without an event.
+	 */
+	private void waitForWake() {
+		if (!app.awaitInput(IDLE_REDRAW_MILLIS)) {
+			if (Thread.currentThread().isInterrupted()) {
+				isRunning = false;
+			}
+			app.markChanged();
+		}
+	}
+	
+	private void sleepNanos(long nanos) {
+		try {
+			Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			isRunning = false;
 		}
 	}
 
-	public void render() {
+	/**
+	 * Renders a frame, returns false if it didn't make it to the screen
+	 * and has to be rendered again.
+	 */
+	public boolean render() {
 		// Creates 2-buffer buffer strategy
 		BufferStrategy bs = getBufferStrategy();
 		if (getBufferStrategy() == null) {
 			createBufferStrategy(2);
-			return;
+			return false;
 		}
 
 		// Draws to hidden buffer, clears previous image
@@ -101,6 +189,7 @@ public class Main extends JFrame implements KeyListener {
 		// Disposes graphics object and shows hidden buffer
 		g.dispose();
 		bs.show();
+		return !bs.contentsLost();
 	}
 	
 	///////////////////////////////////////////////////////////////////////////////
@@ -108,7 +197,42 @@ public class Main extends JFrame implements KeyListener {
 	// Main
 	
 	public static void main(String[] args) {
-		get().run();
+		// Headless batch modes
+		if (args.length > 0 && args[0].equals("-sweep")) {
+			PaletteSweep.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("-quantize")) {
+			PaletteQuantizer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("-serve")) {
+			PaletteServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		
+		// Resume a saved session
+		SessionSnapshot session = null;
+		if (args.length > 0 && args[0].equals("-resume")) {
+			try {
+				long start = System.nanoTime();
+				ApplicationState state = (args.length > 1) ? ApplicationState.valueOf(args[1].toUpperCase(Locale.ROOT)) : null;
+				session = Application.loadSession(state);
+				System.out.println("resuming at " + session.state + ", read in " + (System.nanoTime() - start) / 1000 + " us");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		if (PRINT_STATS) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(Instrumentation.report()), "PaletteStats"));
+		}
+		
+		Main main = get();
+		if (session != null) {
+			main.app.resume(session);
+		}
+		main.run();
 		System.exit(0);
 	}
 	
@@ -124,6 +248,7 @@ public class Main extends JFrame implements KeyListener {
 
 	@Override
 	public void keyReleased(KeyEvent e) {
+		// Queued for the main loop, which the queue wakes up
 		app.keyPressed(e);
 	}
 
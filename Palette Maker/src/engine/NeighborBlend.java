@@ -0,0 +1,230 @@
+package engine;
+
+import engine.Application.WorkingSpace;
+
+/**
+ * Render style stage that blends every swatch with the swatch a fixed
+ * amount of hue columns over, wrapping around at the end of the row.
+ * How much of each is used depends on the row of values and is given
+ * by a WeightCurve.
+ *
+ * <p> The pairwise gradient render styles are all instances of this:
+ * a distance of 1 is the plain pairwise gradient, a distance of 2 is
+ * degree 2 and so on. Negative distances blend with previous columns.
+ *
+ * <p> The weights only depend on the row, so they are worked out once per
+ * row count and kept in a table instead of being recomputed per swatch.
+ *
+ * <p> In the HSB working space swatches are mixed channel by channel in
+ * sRGB, in the OKLAB working space they are mixed in OKLab so the blends
+ * don't dip in lightness or drift in hue.
+ */
+
+public final class NeighborBlend {
+
+	/**
+	 * How much of a swatch and of its neighbor make up the blended
+	 * color, for each row of values.
+	 */
+	public interface WeightCurve {
+
+		/**
+		 * Weight of the swatch itself in the given row.
+		 */
+		double selfWeight(int row, int rowCount);
+
+		/**
+		 * Weight of the neighbor in the given row, what's left over by default.
+		 */
+		default double neighborWeight(int row, int rowCount) {
+			return 1 - selfWeight(row, rowCount);
+		}
+	}
+
+	/**
+	 * Darkest row is mostly the neighbor, brightest row mostly the swatch itself.
+	 */
+	public static final WeightCurve ASCENDING = (row, rowCount) -> {
+		double gradientStep = 1.0 / rowCount;
+		return gradientStep * row + gradientStep / 2.0;
+	};
+
+	/**
+	 * Darkest row is mostly the swatch itself, brightest row mostly the neighbor.
+	 */
+	public static final WeightCurve DESCENDING = new WeightCurve() {
+		@Override
+		public double selfWeight(int row, int rowCount) {
+			return 1 - neighborWeight(row, rowCount);
+		}
+
+		@Override
+		public double neighborWeight(int row, int rowCount) {
+			double gradientStep = 1.0 / rowCount;
+			return gradientStep * row + gradientStep / 2.0;
+		}
+	};
+
+	/**
+	 * Like ASCENDING but eased in and out with a smoothstep.
+	 */
+	public static final WeightCurve SMOOTH = (row, rowCount) -> {
+		double x = ASCENDING.selfWeight(row, rowCount);
+		return x * x * (3 - 2 * x);
+	};
+
+	/**
+	 * Leaves every swatch as it is.
+	 */
+	public static final NeighborBlend NONE = new NeighborBlend(0, ASCENDING);
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final int distance;
+	private final WeightCurve curve;
+
+	// Weights of the last row count used
+	private volatile double[][] weightTable;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * @param distance How many hue columns over the neighbor is, 0 for no blending
+	 * @param curve Weights of each row
+	 */
+	public NeighborBlend(int distance, WeightCurve curve) {
+		if (curve == null) throw new IllegalArgumentException("Weight curve can't be null");
+		this.distance = distance;
+		this.curve = curve;
+	}
+
+	public int getDistance() {
+		return distance;
+	}
+
+	public WeightCurve getCurve() {
+		return curve;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Blending
+
+	/**
+	 * Returns a new buffer with every swatch blended, rawColors is left untouched.
+	 */
+	public PaletteBuffer apply(PaletteBuffer rawColors) {
+		return apply(rawColors, WorkingSpace.HSB);
+	}
+
+	/**
+	 * Returns a new buffer with every swatch blended in the working space, rawColors is left untouched.
+	 */
+	public PaletteBuffer apply(PaletteBuffer rawColors, WorkingSpace workingSpace) {
+		if (distance == 0) return rawColors.copy();
+		PaletteBuffer finalColors = new PaletteBuffer(rawColors.getHueCount(), rawColors.getValueCount());
+		apply(rawColors, finalColors, workingSpace);
+		return finalColors;
+	}
+
+	/**
+	 * Blends every swatch of src into dst, both need the same size and can't be the same buffer.
+	 */
+	public void apply(PaletteBuffer src, PaletteBuffer dst) {
+		apply(src, dst, WorkingSpace.HSB);
+	}
+
+	/**
+	 * Blends every swatch of src into dst in the working space, both need
+	 * the same size and can't be the same buffer.
+	 */
+	public void apply(PaletteBuffer src, PaletteBuffer dst, WorkingSpace workingSpace) {
+		int hueCount = src.getHueCount();
+		int valueCount = src.getValueCount();
+		if (dst.getHueCount() != hueCount || dst.getValueCount() != valueCount) {
+			throw new IllegalArgumentException("Can't blend " + src + " into " + dst);
+		}
+		if (src == dst) throw new IllegalArgumentException("Can't blend a buffer into itself");
+		int[] in = src.array();
+		int[] out = dst.array();
+		if (distance == 0 || hueCount == 0) {
+			System.arraycopy(in, 0, out, 0, in.length);
+			return;
+		}
+
+		double[][] weights = weights(valueCount);
+		double[] selfWeights = weights[0];
+		double[] neighborWeights = weights[1];
+		int shift = Math.floorMod(distance, hueCount);
+		if (workingSpace == WorkingSpace.OKLAB) {
+			applyOkLab(in, out, hueCount, valueCount, shift, selfWeights, neighborWeights);
+			return;
+		}
+		// By values
+		for (int j = 0; j < valueCount; j++) {
+			double gradient = selfWeights[j];
+			double invGradient = neighborWeights[j];
+			int row = j * hueCount;
+			// By hues
+			for (int i = 0; i < hueCount; i++) {
+				int neighbor = i + shift;
+				if (neighbor >= hueCount) neighbor -= hueCount;
+				int currentColor = in[row + i];
+				int nextColor = in[row + neighbor];
+				int wr = (int) (PaletteBuffer.red(currentColor) * gradient + PaletteBuffer.red(nextColor) * invGradient);
+				int wg = (int) (PaletteBuffer.green(currentColor) * gradient + PaletteBuffer.green(nextColor) * invGradient);
+				int wb = (int) (PaletteBuffer.blue(currentColor) * gradient + PaletteBuffer.blue(nextColor) * invGradient);
+				out[row + i] = PaletteBuffer.pack(wr, wg, wb);
+			}
+		}
+	}
+
+	private static void applyOkLab(int[] in, int[] out, int hueCount, int valueCount, int shift,
+			double[] selfWeights, double[] neighborWeights) {
+		// Every swatch is converted once, not once per blend it takes part in
+		float[] lab = new float[in.length * 3];
+		for (int k = 0; k < in.length; k++) {
+			OkLab.fromRGB(in[k], lab, k * 3);
+		}
+		for (int j = 0; j < valueCount; j++) {
+			float gradient = (float) selfWeights[j];
+			float invGradient = (float) neighborWeights[j];
+			int row = j * hueCount;
+			for (int i = 0; i < hueCount; i++) {
+				int neighbor = i + shift;
+				if (neighbor >= hueCount) neighbor -= hueCount;
+				int current = (row + i) * 3;
+				int next = (row + neighbor) * 3;
+				out[row + i] = OkLab.toRGB(lab[current] * gradient + lab[next] * invGradient,
+						lab[current + 1] * gradient + lab[next + 1] * invGradient,
+						lab[current + 2] * gradient + lab[next + 2] * invGradient);
+			}
+		}
+	}
+
+	/**
+	 * Self and neighbor weights for each row, reused while the row count stays the same.
+	 */
+	private double[][] weights(int rowCount) {
+		double[][] table = weightTable;
+		if (table == null || table[0].length != rowCount) {
+			table = new double[2][rowCount];
+			for (int j = 0; j < rowCount; j++) {
+				table[0][j] = curve.selfWeight(j, rowCount);
+				table[1][j] = curve.neighborWeight(j, rowCount);
+			}
+			weightTable = table;
+		}
+		return table;
+	}
+
+	@Override
+	public String toString() {
+		return "NeighborBlend[distance=" + distance + "]";
+	}
+
+}
@@ -0,0 +1,160 @@
+package engine;
+
+/**
+ * Conversions between packed sRGB and the OKLab perceptual color space,
+ * and its polar form OKLCh, for the OKLAB working space.
+ *
+ * <p> The expensive parts of the conversion are table driven or
+ * approximated: sRGB to linear is a 256 entry table, linear to sRGB is
+ * a table lookup plus at most a couple of comparisons against the
+ * rounding points between 8-bit channels, and the cube roots are a bit
+ * trick guess refined by two Newton steps, with a relative error below
+ * CBRT_ERROR. That's far below one 8-bit step, every sRGB color converts
+ * to OKLab and back to itself.
+ *
+ * <p> Colors outside of the sRGB gamut are brought back in by lowering
+ * their chroma, so the lightness and hue stay what they were.
+ */
+
+public final class OkLab {
+
+	/**
+	 * Largest relative error of cbrt() for inputs from 1e-30 to 1, measured 1.2e-6.
+	 */
+	public static final float CBRT_ERROR = 1.5e-6f;
+
+	private static final int LINEAR_BITS = 12;
+	private static final int GAMUT_STEPS = 12;
+
+	// Linear value of each 8-bit sRGB channel
+	private static final float[] TO_LINEAR = new float[256];
+	// Linear values halfway between two 8-bit sRGB channels, the rounding points
+	private static final float[] THRESHOLDS = new float[255];
+	// Thresholds below each step of the linear range
+	private static final byte[] GUESSES = new byte[(1 << LINEAR_BITS) + 1];
+
+	static {
+		for (int c = 0; c < 256; c++) {
+			TO_LINEAR[c] = (float) decode(c / 255.0);
+		}
+		for (int k = 0; k < 255; k++) {
+			THRESHOLDS[k] = (float) decode((k + 0.5) / 255.0);
+		}
+		int k = 0;
+		for (int step = 0; step < GUESSES.length; step++) {
+			float linear = (float) step / (1 << LINEAR_BITS);
+			while (k < 255 && THRESHOLDS[k] <= linear) k++;
+			GUESSES[step] = (byte) k;
+		}
+	}
+
+	private OkLab() {
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Transfer functions
+
+	private static double decode(double encoded) {
+		return (encoded <= 0.04045) ? encoded / 12.92 : Math.pow((encoded + 0.055) / 1.055, 2.4);
+	}
+
+	/**
+	 * Linear value from 0.0f to 1.0f of an 8-bit sRGB channel.
+	 */
+	public static float toLinear(int channel) {
+		return TO_LINEAR[channel];
+	}
+
+	/**
+	 * 8-bit sRGB channel closest to the linear value, clamped to 0 to 255.
+	 */
+	public static int toSrgb(float linear) {
+		if (!(linear > 0.0f)) return 0;
+		if (linear >= 1.0f) return 255;
+		int k = GUESSES[(int) (linear * (1 << LINEAR_BITS))] & 0xff;
+		while (k < 255 && THRESHOLDS[k] <= linear) k++;
+		return k;
+	}
+
+	/**
+	 * Cube root, see CBRT_ERROR for how close it is.
+	 */
+	public static float cbrt(float x) {
+		if (x <= 0.0f) return (x == 0.0f) ? 0.0f : -cbrt(-x);
+		float y = Float.intBitsToFloat(Float.floatToRawIntBits(x) / 3 + 0x2a5137a0);
+		y = (2.0f * y + x / (y * y)) * (1.0f / 3.0f);
+		y = (2.0f * y + x / (y * y)) * (1.0f / 3.0f);
+		return y;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Conversion
+
+	/**
+	 * Converts packed sRGB into L, a and b, stored in lab from offset.
+	 */
+	public static void fromRGB(int rgb, float[] lab, int offset) {
+		float r = TO_LINEAR[PaletteBuffer.red(rgb)];
+		float g = TO_LINEAR[PaletteBuffer.green(rgb)];
+		float b = TO_LINEAR[PaletteBuffer.blue(rgb)];
+		float l = cbrt(0.4122214708f * r + 0.5363325363f * g + 0.0514459929f * b);
+		float m = cbrt(0.2119034982f * r + 0.6806995451f * g + 0.1073969566f * b);
+		float s = cbrt(0.0883024619f * r + 0.2817188376f * g + 0.6299787005f * b);
+		lab[offset] = 0.2104542553f * l + 0.7936177850f * m - 0.0040720468f * s;
+		lab[offset + 1] = 1.9779984951f * l - 2.4285922050f * m + 0.4505937099f * s;
+		lab[offset + 2] = 0.0259040371f * l + 0.7827717662f * m - 0.8086757660f * s;
+	}
+
+	/**
+	 * Packed sRGB of an OKLab color, with the chroma lowered until it fits in sRGB.
+	 */
+	public static int toRGB(float lightness, float a, float b) {
+		lightness = Math.min(1.0f, Math.max(0.0f, lightness));
+		float[] linear = new float[3];
+		if (!toLinearRGB(lightness, a, b, linear)) {
+			// Binary search for the most chroma that's still in gamut
+			float low = 0.0f, high = 1.0f;
+			for (int step = 0; step < GAMUT_STEPS; step++) {
+				float t = (low + high) * 0.5f;
+				if (toLinearRGB(lightness, a * t, b * t, linear)) {
+					low = t;
+				} else {
+					high = t;
+				}
+			}
+			toLinearRGB(lightness, a * low, b * low, linear);
+		}
+		return PaletteBuffer.pack(toSrgb(linear[0]), toSrgb(linear[1]), toSrgb(linear[2]));
+	}
+
+	/**
+	 * Packed sRGB of an OKLCh color.
+	 *
+	 * @param hue Angle in turns, 0.0f to 1.0f
+	 */
+	public static int fromLCh(float lightness, float chroma, float hue) {
+		double angle = 2 * Math.PI * hue;
+		return toRGB(lightness, (float) (chroma * Math.cos(angle)), (float) (chroma * Math.sin(angle)));
+	}
+
+	/**
+	 * Linear RGB of an OKLab color into rgb, returns whether it's inside the gamut.
+	 */
+	private static boolean toLinearRGB(float lightness, float a, float b, float[] rgb) {
+		float l = lightness + 0.3963377774f * a + 0.2158037573f * b;
+		float m = lightness - 0.1055613458f * a - 0.0638541728f * b;
+		float s = lightness - 0.0894841775f * a - 1.2914855480f * b;
+		l = l * l * l;
+		m = m * m * m;
+		s = s * s * s;
+		rgb[0] = 4.0767416621f * l - 3.3077115913f * m + 0.2309699292f * s;
+		rgb[1] = -1.2684380046f * l + 2.6097574011f * m - 0.3413193965f * s;
+		rgb[2] = -0.0041960863f * l - 0.7034186147f * m + 1.7076147010f * s;
+		float epsilon = 1e-4f;
+		return rgb[0] >= -epsilon && rgb[0] <= 1 + epsilon && rgb[1] >= -epsilon && rgb[1] <= 1 + epsilon
+				&& rgb[2] >= -epsilon && rgb[2] <= 1 + epsilon;
+	}
+
+}
@@ -0,0 +1,181 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Grid of swatches stored as packed ARGB ints in a single flat array.
+ * One column per hue and one row per value, laid out row by row so
+ * index = value * hueCount + hue.
+ *
+ * <p> Replaces the Color[][] grids so the pipeline stages can read and
+ * write plain ints instead of allocating a Color for every swatch.
+ */
+
+public final class PaletteBuffer {
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final int hueCount;
+	private final int valueCount;
+	private final int[] argb;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * Creates a buffer of the given size with every swatch set to 0.
+	 */
+	public PaletteBuffer(int hueCount, int valueCount) {
+		this(hueCount, valueCount, new int[checkedSize(hueCount, valueCount)]);
+	}
+
+	/**
+	 * Wraps an existing row-major array of packed ARGB swatches. The array
+	 * is not copied, later changes to it show up in the buffer.
+	 */
+	public PaletteBuffer(int hueCount, int valueCount, int[] argb) {
+		if (argb.length != checkedSize(hueCount, valueCount)) {
+			throw new IllegalArgumentException("Expected " + (hueCount * valueCount) + " swatches but got " + argb.length);
+		}
+		this.hueCount = hueCount;
+		this.valueCount = valueCount;
+		this.argb = argb;
+	}
+
+	private static int checkedSize(int hueCount, int valueCount) {
+		if (hueCount < 0 || valueCount < 0) {
+			throw new IllegalArgumentException("Negative palette size: " + hueCount + "x" + valueCount);
+		}
+		return Math.multiplyExact(hueCount, valueCount);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Accessors
+
+	public int getHueCount() {
+		return hueCount;
+	}
+
+	public int getValueCount() {
+		return valueCount;
+	}
+
+	/**
+	 * Total amount of swatches.
+	 */
+	public int size() {
+		return argb.length;
+	}
+
+	/**
+	 * Index of a swatch in the backing array.
+	 */
+	public int index(int hue, int value) {
+		return value * hueCount + hue;
+	}
+
+	public int get(int hue, int value) {
+		return argb[value * hueCount + hue];
+	}
+
+	public void set(int hue, int value, int color) {
+		argb[value * hueCount + hue] = color;
+	}
+
+	/**
+	 * The backing array itself, for stages that loop over every swatch.
+	 */
+	public int[] array() {
+		return argb;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Bulk accessors
+
+	/**
+	 * Copies one row of values into dst starting at offset.
+	 */
+	public void getRow(int value, int[] dst, int offset) {
+		System.arraycopy(argb, value * hueCount, dst, offset, hueCount);
+	}
+
+	/**
+	 * Overwrites one row of values from src starting at offset.
+	 */
+	public void setRow(int value, int[] src, int offset) {
+		System.arraycopy(src, offset, argb, value * hueCount, hueCount);
+	}
+
+	/**
+	 * Copies every swatch, row by row, into dst starting at offset.
+	 */
+	public void getAll(int[] dst, int offset) {
+		System.arraycopy(argb, 0, dst, offset, argb.length);
+	}
+
+	/**
+	 * Overwrites every swatch, row by row, from src starting at offset.
+	 */
+	public void setAll(int[] src, int offset) {
+		System.arraycopy(src, offset, argb, 0, argb.length);
+	}
+
+	public void fill(int color) {
+		Arrays.fill(argb, color);
+	}
+
+	/**
+	 * Deep copy that no longer shares the backing array.
+	 */
+	public PaletteBuffer copy() {
+		return new PaletteBuffer(hueCount, valueCount, argb.clone());
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Packing
+
+	public static int pack(int red, int green, int blue) {
+		return 0xff000000 | (red << 16) | (green << 8) | blue;
+	}
+
+	public static int red(int color) {
+		return (color >> 16) & 0xff;
+	}
+
+	public static int green(int color) {
+		return (color >> 8) & 0xff;
+	}
+
+	public static int blue(int color) {
+		return color & 0xff;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Object
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof PaletteBuffer)) return false;
+		PaletteBuffer other = (PaletteBuffer) o;
+		return hueCount == other.hueCount && valueCount == other.valueCount && Arrays.equals(argb, other.argb);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * hueCount + valueCount) + Arrays.hashCode(argb);
+	}
+
+	@Override
+	public String toString() {
+		return "PaletteBuffer[" + hueCount + "x" + valueCount + "]";
+	}
+
+}
@@ -0,0 +1,420 @@
+package engine;
+
+import engine.Application.HueStyle;
+import engine.Application.RenderStyle;
+import engine.Application.WorkingSpace;
+
+/**
+ * Headless version of the palette pipeline. Takes every choice the
+ * user would make while walking through the ApplicationStates and
+ * produces the finished palette without ever touching AWT windowing,
+ * so it can be used from batch jobs and servers.
+ *
+ * <p> The static functions are the actual pipeline stages, the
+ * Application calls the same ones so both always produce the same colors.
+ *
+ * <p> Palettes come back as a PaletteBuffer with one column per hue
+ * and one row per value, just like the Application's rawColors and finalColors.
+ */
+
+public class PaletteEngine {
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	// Pipeline parameters, defaults match a fresh Application
+	private HueStyle hueStyle = HueStyle.LINEAR;
+	private ImageHues imageHues;
+	private int hueCount = 1;
+	private float hueOffset = 0.0f;
+	private int valueCount = 3;
+	private float saturationAdjustment = 1.0f;
+	private float brightnessAdjustment = 1.0f;
+	private double rTint, gTint, bTint;
+	private RenderStyle renderStyle = RenderStyle.BASIC;
+	private NeighborBlend blend;
+	private WorkingSpace workingSpace = WorkingSpace.HSB;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Parameters
+
+	public PaletteEngine hueStyle(HueStyle hueStyle) {
+		this.hueStyle = hueStyle;
+		return this;
+	}
+
+	/**
+	 * Reference image the IMAGE hue style takes its hues from. Without one
+	 * IMAGE falls back to LINEAR.
+	 */
+	public PaletteEngine hueImage(ImageHues imageHues) {
+		this.imageHues = imageHues;
+		return this;
+	}
+
+	public PaletteEngine hueCount(int hueCount) {
+		if (hueCount < 1) throw new IllegalArgumentException("Hue count must be at least 1: " + hueCount);
+		this.hueCount = hueCount;
+		return this;
+	}
+
+	public PaletteEngine hueOffset(float hueOffset) {
+		this.hueOffset = hueOffset;
+		return this;
+	}
+
+	public PaletteEngine valueCount(int valueCount) {
+		if (valueCount < 2) throw new IllegalArgumentException("Value count must be at least 2: " + valueCount);
+		this.valueCount = valueCount;
+		return this;
+	}
+
+	/**
+	 * Saturation level between 0.0f and 1.0f. The Application uses steps of 0.1f.
+	 */
+	public PaletteEngine saturation(float saturationAdjustment) {
+		this.saturationAdjustment = saturationAdjustment;
+		return this;
+	}
+
+	/**
+	 * Brightness level between 0.0f and 1.0f. The Application uses steps of 0.1f.
+	 */
+	public PaletteEngine brightness(float brightnessAdjustment) {
+		this.brightnessAdjustment = brightnessAdjustment;
+		return this;
+	}
+
+	/**
+	 * Tint levels in percent, same units as the ADJUST_TINTS state.
+	 */
+	public PaletteEngine tint(double rTint, double gTint, double bTint) {
+		this.rTint = rTint;
+		this.gTint = gTint;
+		this.bTint = bTint;
+		return this;
+	}
+
+	public PaletteEngine renderStyle(RenderStyle renderStyle) {
+		this.renderStyle = renderStyle;
+		this.blend = null;
+		return this;
+	}
+
+	/**
+	 * Color space the ramps and blends are worked out in, HSB by default.
+	 */
+	public PaletteEngine workingSpace(WorkingSpace workingSpace) {
+		this.workingSpace = workingSpace;
+		return this;
+	}
+
+	/**
+	 * Uses a custom blend instead of one of the RenderStyles, for degrees
+	 * and weight curves the Application doesn't offer.
+	 */
+	public PaletteEngine blend(NeighborBlend blend) {
+		this.blend = blend;
+		return this;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Generation
+
+	/**
+	 * Runs the whole pipeline with the current parameters and returns the
+	 * finished colors, the same colors the Application would export.
+	 */
+	public PaletteBuffer generate() {
+		float[] hues = deriveHues(hueStyle, hueCount, hueOffset, imageHues);
+		float[] valueIDs = deriveValueIds(valueCount);
+		PaletteBuffer rawColors = finalizeTints(hues, valueIDs, saturationAdjustment, brightnessAdjustment, rTint, gTint, bTint, workingSpace);
+		return (blend != null) ? blend.apply(rawColors, workingSpace) : finalizeColors(rawColors, renderStyle, workingSpace);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Pipeline stages
+
+	/**
+	 * Derives the hues for the given style and count, offset by hueOffset.
+	 * IMAGE has no image to go by here and falls back to LINEAR.
+	 */
+	public static float[] deriveHues(HueStyle hueStyle, int hueCount, float hueOffset) {
+		return deriveHues(hueStyle, hueCount, hueOffset, null);
+	}
+
+	/**
+	 * Derives the hues for the given style and count, offset by hueOffset.
+	 *
+	 * @param imageHues Image for the IMAGE style, IMAGE falls back to LINEAR if null
+	 */
+	public static float[] deriveHues(HueStyle hueStyle, int hueCount, float hueOffset, ImageHues imageHues) {
+		if (hueStyle == HueStyle.IMAGE && imageHues == null) hueStyle = HueStyle.LINEAR;
+		float[] hues = new float[hueCount];
+		switch (hueStyle) {
+		case LINEAR:
+			float hueStep = 1.0f / ((float) hueCount);
+			for (int i = 0; i < hueCount; i++) {
+				hues[i] = hueStep * i + hueOffset;
+			}
+			break;
+		case RADIAL:
+			for (int i = 0; i < hueCount; i++) {
+				float x = ((float) i) / ((float) hueCount);
+				float a = (float) Math.sqrt(1 - (x * x));
+				float b = (1.0f - x);
+				hues[i] = (a + b) * 0.5f + hueOffset;
+			}
+			break;
+		case IMAGE:
+			float[] dominant = imageHues.hues(hueCount);
+			for (int i = 0; i < hueCount; i++) {
+				hues[i] = dominant[i] + hueOffset;
+			}
+			break;
+		}
+		return hues;
+	}
+
+	/**
+	 * Calculates the "valueID" of each swatch based on the value count.
+	 *
+	 * <p> "valueID"'s are a representation of value between 0.0f and 2.0f.
+	 * <p> Where 0.0f is black, where 1.0f is red (for example), and where 2.0 is white
+	 */
+	public static float[] deriveValueIds(int valueCount) {
+		float[] values = new float[valueCount];
+		float valueStep = 1.0f / ((float) valueCount - 1);
+		for (int i = 0; i < valueCount; i++) {
+			values[i] = valueStep * i;
+			values[i] *= 2;
+		}
+		return values;
+	}
+
+	/**
+	 * Applies the weighted average with the RGB tint to a single packed
+	 * color, with the ratios worked out once by the caller.
+	 */
+	private static int tintRGB(int color, double redRatio, int deltaRed, int deltaGreen, int deltaBlue) {
+		int newRed = PaletteBuffer.red(color);
+		int newGreen = PaletteBuffer.green(color);
+		int newBlue = PaletteBuffer.blue(color);
+		// Adjust red tint with weighted aberage
+		newRed = deltaRed + (int)(newRed * (1.0 - redRatio));
+		newRed = Math.min(newRed, 255);
+		newRed = Math.max(newRed, 0);
+		newGreen = deltaGreen + (int)(newGreen * (1.0 - redRatio));
+		newGreen = Math.min(newGreen, 255);
+		newGreen = Math.max(newGreen, 0);
+		newBlue = deltaBlue + (int)(newBlue * (1.0 - redRatio));
+		newBlue = Math.min(newBlue, 255);
+		newBlue = Math.max(newBlue, 0);
+		return PaletteBuffer.pack(newRed, newGreen, newBlue);
+	}
+
+	/**
+	 * Combines the hues, valueIDs, saturation and brightness into concrete
+	 * colors without any tint. Used for the states before ADJUST_TINTS.
+	 */
+	public static PaletteBuffer deriveColors(float[] hues, float[] valueIDs, float saturationAdjustment,
+			float brightnessAdjustment, WorkingSpace workingSpace) {
+		return deriveColors(hueBasis(hues, workingSpace), valueRows(valueIDs, saturationAdjustment, brightnessAdjustment, workingSpace));
+	}
+
+	/**
+	 * Same as deriveColors in the HSB working space.
+	 */
+	public static PaletteBuffer deriveColors(float[] hues, float[] valueIDs, float saturationAdjustment,
+			float brightnessAdjustment) {
+		return deriveColors(hues, valueIDs, saturationAdjustment, brightnessAdjustment, WorkingSpace.HSB);
+	}
+
+	/**
+	 * Combines the per hue and per value halves of a palette into concrete
+	 * colors without any tint, one swatch per pair of them.
+	 */
+	public static PaletteBuffer deriveColors(HueBasis hueBasis, ValueRows valueRows) {
+		if (hueBasis.workingSpace != valueRows.workingSpace) {
+			throw new IllegalArgumentException("Hues in " + hueBasis.workingSpace + ", values in " + valueRows.workingSpace);
+		}
+		PaletteBuffer colors = new PaletteBuffer(hueBasis.size(), valueRows.size());
+		int[] argb = colors.array();
+		int hueCount = hueBasis.size();
+		int index = 0;
+		if (hueBasis.workingSpace == WorkingSpace.OKLAB) {
+			// Ramps of every hue in OKLCh, see valueRows()
+			float[] lab = hueBasis.lab;
+			for (int j = 0; j < valueRows.size(); j++) {
+				float valueID = valueRows.valueIDs[j];
+				float chroma = valueRows.chromas[j];
+				// By hues
+				for (int i = 0; i < hueCount; i++) {
+					float middle = lab[i * 3];
+					float lightness = (valueID > 1.0f) ? middle + (1.0f - middle) * (valueID - 1.0f) : middle * valueID;
+					argb[index++] = OkLab.toRGB(lightness * valueRows.brightnessAdjustment, lab[i * 3 + 1] * chroma, lab[i * 3 + 2] * chroma);
+				}
+			}
+		} else {
+			for (int j = 0; j < valueRows.size(); j++) {
+				float saturation = valueRows.saturations[j];
+				float brightness = valueRows.brightnesses[j];
+				// By hues
+				for (int i = 0; i < hueCount; i++) {
+					argb[index++] = HsbConverter.toRGB(hueBasis.table, i, saturation, brightness);
+				}
+			}
+		}
+		return colors;
+	}
+
+	/**
+	 * Works out everything about the hues that's the same for every value.
+	 */
+	public static HueBasis hueBasis(float[] hues, WorkingSpace workingSpace) {
+		if (workingSpace == WorkingSpace.OKLAB) {
+			// Middle of each ramp
+			float[] lab = new float[hues.length * 3];
+			for (int i = 0; i < hues.length; i++) {
+				OkLab.fromRGB(HsbConverter.toRGB(hues[i], 1.0f, 1.0f), lab, i * 3);
+			}
+			return new HueBasis(workingSpace, hues.length, null, lab);
+		}
+		return new HueBasis(workingSpace, hues.length, new HsbConverter.HueTable(hues), null);
+	}
+
+	/**
+	 * Works out everything about the values that's the same for every hue.
+	 *
+	 * <p> In HSB a value below 1.0f darkens the fully saturated hue and one
+	 * above fades it to white. In OKLAB the hue's fully saturated HSB color
+	 * is the middle of the ramp, the lightness goes from black to it and on
+	 * to white in even steps while the chroma fades out at both ends.
+	 * Saturation scales the chroma and brightness the lightness, like they
+	 * scale saturation and brightness in HSB.
+	 */
+	public static ValueRows valueRows(float[] valueIDs, float saturationAdjustment, float brightnessAdjustment,
+			WorkingSpace workingSpace) {
+		float[] first = new float[valueIDs.length];
+		float[] second = new float[valueIDs.length];
+		for (int j = 0; j < valueIDs.length; j++) {
+			float valueID = valueIDs[j];
+			if (workingSpace == WorkingSpace.OKLAB) {
+				first[j] = ((valueID > 1.0f) ? 2.0f - valueID : valueID) * saturationAdjustment;
+				second[j] = valueID;
+			} else if (valueID > 1.0f) {
+				first[j] = (2.0f - valueID) * saturationAdjustment;
+				second[j] = 1.0f * brightnessAdjustment;
+			} else {
+				first[j] = 1.0f * saturationAdjustment;
+				second[j] = valueID * brightnessAdjustment;
+			}
+		}
+		return new ValueRows(workingSpace, first, second, brightnessAdjustment);
+	}
+
+	/**
+	 * Per hue half of a palette, the HSB color wheel sectors or the OKLab
+	 * middles of the ramps.
+	 */
+	public static final class HueBasis {
+
+		private final WorkingSpace workingSpace;
+		private final int size;
+		private final HsbConverter.HueTable table;
+		private final float[] lab;
+
+		private HueBasis(WorkingSpace workingSpace, int size, HsbConverter.HueTable table, float[] lab) {
+			this.workingSpace = workingSpace;
+			this.size = size;
+			this.table = table;
+			this.lab = lab;
+		}
+
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Per value half of a palette, the saturation and brightness of every
+	 * row in HSB or its chroma and valueID in OKLAB.
+	 */
+	public static final class ValueRows {
+
+		private final WorkingSpace workingSpace;
+		private final float[] saturations, brightnesses;
+		private final float[] chromas, valueIDs;
+		private final float brightnessAdjustment;
+
+		private ValueRows(WorkingSpace workingSpace, float[] first, float[] second, float brightnessAdjustment) {
+			this.workingSpace = workingSpace;
+			boolean okLab = workingSpace == WorkingSpace.OKLAB;
+			this.saturations = okLab ? null : first;
+			this.brightnesses = okLab ? null : second;
+			this.chromas = okLab ? first : null;
+			this.valueIDs = okLab ? second : null;
+			this.brightnessAdjustment = brightnessAdjustment;
+		}
+
+		public int size() {
+			return (saturations != null) ? saturations.length : chromas.length;
+		}
+	}
+
+	/**
+	 * Combines the hues, valueIDs, saturation, brightness and tint into
+	 * concrete colors. Same as the ADJUST_TINTS state's output.
+	 */
+	public static PaletteBuffer finalizeTints(float[] hues, float[] valueIDs, float saturationAdjustment,
+			float brightnessAdjustment, double rTint, double gTint, double bTint) {
+		return finalizeTints(hues, valueIDs, saturationAdjustment, brightnessAdjustment, rTint, gTint, bTint, WorkingSpace.HSB);
+	}
+
+	/**
+	 * Same as finalizeTints with the ramps worked out in the working space.
+	 * The tint stays a weighted average in sRGB.
+	 */
+	public static PaletteBuffer finalizeTints(float[] hues, float[] valueIDs, float saturationAdjustment,
+			float brightnessAdjustment, double rTint, double gTint, double bTint, WorkingSpace workingSpace) {
+		PaletteBuffer rawColors = deriveColors(hues, valueIDs, saturationAdjustment, brightnessAdjustment, workingSpace);
+		applyTint(rawColors, rTint, gTint, bTint);
+		return rawColors;
+	}
+
+	/**
+	 * Tints every swatch of the buffer in place.
+	 */
+	public static void applyTint(PaletteBuffer colors, double rTint, double gTint, double bTint) {
+		double redRatio = rTint / 100.0;
+		double greenRatio = gTint / 100.0;
+		double blueRatio = bTint / 100.0;
+		int deltaRed = (int) (redRatio * 255);
+		int deltaGreen = (int) (greenRatio * 255);
+		int deltaBlue = (int) (blueRatio * 255);
+		int[] argb = colors.array();
+		for (int k = 0; k < argb.length; k++) {
+			argb[k] = tintRGB(argb[k], redRatio, deltaRed, deltaGreen, deltaBlue);
+		}
+	}
+
+	/**
+	 * Does any extra modifications to the raw colors based on the render style.
+	 * Returns a new buffer, rawColors is left untouched.
+	 */
+	public static PaletteBuffer finalizeColors(PaletteBuffer rawColors, RenderStyle renderStyle) {
+		return renderStyle.getBlend().apply(rawColors);
+	}
+
+	/**
+	 * Same as finalizeColors with the blends done in the working space.
+	 */
+	public static PaletteBuffer finalizeColors(PaletteBuffer rawColors, RenderStyle renderStyle, WorkingSpace workingSpace) {
+		return renderStyle.getBlend().apply(rawColors, workingSpace);
+	}
+
+}
@@ -0,0 +1,43 @@
+package engine;
+
+import java.io.IOException;
+
+/**
+ * Writes a finished palette in some file format. The built in formats
+ * live in PaletteExporters, more can be plugged in by listing them in
+ * META-INF/services/engine.PaletteExporter.
+ *
+ * <p> Exporters get the colors straight from finalColors, so every format
+ * is written from the same swatches in the same pass without going
+ * through an image first.
+ */
+
+public interface PaletteExporter {
+
+	/**
+	 * Short name used to pick the format, like "png" or "gpl".
+	 */
+	String getName();
+
+	/**
+	 * File extension without the dot.
+	 */
+	default String getExtension() {
+		return getName();
+	}
+
+	/**
+	 * Most swatches a palette may have to be written by this exporter.
+	 */
+	default int getMaxSwatches() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Writes the palette. The first row of values is the darkest one.
+	 *
+	 * @param name Name of the palette for formats that store one
+	 */
+	void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException;
+
+}
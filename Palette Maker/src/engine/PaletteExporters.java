@@ -0,0 +1,592 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The built in PaletteExporters and helpers to pick them by name and run
+ * several of them on one palette.
+ *
+ * <p> PNG - The palette image, same as the original export
+ * <p> GPL - GIMP palette
+ * <p> ASE - Adobe swatch exchange
+ * <p> HEX - One rrggbb per line, like Lospec and Aseprite use
+ * <p> JSON - Hex colors grouped by row of values
+ * <p> RAW - Plain 8-bit RGB triplets
+ * <p> CUBE - 3D LUT mapping every color to the nearest swatch
+ * <p> LUTSTRIP - The same LUT as a 2D strip image
+ *
+ * <p> Remap and Ramp aren't picked by name, they need settings of their own.
+ *
+ * <p> CUBE, LUTSTRIP and Remap look up the closest palette color of every
+ * lattice point or pixel. That stays quick while the palette's colors are
+ * spread out, but a palette of millions of swatches crowds the RGB cube
+ * with hundreds of thousands of colors and every lookup has to sift
+ * through thousands of them. They only take palettes of up to
+ * MAX_LOOKUP_SWATCHES, supporting() leaves them out of bigger exports.
+ */
+
+public final class PaletteExporters {
+
+	/**
+	 * Lattice size of the cube and lutstrip exporters picked by name.
+	 */
+	public static final int DEFAULT_LUT_SIZE = 33;
+
+	/**
+	 * Most swatches the cube, lutstrip and remap exporters take, 256 x 256.
+	 */
+	public static final int MAX_LOOKUP_SWATCHES = 1 << 16;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private PaletteExporters() {
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Lookup
+
+	/**
+	 * Every exporter by name: the built in ones plus any plugged in
+	 * through ServiceLoader. The png exporter uses the given settings.
+	 */
+	public static Map<String, PaletteExporter> available(int pngResolution, int pngLevel) {
+		Map<String, PaletteExporter> exporters = new LinkedHashMap<>();
+		for (PaletteExporter exporter : new PaletteExporter[] {
+				new Png(pngResolution, pngLevel), new Gpl(), new Ase(), new Hex(), new Json(), new Raw(),
+				new Cube(DEFAULT_LUT_SIZE, PaletteLut.Mode.NEAREST),
+				new LutStrip(DEFAULT_LUT_SIZE, PaletteLut.Mode.NEAREST, pngLevel) }) {
+			exporters.put(exporter.getName(), exporter);
+		}
+		for (PaletteExporter exporter : ServiceLoader.load(PaletteExporter.class)) {
+			exporters.put(exporter.getName().toLowerCase(Locale.ROOT), exporter);
+		}
+		return exporters;
+	}
+
+	/**
+	 * Exporters from a comma separated list of names like "png,gpl,json".
+	 */
+	public static List<PaletteExporter> parse(String names, int pngResolution, int pngLevel) {
+		Map<String, PaletteExporter> available = available(pngResolution, pngLevel);
+		List<PaletteExporter> exporters = new ArrayList<>();
+		for (String name : names.split(",")) {
+			String key = name.trim().toLowerCase(Locale.ROOT);
+			if (key.isEmpty()) continue;
+			PaletteExporter exporter = available.get(key);
+			if (exporter == null) {
+				throw new IllegalArgumentException("Unknown export format '" + key + "', available: " + available.keySet());
+			}
+			if (!exporters.contains(exporter)) {
+				exporters.add(exporter);
+			}
+		}
+		if (exporters.isEmpty()) throw new IllegalArgumentException("No export formats in '" + names + "'");
+		return exporters;
+	}
+
+	/**
+	 * The exporters that can write a palette of the given amount of swatches.
+	 */
+	public static List<PaletteExporter> supporting(List<PaletteExporter> exporters, int swatches) {
+		List<PaletteExporter> supporting = new ArrayList<>(exporters.size());
+		for (PaletteExporter exporter : exporters) {
+			if (swatches <= exporter.getMaxSwatches()) {
+				supporting.add(exporter);
+			}
+		}
+		return supporting;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Exporting
+
+	/**
+	 * Writes the palette once per exporter into directory, as baseName
+	 * plus each exporter's extension. Files that already exist are never
+	 * overwritten. If any file can't be written the ones written so far are
+	 * deleted again, so there's never half an export under a name.
+	 *
+	 * @return The files written
+	 * @throws java.nio.file.FileAlreadyExistsException If a file of the name is already there
+	 */
+	public static List<Path> exportAll(PaletteBuffer colors, Path directory, String baseName,
+			List<PaletteExporter> exporters) throws IOException {
+		List<Path> written = new ArrayList<>(exporters.size());
+		try {
+			for (PaletteExporter exporter : exporters) {
+				Path file = directory.resolve(baseName + "." + exporter.getExtension());
+				FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				written.add(file);
+				try (ChannelWriter out = new ChannelWriter(channel)) {
+					exporter.write(colors, baseName, out);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Path file : written) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+			throw e;
+		}
+		return written;
+	}
+
+	/**
+	 * Lowercase rrggbb. Written out by hand, String.format is most of the
+	 * time of an export with millions of swatches.
+	 */
+	private static String hex(int color) {
+		char[] digits = new char[6];
+		for (int k = 5; k >= 0; k--) {
+			digits[k] = HEX_DIGITS[color & 0xf];
+			color >>= 4;
+		}
+		return new String(digits);
+	}
+
+	private static void checkSwatches(PaletteExporter exporter, PaletteBuffer colors) {
+		if (colors.size() > exporter.getMaxSwatches()) {
+			throw new IllegalArgumentException("The " + exporter.getName() + " export takes at most "
+					+ exporter.getMaxSwatches() + " swatches: " + colors.size());
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Formats
+
+	/**
+	 * Palette image with each swatch res x res pixels big.
+	 */
+	public static final class Png implements PaletteExporter {
+
+		private final int resolution;
+		private final PalettePngWriter pngWriter;
+
+		public Png(int resolution, int level) {
+			this.resolution = resolution;
+			this.pngWriter = new PalettePngWriter(level);
+		}
+
+		@Override
+		public String getName() {
+			return "png";
+		}
+
+		@Override
+		public synchronized void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			try {
+				pngWriter.write(colors, resolution, out.asOutputStream());
+			} finally {
+				// A failed export must not break the next one
+				pngWriter.abort();
+			}
+		}
+	}
+
+	/**
+	 * GIMP palette, one swatch per line with the hue columns as the palette's columns.
+	 */
+	public static final class Gpl implements PaletteExporter {
+
+		@Override
+		public String getName() {
+			return "gpl";
+		}
+
+		@Override
+		public void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			out.putText("GIMP Palette\nName: " + name + "\nColumns: " + colors.getHueCount() + "\n#\n");
+			StringBuilder line = new StringBuilder(32);
+			for (int j = 0; j < colors.getValueCount(); j++) {
+				for (int i = 0; i < colors.getHueCount(); i++) {
+					int color = colors.get(i, j);
+					line.setLength(0);
+					appendChannel(line, PaletteBuffer.red(color)).append(' ');
+					appendChannel(line, PaletteBuffer.green(color)).append(' ');
+					appendChannel(line, PaletteBuffer.blue(color));
+					line.append("\tvalue ").append(j).append(" hue ").append(i).append('\n');
+					out.putText(line);
+				}
+			}
+		}
+
+		/**
+		 * The channel right aligned in 3 columns.
+		 */
+		private static StringBuilder appendChannel(StringBuilder line, int channel) {
+			if (channel < 100) line.append(' ');
+			if (channel < 10) line.append(' ');
+			return line.append(channel);
+		}
+	}
+
+	/**
+	 * Adobe swatch exchange, one group holding every swatch as an RGB color.
+	 */
+	public static final class Ase implements PaletteExporter {
+
+		private static final int GROUP_START = 0xc001;
+		private static final int GROUP_END = 0xc002;
+		private static final int COLOR_ENTRY = 0x0001;
+		private static final int COLOR_TYPE_GLOBAL = 0;
+
+		@Override
+		public String getName() {
+			return "ase";
+		}
+
+		@Override
+		public void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			out.putText("ASEF");
+			out.putShort(1).putShort(0);
+			out.putInt(colors.size() + 2);
+
+			// Group
+			out.putShort(GROUP_START).putInt(nameLength(name));
+			putName(out, name);
+			for (int j = 0; j < colors.getValueCount(); j++) {
+				for (int i = 0; i < colors.getHueCount(); i++) {
+					int color = colors.get(i, j);
+					String swatchName = "#" + hex(color);
+					out.putShort(COLOR_ENTRY).putInt(nameLength(swatchName) + 4 + 12 + 2);
+					putName(out, swatchName);
+					out.putText("RGB ");
+					out.putFloat(PaletteBuffer.red(color) / 255.0f);
+					out.putFloat(PaletteBuffer.green(color) / 255.0f);
+					out.putFloat(PaletteBuffer.blue(color) / 255.0f);
+					out.putShort(COLOR_TYPE_GLOBAL);
+				}
+			}
+			out.putShort(GROUP_END).putInt(0);
+		}
+
+		/**
+		 * Bytes taken by a name: its char count, the chars and a null terminator.
+		 */
+		private static int nameLength(String name) {
+			return 2 + (name.length() + 1) * 2;
+		}
+
+		private static void putName(ChannelWriter out, String name) throws IOException {
+			out.putShort(name.length() + 1);
+			out.putUtf16(name);
+			out.putShort(0);
+		}
+	}
+
+	/**
+	 * One lowercase rrggbb per line.
+	 */
+	public static final class Hex implements PaletteExporter {
+
+		@Override
+		public String getName() {
+			return "hex";
+		}
+
+		@Override
+		public void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			for (int color : colors.array()) {
+				out.putText(hex(color)).putByte('\n');
+			}
+		}
+	}
+
+	/**
+	 * Size of the palette and its colors as "#rrggbb" strings, one array per row of values.
+	 */
+	public static final class Json implements PaletteExporter {
+
+		@Override
+		public String getName() {
+			return "json";
+		}
+
+		@Override
+		public void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			out.putText("{\"name\":\"" + escape(name) + "\",\"hueCount\":" + colors.getHueCount()
+					+ ",\"valueCount\":" + colors.getValueCount() + ",\"colors\":[");
+			for (int j = 0; j < colors.getValueCount(); j++) {
+				out.putText(j == 0 ? "[" : ",[");
+				for (int i = 0; i < colors.getHueCount(); i++) {
+					out.putText((i == 0 ? "\"#" : ",\"#") + hex(colors.get(i, j)) + "\"");
+				}
+				out.putByte(']');
+			}
+			out.putText("]}\n");
+		}
+
+		private static String escape(String text) {
+			StringBuilder escaped = new StringBuilder(text.length());
+			for (int k = 0; k < text.length(); k++) {
+				char c = text.charAt(k);
+				if (c == '"' || c == '\\') {
+					escaped.append('\\').append(c);
+				} else if (c < 0x20) {
+					escaped.append(String.format("\\u%04x", (int) c));
+				} else {
+					escaped.append(c);
+				}
+			}
+			return escaped.toString();
+		}
+	}
+
+	/**
+	 * Three bytes per swatch, red green blue, row by row.
+	 */
+	public static final class Raw implements PaletteExporter {
+
+		@Override
+		public String getName() {
+			return "raw";
+		}
+
+		@Override
+		public void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			for (int color : colors.array()) {
+				out.putByte(PaletteBuffer.red(color)).putByte(PaletteBuffer.green(color)).putByte(PaletteBuffer.blue(color));
+			}
+		}
+	}
+
+	/**
+	 * 3D LUT in the .cube format baked from the palette.
+	 */
+	public static final class Cube implements PaletteExporter {
+
+		private final int size;
+		private final PaletteLut.Mode mode;
+
+		public Cube(int size, PaletteLut.Mode mode) {
+			this.size = size;
+			this.mode = mode;
+		}
+
+		@Override
+		public String getName() {
+			return "cube";
+		}
+
+		@Override
+		public int getMaxSwatches() {
+			return MAX_LOOKUP_SWATCHES;
+		}
+
+		@Override
+		public void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			checkSwatches(this, colors);
+			PaletteLut.bake(colors, size, mode).writeCube(name, out);
+		}
+	}
+
+	/**
+	 * 3D LUT baked from the palette as a strip of blue slices in a png.
+	 */
+	public static final class LutStrip implements PaletteExporter {
+
+		private final int size;
+		private final PaletteLut.Mode mode;
+		private final PalettePngWriter pngWriter;
+
+		public LutStrip(int size, PaletteLut.Mode mode, int level) {
+			this.size = size;
+			this.mode = mode;
+			this.pngWriter = new PalettePngWriter(level);
+		}
+
+		@Override
+		public String getName() {
+			return "lutstrip";
+		}
+
+		@Override
+		public String getExtension() {
+			return "lut.png";
+		}
+
+		@Override
+		public int getMaxSwatches() {
+			return MAX_LOOKUP_SWATCHES;
+		}
+
+		@Override
+		public synchronized void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			checkSwatches(this, colors);
+			try {
+				PaletteLut.bake(colors, size, mode).writeStrip(pngWriter, out.asOutputStream());
+			} finally {
+				pngWriter.abort();
+			}
+		}
+	}
+
+	/**
+	 * Some other image with every pixel remapped to the closest palette color.
+	 */
+	public static final class Remap implements PaletteExporter {
+
+		private final Path image;
+		private final int level;
+
+		public Remap(Path image, int level) {
+			this.image = image;
+			this.level = level;
+		}
+
+		@Override
+		public String getName() {
+			return "remap";
+		}
+
+		@Override
+		public String getExtension() {
+			return "remap.png";
+		}
+
+		@Override
+		public int getMaxSwatches() {
+			return MAX_LOOKUP_SWATCHES;
+		}
+
+		@Override
+		public void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			checkSwatches(this, colors);
+			new PaletteQuantizer(colors).pngLevel(level).quantize(image, out.asOutputStream());
+		}
+	}
+
+	/**
+	 * Smooth gradient texture of any size, the swatches interpolated
+	 * bilinearly in sRGB between their centers. A ramp of hueCount x res by
+	 * valueCount x res pixels is the png export with the steps smoothed out,
+	 * the first row of values is at the bottom the same way.
+	 *
+	 * <p> The image is worked out and encoded one row at a time, so next to
+	 * the palette it only ever holds a row of pixels and a column table, however
+	 * tall it is. A 16384 x 16384 ramp needs a few hundred kilobytes.
+	 */
+	public static final class Ramp implements PaletteExporter {
+
+		/**
+		 * Largest side of a ramp, keeps its row buffers under a megabyte.
+		 */
+		public static final int MAX_SIZE = 1 << 16;
+
+		private final int width;
+		private final int height;
+		private final PalettePngWriter pngWriter;
+
+		public Ramp(int width, int height, int level) {
+			if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE) {
+				throw new IllegalArgumentException("Ramps are 1 to " + MAX_SIZE + " pixels per side: " + width + "x" + height);
+			}
+			this.width = width;
+			this.height = height;
+			this.pngWriter = new PalettePngWriter(level);
+		}
+
+		/**
+		 * Ramp of a size like "4096" for a square or "16384x1024".
+		 */
+		public static Ramp parse(String size, int level) {
+			String[] sides = size.trim().toLowerCase(Locale.ROOT).split("x", -1);
+			try {
+				if (sides.length == 1) {
+					int side = Integer.parseInt(sides[0].trim());
+					return new Ramp(side, side, level);
+				}
+				if (sides.length == 2) {
+					return new Ramp(Integer.parseInt(sides[0].trim()), Integer.parseInt(sides[1].trim()), level);
+				}
+			} catch (NumberFormatException e) {
+				// Falls through to the message below
+			}
+			throw new IllegalArgumentException("Ramp size should look like 4096 or 16384x1024: '" + size + "'");
+		}
+
+		@Override
+		public String getName() {
+			return "ramp";
+		}
+
+		@Override
+		public String getExtension() {
+			return "ramp.png";
+		}
+
+		@Override
+		public synchronized void write(PaletteBuffer colors, String name, ChannelWriter out) throws IOException {
+			int hueCount = colors.getHueCount();
+			int valueCount = colors.getValueCount();
+			int[] argb = colors.array();
+
+			// Swatches left and right of every column and the weight of the right one
+			int[] left = new int[width];
+			float[] across = new float[width];
+			for (int x = 0; x < width; x++) {
+				double u = clamp((x + 0.5) * hueCount / width - 0.5, hueCount - 1);
+				left[x] = (int) u;
+				across[x] = (float) (u - left[x]);
+			}
+
+			// Channels of the current row blended between two rows of values, then the pixels
+			float[] red = new float[hueCount], green = new float[hueCount], blue = new float[hueCount];
+			int[] row = new int[width];
+			try {
+				pngWriter.beginTruecolor(out.asOutputStream(), width, height);
+				for (int y = 0; y < height; y++) {
+					// Rows counted from the top, so the last row of values comes first
+					double v = clamp((y + 0.5) * valueCount / height - 0.5, valueCount - 1);
+					int top = (int) v;
+					float down = (float) (v - top);
+					int upper = (valueCount - 1 - top) * hueCount;
+					int lower = (valueCount - 1 - Math.min(top + 1, valueCount - 1)) * hueCount;
+					for (int i = 0; i < hueCount; i++) {
+						int a = argb[upper + i];
+						int b = argb[lower + i];
+						red[i] = mix(PaletteBuffer.red(a), PaletteBuffer.red(b), down);
+						green[i] = mix(PaletteBuffer.green(a), PaletteBuffer.green(b), down);
+						blue[i] = mix(PaletteBuffer.blue(a), PaletteBuffer.blue(b), down);
+					}
+					for (int x = 0; x < width; x++) {
+						int i = left[x];
+						int j = Math.min(i + 1, hueCount - 1);
+						float t = across[x];
+						row[x] = PaletteBuffer.pack((int) (mix(red[i], red[j], t) + 0.5f),
+								(int) (mix(green[i], green[j], t) + 0.5f), (int) (mix(blue[i], blue[j], t) + 0.5f));
+					}
+					pngWriter.writeRgbRow(row, 0);
+				}
+				pngWriter.end();
+			} finally {
+				pngWriter.abort();
+			}
+		}
+
+		private static double clamp(double position, int last) {
+			return Math.max(0, Math.min(last, position));
+		}
+
+		private static float mix(float a, float b, float t) {
+			return a + (b - a) * t;
+		}
+	}
+
+}
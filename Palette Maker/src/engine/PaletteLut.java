@@ -0,0 +1,190 @@
+package engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * 3D color lookup table baked from a finished palette, for using the
+ * palette as a color grade. Every point of an N x N x N lattice over the
+ * RGB cube is mapped to the palette.
+ *
+ * <p> NEAREST - The closest palette color, the image is posterized to the palette
+ *
+ * <p> BLEND - The closest few palette colors weighted by inverse distance
+ *
+ * <p> The palette goes into a ColorKdTree and the lattice is baked one blue
+ * slice per task in parallel. Red changes fastest, like .cube files expect.
+ */
+
+public final class PaletteLut {
+
+	/**
+	 * How lattice points are mapped to the palette.
+	 */
+	public enum Mode {
+		NEAREST, BLEND
+	}
+
+	/**
+	 * Palette colors mixed per lattice point in BLEND mode.
+	 */
+	public static final int BLEND_NEIGHBORS = 4;
+
+	public static final int MIN_SIZE = 2;
+	public static final int MAX_SIZE = 256;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final int size;
+	private final Mode mode;
+	// Packed RGB of each lattice point, index = (b * size + g) * size + r
+	private final int[] lattice;
+
+	private PaletteLut(int size, Mode mode, int[] lattice) {
+		this.size = size;
+		this.mode = mode;
+		this.lattice = lattice;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Color of the lattice point, each coordinate from 0 to size - 1.
+	 */
+	public int get(int r, int g, int b) {
+		return lattice[(b * size + g) * size + r];
+	}
+
+	/**
+	 * The lattice itself, red fastest then green then blue.
+	 */
+	public int[] array() {
+		return lattice;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Baking
+
+	/**
+	 * Bakes a size x size x size table from the colors.
+	 */
+	public static PaletteLut bake(PaletteBuffer colors, int size, Mode mode) {
+		if (size < MIN_SIZE || size > MAX_SIZE) {
+			throw new IllegalArgumentException("LUT size must be from " + MIN_SIZE + " to " + MAX_SIZE + ": " + size);
+		}
+		ColorKdTree tree = new ColorKdTree(colors);
+		int[] lattice = new int[size * size * size];
+		int[] levels = new int[size];
+		for (int k = 0; k < size; k++) {
+			levels[k] = (k * 255 + (size - 1) / 2) / (size - 1);
+		}
+		IntStream.range(0, size).parallel().forEach(b -> {
+			if (mode == Mode.NEAREST) {
+				bakeNearest(tree, levels, b, lattice);
+			} else {
+				bakeBlend(tree, levels, b, lattice);
+			}
+		});
+		return new PaletteLut(size, mode, lattice);
+	}
+
+	private static void bakeNearest(ColorKdTree tree, int[] levels, int b, int[] lattice) {
+		int size = levels.length;
+		int p = b * size * size;
+		for (int g = 0; g < size; g++) {
+			for (int r = 0; r < size; r++) {
+				lattice[p++] = tree.color(tree.nearest(levels[r], levels[g], levels[b]));
+			}
+		}
+	}
+
+	private static void bakeBlend(ColorKdTree tree, int[] levels, int b, int[] lattice) {
+		int size = levels.length;
+		int[] indices = new int[BLEND_NEIGHBORS];
+		int[] distances = new int[BLEND_NEIGHBORS];
+		int p = b * size * size;
+		for (int g = 0; g < size; g++) {
+			for (int r = 0; r < size; r++) {
+				int found = tree.nearest(levels[r], levels[g], levels[b], BLEND_NEIGHBORS, indices, distances);
+				if (distances[0] == 0) {
+					// Right on a palette color
+					lattice[p++] = tree.color(indices[0]);
+					continue;
+				}
+				double wr = 0, wg = 0, wb = 0, total = 0;
+				for (int k = 0; k < found; k++) {
+					double weight = 1.0 / Math.sqrt(distances[k]);
+					int color = tree.color(indices[k]);
+					wr += PaletteBuffer.red(color) * weight;
+					wg += PaletteBuffer.green(color) * weight;
+					wb += PaletteBuffer.blue(color) * weight;
+					total += weight;
+				}
+				lattice[p++] = PaletteBuffer.pack((int) (wr / total + 0.5), (int) (wg / total + 0.5), (int) (wb / total + 0.5));
+			}
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Output
+
+	/**
+	 * Writes the table as a .cube file.
+	 */
+	public void writeCube(String title, ChannelWriter out) throws IOException {
+		out.putText("TITLE \"" + title.replace('"', '\'') + "\"\n");
+		out.putText("LUT_3D_SIZE " + size + "\n");
+		out.putText("DOMAIN_MIN 0.0 0.0 0.0\nDOMAIN_MAX 1.0 1.0 1.0\n");
+		// Channels are 8-bit so each of them is one of 256 strings
+		byte[][] channelText = new byte[256][];
+		for (int v = 0; v < 256; v++) {
+			channelText[v] = String.format(Locale.ROOT, "%.6f", v / 255.0).getBytes(StandardCharsets.US_ASCII);
+		}
+		for (int color : lattice) {
+			byte[] red = channelText[PaletteBuffer.red(color)];
+			byte[] green = channelText[PaletteBuffer.green(color)];
+			byte[] blue = channelText[PaletteBuffer.blue(color)];
+			out.putBytes(red, 0, red.length).putByte(' ');
+			out.putBytes(green, 0, green.length).putByte(' ');
+			out.putBytes(blue, 0, blue.length).putByte('\n');
+		}
+	}
+
+	/**
+	 * Writes the table as a 2D strip image, size * size pixels wide and
+	 * size pixels high. Each blue slice is a square with red going right
+	 * and green going down, and the slices go left to right. The stream is
+	 * left open.
+	 */
+	public void writeStrip(PalettePngWriter pngWriter, OutputStream out) throws IOException {
+		int width = size * size;
+		int[] row = new int[width];
+		pngWriter.beginTruecolor(out, width, size);
+		for (int g = 0; g < size; g++) {
+			for (int b = 0; b < size; b++) {
+				System.arraycopy(lattice, (b * size + g) * size, row, b * size, size);
+			}
+			pngWriter.writeRgbRow(row, 0);
+		}
+		pngWriter.end();
+	}
+
+	@Override
+	public String toString() {
+		return "PaletteLut[" + size + "^3 " + mode + "]";
+	}
+
+}
@@ -0,0 +1,202 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import engine.Application.WorkingSpace;
+
+/**
+ * The palette pipeline as a graph of memoized stages, so a change only
+ * recomputes the stages that depend on it.
+ *
+ * <pre>
+ * hues -------- hue basis --+
+ * valueIDs ---+             +-- colors --+-- tinted
+ * saturation -+- value rows +            |
+ * brightness -+                 tint ----+
+ * </pre>
+ *
+ * <p> The working space goes into the hue basis and the value rows. The
+ * render styles aren't part of the pipeline, StylePreviews works out
+ * every style of the tinted colors in the background.
+ *
+ * <p> The inputs are set every time something may have changed, setting
+ * an input to the value it already has changes nothing. Every stage
+ * remembers the versions of its inputs it was worked out from and is only
+ * worked out again, the next time it's asked for, if one of them moved
+ * on. Shifting the hue offset redoes the hue basis and the swatches but
+ * not the value rows, changing the tint only redoes the tint, and so on.
+ *
+ * <p> The buffers handed out are shared with the pipeline and must not be
+ * modified. Only to be used from one thread at a time.
+ */
+
+public final class PalettePipeline {
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	// Inputs
+	private final Input<float[]> hues = new Input<>(new float[0]);
+	private final Input<float[]> valueIDs = new Input<>(new float[0]);
+	private final Input<Float> saturation = new Input<>(1.0f);
+	private final Input<Float> brightness = new Input<>(1.0f);
+	private final Input<double[]> tint = new Input<>(new double[3]);
+	private final Input<WorkingSpace> workingSpace = new Input<>(WorkingSpace.HSB);
+
+	// Stages
+	private final Stage<PaletteEngine.HueBasis> hueBasis = new Stage<>(
+			() -> PaletteEngine.hueBasis(hues.get(), workingSpace.get()), hues, workingSpace);
+	private final Stage<PaletteEngine.ValueRows> valueRows = new Stage<>(
+			() -> PaletteEngine.valueRows(valueIDs.get(), saturation.get(), brightness.get(), workingSpace.get()),
+			valueIDs, saturation, brightness, workingSpace);
+	private final Stage<PaletteBuffer> colors = new Stage<>(
+			() -> PaletteEngine.deriveColors(hueBasis.get(), valueRows.get()), hueBasis, valueRows);
+	private final Stage<PaletteBuffer> tinted = new Stage<>(this::applyTint, colors, tint);
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Inputs
+
+	public PalettePipeline hues(float[] hues) {
+		if (!Arrays.equals(this.hues.get(), hues)) this.hues.set(hues.clone());
+		return this;
+	}
+
+	public PalettePipeline valueIDs(float[] valueIDs) {
+		if (!Arrays.equals(this.valueIDs.get(), valueIDs)) this.valueIDs.set(valueIDs.clone());
+		return this;
+	}
+
+	public PalettePipeline saturation(float saturationAdjustment) {
+		saturation.set(saturationAdjustment);
+		return this;
+	}
+
+	public PalettePipeline brightness(float brightnessAdjustment) {
+		brightness.set(brightnessAdjustment);
+		return this;
+	}
+
+	/**
+	 * Tint levels in percent, same units as the ADJUST_TINTS state.
+	 */
+	public PalettePipeline tint(double rTint, double gTint, double bTint) {
+		tint.set(new double[] {rTint, gTint, bTint});
+		return this;
+	}
+
+	public PalettePipeline workingSpace(WorkingSpace workingSpace) {
+		this.workingSpace.set(workingSpace);
+		return this;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Outputs
+
+	/**
+	 * Swatches of the hues, values, saturation and brightness without any tint.
+	 */
+	public PaletteBuffer colors() {
+		return colors.get();
+	}
+
+	/**
+	 * The colors with the tint applied, the Application's rawColors.
+	 */
+	public PaletteBuffer tinted() {
+		return tinted.get();
+	}
+
+	/**
+	 * Times any stage was worked out, for checking what a change recomputed.
+	 */
+	long computations() {
+		return hueBasis.computations + valueRows.computations + colors.computations + tinted.computations;
+	}
+
+	private PaletteBuffer applyTint() {
+		double[] rgb = tint.get();
+		PaletteBuffer colors = this.colors.get().copy();
+		PaletteEngine.applyTint(colors, rgb[0], rgb[1], rgb[2]);
+		return colors;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Graph
+
+	/**
+	 * A value with a version that moves on whenever it changes.
+	 */
+	private abstract static class Node<T> {
+
+		long version;
+
+		abstract T get();
+	}
+
+	private static final class Input<T> extends Node<T> {
+
+		private T value;
+
+		Input(T value) {
+			this.value = value;
+		}
+
+		@Override
+		T get() {
+			return value;
+		}
+
+		void set(T value) {
+			if (Objects.deepEquals(this.value, value)) return;
+			this.value = value;
+			version++;
+		}
+	}
+
+	/**
+	 * A value worked out from other nodes, again whenever one of them changed.
+	 */
+	private static final class Stage<T> extends Node<T> {
+
+		private final Supplier<T> function;
+		private final Node<?>[] inputs;
+		// Versions of the inputs the value was worked out from
+		private final long[] seen;
+		private T value;
+		private boolean computed;
+		long computations;
+
+		Stage(Supplier<T> function, Node<?>... inputs) {
+			this.function = function;
+			this.inputs = inputs;
+			this.seen = new long[inputs.length];
+		}
+
+		@Override
+		T get() {
+			boolean stale = !computed;
+			for (int i = 0; i < inputs.length; i++) {
+				// Brings the input up to date first
+				inputs[i].get();
+				if (inputs[i].version != seen[i]) {
+					seen[i] = inputs[i].version;
+					stale = true;
+				}
+			}
+			if (stale) {
+				value = function.get();
+				computed = true;
+				computations++;
+				version++;
+			}
+			return value;
+		}
+	}
+
+}
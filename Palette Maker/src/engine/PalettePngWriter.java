@@ -0,0 +1,343 @@
+package engine;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal PNG encoder made for palettes. Palettes with at most 256
+ * distinct colors are written as 8-bit indexed images with a PLTE chunk,
+ * anything bigger falls back to 8-bit truecolor. Skips ImageIO completely.
+ *
+ * <p> Images are written one scanline at a time, so callers that produce
+ * rows on the fly never need the whole image in memory. The Deflater and
+ * buffers are kept between images, so one writer should be reused for
+ * many exports. An image that fails halfway has to be given up with
+ * abort() before the next one, write() does that itself. Not thread safe,
+ * use one writer per thread.
+ */
+
+public final class PalettePngWriter {
+
+	/**
+	 * Largest palette that fits into an 8-bit indexed image.
+	 */
+	public static final int MAX_INDEXED_COLORS = 256;
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+	private static final int COLOR_TYPE_TRUECOLOR = 2;
+	private static final int COLOR_TYPE_INDEXED = 3;
+	private static final int IDAT_SIZE = 1 << 15;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private final byte[] idat = new byte[IDAT_SIZE];
+	private final byte[] header = new byte[8];
+	private byte[] scanline = new byte[0];
+
+	// Current image
+	private OutputStream out;
+	private int width;
+	private int height;
+	private int rowsWritten;
+	private int colorType;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	public PalettePngWriter() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level Deflate level from 0 (store) to 9 (smallest), or -1 for the default
+	 */
+	public PalettePngWriter(int level) {
+		deflater = new Deflater(level);
+	}
+
+	/**
+	 * Changes the deflate level for the next image.
+	 */
+	public void setLevel(int level) {
+		deflater.setLevel(level);
+	}
+
+	/**
+	 * Frees the native memory of the Deflater. The writer can't be used afterwards.
+	 */
+	public void close() {
+		deflater.end();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Palettes
+
+	/**
+	 * Writes the palette to a new file at path, see write(PaletteBuffer, int, OutputStream).
+	 */
+	public void write(PaletteBuffer colors, int res, Path path) throws IOException {
+		try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(path), IDAT_SIZE)) {
+			write(colors, res, fileOut);
+		}
+	}
+
+	/**
+	 * Writes the palette with each swatch res x res pixels big. Like the
+	 * exported images the first row of values is at the bottom. The stream
+	 * is left open.
+	 */
+	public void write(PaletteBuffer colors, int res, OutputStream out) throws IOException {
+		if (res < 1) throw new IllegalArgumentException("Resolution must be at least 1: " + res);
+		int hueCount = colors.getHueCount();
+		int valueCount = colors.getValueCount();
+		int width = Math.multiplyExact(hueCount, res);
+		int height = Math.multiplyExact(valueCount, res);
+		int[] argb = colors.array();
+		if (this.out != null) throw new IllegalStateException("Previous image was never ended");
+
+		try {
+			writeRows(argb, hueCount, valueCount, res, width, height, out);
+		} catch (IOException | RuntimeException e) {
+			abort();
+			throw e;
+		}
+	}
+
+	private void writeRows(int[] argb, int hueCount, int valueCount, int res, int width, int height, OutputStream out)
+			throws IOException {
+		int[] palette = indexPalette(argb);
+		if (palette != null) {
+			// Indexed, one byte per pixel
+			Map<Integer, Integer> indices = new HashMap<>();
+			for (int k = 0; k < palette.length; k++) {
+				indices.put(palette[k], k);
+			}
+			byte[] row = new byte[width];
+			beginIndexed(out, width, height, palette);
+			for (int j = valueCount - 1; j >= 0; j--) {
+				for (int i = 0; i < hueCount; i++) {
+					byte index = (byte) (int) indices.get(argb[j * hueCount + i] & 0xffffff);
+					for (int x = i * res; x < (i + 1) * res; x++) {
+						row[x] = index;
+					}
+				}
+				for (int y = 0; y < res; y++) {
+					writeIndexedRow(row, 0);
+				}
+			}
+		} else {
+			// Truecolor
+			int[] row = new int[width];
+			beginTruecolor(out, width, height);
+			for (int j = valueCount - 1; j >= 0; j--) {
+				for (int i = 0; i < hueCount; i++) {
+					int color = argb[j * hueCount + i];
+					for (int x = i * res; x < (i + 1) * res; x++) {
+						row[x] = color;
+					}
+				}
+				for (int y = 0; y < res; y++) {
+					writeRgbRow(row, 0);
+				}
+			}
+		}
+		end();
+	}
+
+	/**
+	 * The distinct RGB colors of the swatches in order of appearance, or
+	 * null if there are too many for an indexed image.
+	 */
+	static int[] indexPalette(int[] argb) {
+		Map<Integer, Integer> seen = new HashMap<>();
+		int[] palette = new int[MAX_INDEXED_COLORS];
+		for (int color : argb) {
+			int rgb = color & 0xffffff;
+			if (!seen.containsKey(rgb)) {
+				if (seen.size() == MAX_INDEXED_COLORS) return null;
+				palette[seen.size()] = rgb;
+				seen.put(rgb, seen.size());
+			}
+		}
+		int[] trimmed = new int[seen.size()];
+		System.arraycopy(palette, 0, trimmed, 0, trimmed.length);
+		return trimmed;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Streaming
+
+	/**
+	 * Starts an 8-bit indexed image. Follow up with exactly height calls to
+	 * writeIndexedRow() and then end().
+	 *
+	 * @param palette Packed RGB colors, at most 256
+	 */
+	public void beginIndexed(OutputStream out, int width, int height, int[] palette) throws IOException {
+		if (palette.length == 0 || palette.length > MAX_INDEXED_COLORS) {
+			throw new IllegalArgumentException("Indexed palettes need 1 to 256 colors: " + palette.length);
+		}
+		begin(out, width, height, COLOR_TYPE_INDEXED, width);
+		byte[] plte = new byte[palette.length * 3];
+		for (int k = 0; k < palette.length; k++) {
+			plte[k * 3] = (byte) (palette[k] >> 16);
+			plte[k * 3 + 1] = (byte) (palette[k] >> 8);
+			plte[k * 3 + 2] = (byte) palette[k];
+		}
+		writeChunk("PLTE", plte, plte.length);
+	}
+
+	/**
+	 * Starts an 8-bit RGB image. Follow up with exactly height calls to
+	 * writeRgbRow() and then end().
+	 */
+	public void beginTruecolor(OutputStream out, int width, int height) throws IOException {
+		begin(out, width, height, COLOR_TYPE_TRUECOLOR, Math.multiplyExact(width, 3));
+	}
+
+	private void begin(OutputStream out, int width, int height, int colorType, int rowBytes) throws IOException {
+		if (this.out != null) throw new IllegalStateException("Previous image was never ended");
+		if (width < 1 || height < 1) throw new IllegalArgumentException("Empty image: " + width + "x" + height);
+		if (scanline.length < rowBytes + 1) {
+			scanline = new byte[rowBytes + 1];
+		}
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		this.colorType = colorType;
+		this.rowsWritten = 0;
+		deflater.reset();
+
+		byte[] ihdr = new byte[13];
+		putInt(ihdr, 0, width);
+		putInt(ihdr, 4, height);
+		ihdr[8] = 8; // Bit depth
+		ihdr[9] = (byte) colorType;
+		ihdr[10] = 0; // Deflate
+		ihdr[11] = 0; // Adaptive filtering
+		ihdr[12] = 0; // No interlace
+		try {
+			out.write(SIGNATURE);
+			writeChunk("IHDR", ihdr, ihdr.length);
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the next scanline of an indexed image, width palette indices from offset.
+	 */
+	public void writeIndexedRow(byte[] indices, int offset) throws IOException {
+		checkRow(COLOR_TYPE_INDEXED);
+		scanline[0] = 0; // Filter: none
+		System.arraycopy(indices, offset, scanline, 1, width);
+		deflateRow(width + 1);
+	}
+
+	/**
+	 * Writes the next scanline of a truecolor image, width packed RGB colors from offset.
+	 */
+	public void writeRgbRow(int[] rgb, int offset) throws IOException {
+		checkRow(COLOR_TYPE_TRUECOLOR);
+		scanline[0] = 0; // Filter: none
+		int p = 1;
+		for (int x = 0; x < width; x++) {
+			int color = rgb[offset + x];
+			scanline[p++] = (byte) (color >> 16);
+			scanline[p++] = (byte) (color >> 8);
+			scanline[p++] = (byte) color;
+		}
+		deflateRow(p);
+	}
+
+	/**
+	 * Finishes the image data and writes the closing chunk. The stream is
+	 * flushed but left open. The writer is ready for the next image
+	 * afterwards, even if this throws.
+	 */
+	public void end() throws IOException {
+		if (out == null) throw new IllegalStateException("No image was begun");
+		try {
+			if (rowsWritten != height) {
+				throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+			}
+			deflater.finish();
+			while (!deflater.finished()) {
+				int n = deflater.deflate(idat);
+				if (n > 0) writeChunk("IDAT", idat, n);
+			}
+			writeChunk("IEND", idat, 0);
+			out.flush();
+		} finally {
+			abort();
+		}
+	}
+
+	/**
+	 * Gives up on the current image, if there is one, so the next one can
+	 * be begun. Whatever was written of it stays in the stream.
+	 */
+	public void abort() {
+		out = null;
+		deflater.reset();
+	}
+
+	private void checkRow(int expectedType) {
+		if (out == null) throw new IllegalStateException("No image was begun");
+		if (colorType != expectedType) throw new IllegalStateException("Row type doesn't match the image");
+		if (rowsWritten == height) throw new IllegalStateException("All " + height + " rows are already written");
+		rowsWritten++;
+	}
+
+	/**
+	 * Feeds a scanline to the Deflater and writes an IDAT chunk each time its output fills up.
+	 */
+	private void deflateRow(int length) throws IOException {
+		deflater.setInput(scanline, 0, length);
+		while (!deflater.needsInput()) {
+			int n = deflater.deflate(idat);
+			if (n > 0) writeChunk("IDAT", idat, n);
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Chunks
+
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		putInt(header, 0, length);
+		for (int k = 0; k < 4; k++) {
+			header[4 + k] = (byte) type.charAt(k);
+		}
+		crc.reset();
+		crc.update(header, 4, 4);
+		crc.update(data, 0, length);
+		out.write(header, 0, 8);
+		out.write(data, 0, length);
+		putInt(header, 0, (int) crc.getValue());
+		out.write(header, 0, 4);
+	}
+
+	private static void putInt(byte[] b, int offset, int v) {
+		b[offset] = (byte) (v >>> 24);
+		b[offset + 1] = (byte) (v >>> 16);
+		b[offset + 2] = (byte) (v >>> 8);
+		b[offset + 3] = (byte) v;
+	}
+
+}
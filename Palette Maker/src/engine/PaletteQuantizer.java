@@ -0,0 +1,532 @@
+package engine;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Remaps every pixel of an image to the closest color of a palette.
+ *
+ * <p> Images are streamed a band of rows at a time: a band is read, its rows
+ * are split into tasks on a ForkJoinPool and the finished band is handed to
+ * an encoder thread while the next one is read. Memory use depends on the
+ * width of the image, not its height.
+ *
+ * <p> Lookups are exact but never search the whole palette. The RGB cube is
+ * split into 32 x 32 x 32 cells and every cell keeps the few palette colors
+ * that can be the closest one to any color inside it: the closest color to
+ * the cell center is found with a ColorKdTree, and only colors that come
+ * nearer to the cell than the far corner of the cell is from that one are
+ * kept, found with a range search of the same tree. A pixel is then
+ * compared against a handful of candidates. Palettes dense enough to have
+ * more than MAX_CELL_CANDIDATES in a cell, like the ones with millions of
+ * swatches, search the tree instead for the pixels of that cell.
+ */
+
+public final class PaletteQuantizer {
+
+	/**
+	 * Rows read and encoded at a time.
+	 */
+	public static final int BAND_HEIGHT = 64;
+
+	private static final int ROWS_PER_TASK = 4;
+	private static final int CELL_BITS = 5;
+	private static final int CELL_SHIFT = 8 - CELL_BITS;
+	private static final int CELL_SIZE = 1 << CELL_SHIFT;
+	private static final int CELLS = 1 << CELL_BITS;
+
+	/**
+	 * Most candidates a cell keeps, cells that would need more search the
+	 * tree. Keeps the tables below 8 MB however big the palette is.
+	 */
+	static final int MAX_CELL_CANDIDATES = 64;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final int[] palette;
+	private final int[] reds, greens, blues;
+	// Palette indices are the tree's indices
+	private final ColorKdTree tree;
+	// Candidates of cell k are candidates[cellStarts[k]] up to candidates[cellStarts[k + 1]],
+	// a cell without any searches the tree
+	private final int[] cellStarts;
+	private final int[] candidates;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int pngLevel = Deflater.DEFAULT_COMPRESSION;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * @param colors Palette colors, duplicates and alpha are ignored
+	 */
+	public PaletteQuantizer(int[] colors) {
+		tree = new ColorKdTree(colors);
+		palette = new int[tree.size()];
+		reds = new int[palette.length];
+		greens = new int[palette.length];
+		blues = new int[palette.length];
+		for (int k = 0; k < palette.length; k++) {
+			palette[k] = tree.color(k);
+			reds[k] = PaletteBuffer.red(palette[k]);
+			greens[k] = PaletteBuffer.green(palette[k]);
+			blues[k] = PaletteBuffer.blue(palette[k]);
+		}
+
+		int cellCount = CELLS * CELLS * CELLS;
+		int[][] cellCandidates = new int[cellCount][];
+		IntStream.range(0, cellCount).parallel().forEach(cell -> cellCandidates[cell] = cellCandidates(cell));
+		cellStarts = new int[cellCount + 1];
+		for (int cell = 0; cell < cellCount; cell++) {
+			cellStarts[cell + 1] = cellStarts[cell] + cellCandidates[cell].length;
+		}
+		candidates = new int[cellStarts[cellCount]];
+		for (int cell = 0; cell < cellCount; cell++) {
+			System.arraycopy(cellCandidates[cell], 0, candidates, cellStarts[cell], cellCandidates[cell].length);
+		}
+	}
+
+	public PaletteQuantizer(PaletteBuffer colors) {
+		this(colors.array());
+	}
+
+	/**
+	 * Palette from a file: one rrggbb per line for .hex files, otherwise the
+	 * distinct colors of an image like an exported palette png.
+	 */
+	public static PaletteQuantizer fromFile(Path file) throws IOException {
+		if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".hex")) {
+			List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			return new PaletteQuantizer(lines.stream().map(String::trim).filter(line -> !line.isEmpty())
+					.mapToInt(line -> Integer.parseInt(line.startsWith("#") ? line.substring(1) : line, 16)).toArray());
+		}
+		BufferedImage image = ImageIO.read(file.toFile());
+		if (image == null) throw new IOException("Can't read palette image " + file);
+		return new PaletteQuantizer(image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()));
+	}
+
+	/**
+	 * Palette colors that can be the closest one to some color of the cell,
+	 * none if there are more than MAX_CELL_CANDIDATES.
+	 */
+	private int[] cellCandidates(int cell) {
+		int rMin = (cell >> (2 * CELL_BITS)) << CELL_SHIFT;
+		int gMin = ((cell >> CELL_BITS) & (CELLS - 1)) << CELL_SHIFT;
+		int bMin = (cell & (CELLS - 1)) << CELL_SHIFT;
+		int half = CELL_SIZE / 2;
+		int center = tree.nearest(rMin + half, gMin + half, bMin + half);
+		// Every color of the cell is at most this far from the center's closest color
+		int bound = farthest(reds[center], rMin) + farthest(greens[center], gMin) + farthest(blues[center], bMin);
+		int[] min = { rMin, gMin, bMin };
+		int[] max = { rMin + CELL_SIZE - 1, gMin + CELL_SIZE - 1, bMin + CELL_SIZE - 1 };
+		int[] found = new int[MAX_CELL_CANDIDATES];
+		int count = tree.within(min, max, bound, found);
+		return (count < 0) ? new int[0] : Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Squared distance from v to the farthest end of the cell's range on one channel.
+	 */
+	private static int farthest(int v, int min) {
+		int d = Math.max(Math.abs(v - min), Math.abs(v - (min + CELL_SIZE - 1)));
+		return d * d;
+	}
+
+	/**
+	 * Threads used to remap a band, the available processors by default.
+	 */
+	public PaletteQuantizer parallelism(int parallelism) {
+		if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Deflate level of the remapped png.
+	 */
+	public PaletteQuantizer pngLevel(int pngLevel) {
+		this.pngLevel = pngLevel;
+		return this;
+	}
+
+	/**
+	 * The distinct palette colors, palette indices refer to this.
+	 */
+	public int[] getPalette() {
+		return palette.clone();
+	}
+
+	/**
+	 * Amount of cells that search the tree instead of their candidates.
+	 */
+	int treeCells() {
+		int count = 0;
+		for (int cell = 0; cell + 1 < cellStarts.length; cell++) {
+			if (cellStarts[cell] == cellStarts[cell + 1]) count++;
+		}
+		return count;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Lookup
+
+	/**
+	 * Index of the palette color closest to the packed RGB color.
+	 */
+	public int nearestIndex(int rgb) {
+		int r = PaletteBuffer.red(rgb);
+		int g = PaletteBuffer.green(rgb);
+		int b = PaletteBuffer.blue(rgb);
+		int cell = ((r >> CELL_SHIFT) << (2 * CELL_BITS)) | ((g >> CELL_SHIFT) << CELL_BITS) | (b >> CELL_SHIFT);
+		int end = cellStarts[cell + 1];
+		if (end == cellStarts[cell]) return tree.nearest(r, g, b);
+		int best = candidates[cellStarts[cell]];
+		int bestDistance = Integer.MAX_VALUE;
+		for (int k = cellStarts[cell]; k < end; k++) {
+			int c = candidates[k];
+			int dr = reds[c] - r;
+			int dg = greens[c] - g;
+			int db = blues[c] - b;
+			int distance = dr * dr + dg * dg + db * db;
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Remaps length colors of rgb from offset into palette indices.
+	 */
+	public void quantize(int[] rgb, int offset, int length, byte[] indices, int indicesOffset) {
+		for (int k = 0; k < length; k++) {
+			indices[indicesOffset + k] = (byte) nearestIndex(rgb[offset + k]);
+		}
+	}
+
+	/**
+	 * Remaps length colors of rgb from offset to the palette colors themselves, in place.
+	 */
+	public void quantize(int[] rgb, int offset, int length) {
+		for (int k = offset; k < offset + length; k++) {
+			rgb[k] = palette[nearestIndex(rgb[k])];
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Images
+
+	/**
+	 * Remaps the input image into a png. The png is indexed unless the
+	 * palette has more than 256 colors.
+	 */
+	public void quantize(Path input, Path output) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 1 << 16)) {
+			quantize(input, out);
+		}
+	}
+
+	/**
+	 * Remaps the input image into a png written to out, which is left open.
+	 */
+	public void quantize(Path input, OutputStream out) throws IOException {
+		try (RowSource source = RowSource.open(input)) {
+			quantize(source, out);
+		}
+	}
+
+	/**
+	 * Remaps a png read from input into a png written to out. Input is closed
+	 * afterwards, out is left open.
+	 */
+	public void quantize(InputStream input, OutputStream out) throws IOException {
+		try (RowSource source = new PngSource(new PngRowReader(input))) {
+			quantize(source, out);
+		}
+	}
+
+	private void quantize(RowSource source, OutputStream out) throws IOException {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		int bandHeight = Math.min(BAND_HEIGHT, height);
+		boolean indexed = palette.length <= PalettePngWriter.MAX_INDEXED_COLORS;
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		ExecutorService encoder = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "PaletteQuantizer encoder");
+			t.setDaemon(true);
+			return t;
+		});
+		PalettePngWriter pngWriter = new PalettePngWriter(pngLevel);
+		try {
+			if (indexed) {
+				pngWriter.beginIndexed(out, width, height, palette);
+			} else {
+				pngWriter.beginTruecolor(out, width, height);
+			}
+			// Two bands, one being remapped while the other one is encoded
+			int bandSize = Math.multiplyExact(width, bandHeight);
+			int[][] rgbBands = { new int[bandSize], new int[bandSize] };
+			byte[][] indexBands = indexed ? new byte[][] { new byte[bandSize], new byte[bandSize] } : null;
+			Future<?> pending = null;
+			for (int y = 0, band = 0; y < height; y += bandHeight, band++) {
+				int rows = Math.min(bandHeight, height - y);
+				int[] rgb = rgbBands[band & 1];
+				byte[] indices = indexed ? indexBands[band & 1] : null;
+				source.readRows(rgb, rows);
+				pool.invoke(new BandTask(rgb, indices, width, 0, rows));
+
+				// Wait for the previous band to finish encoding before handing over this one
+				waitFor(pending);
+				pending = encoder.submit(() -> {
+					for (int row = 0; row < rows; row++) {
+						if (indexed) {
+							pngWriter.writeIndexedRow(indices, row * width);
+						} else {
+							pngWriter.writeRgbRow(rgb, row * width);
+						}
+					}
+					return null;
+				});
+			}
+			waitFor(pending);
+			pngWriter.end();
+			out.flush();
+		} finally {
+			pool.shutdown();
+			// Queued behind any encode still running
+			encoder.execute(pngWriter::close);
+			encoder.shutdown();
+		}
+	}
+
+	private static void waitFor(Future<?> pending) throws IOException {
+		if (pending == null) return;
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while encoding", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Encoding failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Remaps a range of rows of a band, splitting itself up until the
+	 * ranges are small enough.
+	 */
+	private final class BandTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] rgb;
+		private final byte[] indices;
+		private final int width;
+		private final int from, to;
+
+		BandTask(int[] rgb, byte[] indices, int width, int from, int to) {
+			this.rgb = rgb;
+			this.indices = indices;
+			this.width = width;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ROWS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BandTask(rgb, indices, width, from, middle), new BandTask(rgb, indices, width, middle, to));
+				return;
+			}
+			int offset = from * width;
+			int length = (to - from) * width;
+			if (indices != null) {
+				quantize(rgb, offset, length, indices, offset);
+			} else {
+				quantize(rgb, offset, length);
+			}
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Sources
+
+	/**
+	 * Rows of an image read from top to bottom.
+	 */
+	private interface RowSource extends Closeable {
+
+		int getWidth();
+
+		int getHeight();
+
+		/**
+		 * Reads the next rows into rgb as packed RGB colors.
+		 */
+		void readRows(int[] rgb, int rows) throws IOException;
+
+		/**
+		 * Pngs are read row by row, anything else ImageIO can read a band at a time.
+		 */
+		static RowSource open(Path input) throws IOException {
+			try {
+				return new PngSource(new PngRowReader(Files.newInputStream(input)));
+			} catch (IOException e) {
+				// Not a png that can be read by row, the reader closed the stream
+			}
+			return new ImageIOSource(input);
+		}
+	}
+
+	private static final class PngSource implements RowSource {
+
+		private final PngRowReader reader;
+
+		PngSource(PngRowReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public int getWidth() {
+			return reader.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return reader.getHeight();
+		}
+
+		@Override
+		public void readRows(int[] rgb, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) {
+				reader.readRow(rgb, row * reader.getWidth());
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads chunks of rows with a source region. Readers decode from the
+	 * start of the image on every read, so the chunks are a lot taller
+	 * than a band to keep the amount of reads down.
+	 */
+	private static final class ImageIOSource implements RowSource {
+
+		private static final int CHUNK_HEIGHT = 512;
+
+		private final ImageInputStream stream;
+		private final ImageReader reader;
+		private final int width, height;
+		private BufferedImage chunk;
+		private int chunkY;
+		private int y;
+
+		ImageIOSource(Path input) throws IOException {
+			stream = ImageIO.createImageInputStream(input.toFile());
+			if (stream == null) throw new IOException("Can't open " + input);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) {
+				stream.close();
+				throw new IOException("No reader for " + input);
+			}
+			reader = readers.next();
+			reader.setInput(stream, true, true);
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public void readRows(int[] rgb, int rows) throws IOException {
+			for (int row = 0; row < rows; row++, y++) {
+				if (chunk == null || y >= chunkY + chunk.getHeight()) {
+					ImageReadParam param = reader.getDefaultReadParam();
+					param.setSourceRegion(new Rectangle(0, y, width, Math.min(CHUNK_HEIGHT, height - y)));
+					chunk = reader.read(0, param);
+					chunkY = y;
+				}
+				chunk.getRGB(0, y - chunkY, width, 1, rgb, row * width, width);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.dispose();
+			stream.close();
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Main
+
+	/**
+	 * Remaps an image to a palette file: image, palette (.hex or an exported png), output png.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("usage: -quantize <image> <palette.png|palette.hex> <output.png>");
+			return;
+		}
+		try {
+			PaletteQuantizer quantizer = fromFile(Path.of(args[1]));
+			long start = System.nanoTime();
+			quantizer.quantize(Path.of(args[0]), Path.of(args[2]));
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			System.out.println("remapped " + args[0] + " to " + quantizer.palette.length + " colors in " + millis + "ms");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package engine;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * Turns a PaletteBuffer into an image with every swatch blown up to a
+ * square of res x res pixels. Rows are written straight into the image's
+ * backing int array, one Arrays.fill per swatch for the first scanline of
+ * a row of swatches and one System.arraycopy for each of the others, so
+ * the cost grows with the amount of swatches and not with res squared.
+ *
+ * <p> Like the original export, the first row of values ends up at the
+ * bottom of the image and the last row at the top.
+ *
+ * <p> Palettes with more swatches than there are pixels to show them are
+ * averaged down with downsample() first.
+ */
+
+public final class PaletteRaster {
+
+	private static final DirectColorModel RGB = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+
+	private PaletteRaster() {
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Rasterization
+
+	/**
+	 * Image of the palette with each swatch res x res pixels big.
+	 */
+	public static BufferedImage rasterize(PaletteBuffer colors, int res) {
+		return rasterize(colors, res, null);
+	}
+
+	/**
+	 * Same as rasterize(PaletteBuffer, int) but draws into reuse instead of
+	 * allocating a new image when it is a TYPE_INT_RGB image of the right size.
+	 */
+	public static BufferedImage rasterize(PaletteBuffer colors, int res, BufferedImage reuse) {
+		return scale(colors.array(), colors.getHueCount(), colors.getValueCount(), res, reuse);
+	}
+
+	/**
+	 * The backing int array of a TYPE_INT_RGB or TYPE_INT_ARGB image.
+	 */
+	static int[] pixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Fills a TYPE_INT_RGB image from the row-major src grid, the first src
+	 * row ends up at the bottom.
+	 */
+	private static BufferedImage scale(int[] src, int srcWidth, int srcHeight, int res, BufferedImage reuse) {
+		if (res < 1) throw new IllegalArgumentException("Resolution must be at least 1: " + res);
+		int width = Math.multiplyExact(srcWidth, res);
+		int height = Math.multiplyExact(srcHeight, res);
+		BufferedImage image = reuse;
+		if (image == null || image.getType() != BufferedImage.TYPE_INT_RGB
+				|| image.getWidth() != width || image.getHeight() != height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+		int[] dst = pixels(image);
+
+		for (int j = 0; j < srcHeight; j++) {
+			int srcRow = j * srcWidth;
+			int firstLine = ((srcHeight - 1 - j) * res) * width;
+			// First scanline, one fill per swatch
+			for (int i = 0; i < srcWidth; i++) {
+				int start = firstLine + i * res;
+				Arrays.fill(dst, start, start + res, src[srcRow + i] & 0xffffff);
+			}
+			// The rest are copies of the first
+			for (int y = 1; y < res; y++) {
+				System.arraycopy(dst, firstLine, dst, firstLine + y * width, width);
+			}
+		}
+		return image;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Large palettes
+
+	/**
+	 * TYPE_INT_RGB image straight over the buffer's array, nothing is
+	 * copied. Unlike rasterize() the first row of values is at the top.
+	 */
+	public static BufferedImage wrap(PaletteBuffer colors) {
+		DataBufferInt data = new DataBufferInt(colors.array(), colors.size());
+		int width = colors.getHueCount();
+		return new BufferedImage(RGB, Raster.createPackedRaster(data, width, colors.getValueCount(), width,
+				RGB.getMasks(), null), false, null);
+	}
+
+	/**
+	 * Palette with every block of hueFactor x valueFactor swatches averaged
+	 * down to one. Blocks at the edges may be smaller.
+	 */
+	public static PaletteBuffer downsample(PaletteBuffer colors, int hueFactor, int valueFactor) {
+		if (hueFactor < 1 || valueFactor < 1) {
+			throw new IllegalArgumentException("Factors must be at least 1: " + hueFactor + " x " + valueFactor);
+		}
+		int srcWidth = colors.getHueCount();
+		int srcHeight = colors.getValueCount();
+		int width = ceilDiv(srcWidth, hueFactor);
+		int height = ceilDiv(srcHeight, valueFactor);
+		PaletteBuffer result = new PaletteBuffer(width, height);
+		int[] src = colors.array();
+		int[] dst = result.array();
+		long[] red = new long[width], green = new long[width], blue = new long[width];
+		for (int y = 0; y < height; y++) {
+			int firstRow = y * valueFactor;
+			int rows = Math.min(valueFactor, srcHeight - firstRow);
+			Arrays.fill(red, 0);
+			Arrays.fill(green, 0);
+			Arrays.fill(blue, 0);
+			for (int j = firstRow; j < firstRow + rows; j++) {
+				int i = j * srcWidth;
+				int rowEnd = i + srcWidth;
+				for (int x = 0; x < width; x++) {
+					int blockEnd = Math.min(rowEnd, i + hueFactor);
+					long r = 0, g = 0, b = 0;
+					for (; i < blockEnd; i++) {
+						int color = src[i];
+						r += PaletteBuffer.red(color);
+						g += PaletteBuffer.green(color);
+						b += PaletteBuffer.blue(color);
+					}
+					red[x] += r;
+					green[x] += g;
+					blue[x] += b;
+				}
+			}
+			for (int x = 0; x < width; x++) {
+				long count = (long) rows * Math.min(hueFactor, srcWidth - x * hueFactor);
+				dst[y * width + x] = PaletteBuffer.pack((int) ((red[x] + count / 2) / count),
+						(int) ((green[x] + count / 2) / count), (int) ((blue[x] + count / 2) / count));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Image of the palette no bigger than width x height. Swatches are as big
+	 * as fits up to maxRes pixels, palettes with more swatches than that has
+	 * pixels are averaged down to a pixel per block of swatches.
+	 */
+	public static BufferedImage fit(PaletteBuffer colors, int width, int height, int maxRes) {
+		int res = fitRes(colors.getHueCount(), colors.getValueCount(), width, height, maxRes);
+		if (res >= 1) return rasterize(colors, res);
+		return rasterize(downsample(colors, ceilDiv(colors.getHueCount(), Math.max(1, width)),
+				ceilDiv(colors.getValueCount(), Math.max(1, height))), 1);
+	}
+
+	/**
+	 * Size of the image fit() makes.
+	 */
+	public static Dimension fitSize(int hueCount, int valueCount, int width, int height, int maxRes) {
+		int res = fitRes(hueCount, valueCount, width, height, maxRes);
+		if (res >= 1) return new Dimension(hueCount * res, valueCount * res);
+		return new Dimension(ceilDiv(hueCount, ceilDiv(hueCount, Math.max(1, width))),
+				ceilDiv(valueCount, ceilDiv(valueCount, Math.max(1, height))));
+	}
+
+	/**
+	 * Swatch size fit() uses, 0 if the palette has to be averaged down.
+	 */
+	private static int fitRes(int hueCount, int valueCount, int width, int height, int maxRes) {
+		return Math.min(maxRes, Math.min(width / hueCount, height / valueCount));
+	}
+
+	static int ceilDiv(int a, int b) {
+		return (a + b - 1) / b;
+	}
+
+}
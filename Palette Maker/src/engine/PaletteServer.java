@@ -0,0 +1,490 @@
+package engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import engine.Application.HueStyle;
+import engine.Application.RenderStyle;
+import engine.Application.WorkingSpace;
+
+/**
+ * Serves palettes over HTTP on the loopback interface, so other tools can
+ * ask for a palette by its parameters instead of walking through the
+ * Application. Built on the JDK's own com.sun.net.httpserver.
+ *
+ * <p> GET /palette.png?hueCount=8&valueCount=5&renderStyle=PAIRWISE_GRADIENT
+ * returns the palette image, /palette.json the same palette as json and
+ * any other export format works the same way. Every parameter the
+ * Application lets you pick can be given, see Params, anything left out
+ * keeps its default.
+ *
+ * <p> Parameters are parsed and written back out in a fixed order before
+ * anything else happens, so equal palettes asked for in different ways
+ * share one key. Each key's colors and every format encoded from them are
+ * kept in an LRU cache, a palette that was asked for before is sent
+ * straight from memory. The cache is bounded by the bytes it holds, not
+ * by the number of palettes, since one palette can have pngs of many
+ * resolutions and LUTs cached along with it.
+ *
+ * <p> Requests run on virtual threads on runtimes that have them and on a
+ * fixed pool of platform threads before that.
+ */
+
+public final class PaletteServer {
+
+	/**
+	 * Bytes of colors and encodings kept in the cache by default.
+	 */
+	public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+
+	// Smaller than what the Application allows on purpose. Anyone who can
+	// reach the port picks the size, and a palette of thousands of hues
+	// and values would take seconds and hundreds of megabytes per request
+	private static final int MAX_HUE_COUNT = 28;
+	private static final int MIN_VALUE_COUNT = 3;
+	private static final int MAX_VALUE_COUNT = 8;
+	private static final int MAX_RESOLUTION = 64;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final Map<String, PaletteExporter> exporters;
+	// Png writers not in use right now, the Png exporter would let one request encode at a time
+	private final Queue<PalettePngWriter> pngWriters = new ConcurrentLinkedQueue<>();
+	private final PaletteCache cache;
+	private final int pngLevel;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * @param cacheBytes Most bytes of colors and encodings kept in memory
+	 * @param pngLevel Deflate level of the served pngs, from 0 to 9
+	 */
+	public PaletteServer(long cacheBytes, int pngLevel) {
+		this.cache = new PaletteCache(Math.max(0, cacheBytes));
+		this.pngLevel = pngLevel;
+		this.exporters = PaletteExporters.available(1, pngLevel);
+	}
+
+	/**
+	 * Starts listening on the loopback interface.
+	 *
+	 * @param port Port to listen on, 0 for any free one
+	 * @return The port listened on
+	 */
+	public synchronized int start(int port) throws IOException {
+		if (server != null) throw new IllegalStateException("Already started");
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/palette", this::handle);
+		executor = requestExecutor();
+		server.setExecutor(executor);
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops listening, requests still running get a second to finish.
+	 */
+	public synchronized void stop() {
+		if (server == null) return;
+		server.stop(1);
+		executor.shutdown();
+		server = null;
+		executor = null;
+	}
+
+	/**
+	 * A virtual thread per request if the runtime has them, looked up
+	 * reflectively so this still runs on older runtimes.
+	 */
+	private static ExecutorService requestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), r -> {
+				Thread t = new Thread(r, "PaletteServer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Bytes of colors and encodings in the cache right now.
+	 */
+	public long getCachedBytes() {
+		return cache.getBytes();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Requests
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!method.equals("GET") && !method.equals("HEAD")) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				sendText(exchange, 405, "Only GET and HEAD are supported");
+				return;
+			}
+			String format;
+			Params params;
+			try {
+				format = format(exchange.getRequestURI().getPath());
+				params = Params.parse(exchange.getRequestURI().getRawQuery());
+			} catch (IllegalArgumentException e) {
+				sendText(exchange, 400, e.getMessage());
+				return;
+			}
+			boolean png = format.equals("png");
+			if (!png && !exporters.containsKey(format)) {
+				sendText(exchange, 404, "Unknown format '" + format + "', available: " + exporters.keySet());
+				return;
+			}
+
+			// Colors and bytes come from the cache whenever they can
+			String key = params.key();
+			Palette palette = cache.get(key);
+			String encoding = png ? "png@" + params.resolution : format;
+			byte[] bytes = (palette == null) ? null : palette.encoded.get(encoding);
+			boolean hit = bytes != null;
+			if (hit) {
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+				if (palette == null) {
+					palette = cache.putIfAbsent(new Palette(key, params.colors()));
+				}
+				bytes = png ? encodePng(palette.colors, params.resolution) : encode(palette.colors, exporters.get(format));
+				cache.addEncoding(palette, encoding, bytes);
+			}
+
+			exchange.getResponseHeaders().set("Content-Type", contentType(format));
+			exchange.getResponseHeaders().set("X-Palette-Key", key);
+			exchange.getResponseHeaders().set("X-Palette-Cache", hit ? "hit" : "miss");
+			if (method.equals("HEAD")) {
+				exchange.sendResponseHeaders(200, -1);
+			} else {
+				exchange.sendResponseHeaders(200, bytes.length);
+				try (OutputStream body = exchange.getResponseBody()) {
+					body.write(bytes);
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Format from the path, "/palette.json" is json and "/palette" alone png.
+	 */
+	private static String format(String path) {
+		if (path.equals("/palette") || path.equals("/palette/")) return "png";
+		if (!path.startsWith("/palette.")) throw new IllegalArgumentException("Unknown path " + path);
+		return path.substring("/palette.".length()).toLowerCase(Locale.ROOT);
+	}
+
+	private static String contentType(String format) {
+		switch (format) {
+		case "png":
+			return "image/png";
+		case "json":
+			return "application/json";
+		case "hex":
+		case "gpl":
+		case "cube":
+			return "text/plain; charset=utf-8";
+		default:
+			return "application/octet-stream";
+		}
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(bytes);
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Encoding
+
+	private byte[] encodePng(PaletteBuffer colors, int resolution) throws IOException {
+		PalettePngWriter pngWriter = pngWriters.poll();
+		if (pngWriter == null) pngWriter = new PalettePngWriter(pngLevel);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			pngWriter.write(colors, resolution, out);
+			return out.toByteArray();
+		} finally {
+			pngWriters.offer(pngWriter);
+		}
+	}
+
+	private static byte[] encode(PaletteBuffer colors, PaletteExporter exporter) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ChannelWriter writer = new ChannelWriter(Channels.newChannel(out), 1 << 13)) {
+			exporter.write(colors, "palette", writer);
+		}
+		return out.toByteArray();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Parameters
+
+	/**
+	 * Parameters of one palette, checked and with defaults filled in.
+	 */
+	static final class Params {
+
+		HueStyle hueStyle = HueStyle.LINEAR;
+		int hueCount = 8;
+		float hueOffset = 0.0f;
+		int valueCount = 5;
+		float saturation = 1.0f;
+		float brightness = 1.0f;
+		double rTint, gTint, bTint;
+		RenderStyle renderStyle = RenderStyle.BASIC;
+		WorkingSpace workingSpace = WorkingSpace.HSB;
+		// Only changes the png, not the palette
+		int resolution = 16;
+
+		/**
+		 * @throws IllegalArgumentException If a parameter is unknown or out of range
+		 */
+		static Params parse(String rawQuery) {
+			Params params = new Params();
+			if (rawQuery == null || rawQuery.isEmpty()) return params;
+			for (String pair : rawQuery.split("&")) {
+				if (pair.isEmpty()) continue;
+				int equals = pair.indexOf('=');
+				String name = URLDecoder.decode((equals < 0) ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+				String value = (equals < 0) ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8).trim();
+				params.set(name, value);
+			}
+			return params;
+		}
+
+		private void set(String name, String value) {
+			try {
+				switch (name) {
+				case "hueStyle":
+					hueStyle = HueStyle.valueOf(value.toUpperCase(Locale.ROOT));
+					if (hueStyle == HueStyle.IMAGE) throw new IllegalArgumentException("IMAGE hues need a reference image, the server has none");
+					break;
+				case "hueCount":
+					hueCount = range(name, Integer.parseInt(value), 1, MAX_HUE_COUNT);
+					break;
+				case "hueOffset":
+					hueOffset = range(name, Float.parseFloat(value), -Float.MAX_VALUE, Float.MAX_VALUE);
+					break;
+				case "valueCount":
+					valueCount = range(name, Integer.parseInt(value), MIN_VALUE_COUNT, MAX_VALUE_COUNT);
+					break;
+				case "saturation":
+					saturation = range(name, Float.parseFloat(value), 0.0f, 1.0f);
+					break;
+				case "brightness":
+					brightness = range(name, Float.parseFloat(value), 0.0f, 1.0f);
+					break;
+				case "rTint":
+					rTint = range(name, Float.parseFloat(value), 0.0f, 255.0f);
+					break;
+				case "gTint":
+					gTint = range(name, Float.parseFloat(value), 0.0f, 255.0f);
+					break;
+				case "bTint":
+					bTint = range(name, Float.parseFloat(value), 0.0f, 255.0f);
+					break;
+				case "renderStyle":
+					renderStyle = RenderStyle.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "workingSpace":
+					workingSpace = WorkingSpace.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "res":
+					resolution = range(name, Integer.parseInt(value), 1, MAX_RESOLUTION);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown parameter '" + name + "'");
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad value '" + value + "' for " + name);
+			}
+		}
+
+		private static int range(String name, int value, int min, int max) {
+			if (value < min || value > max) throw new IllegalArgumentException(name + " has to be from " + min + " to " + max);
+			return value;
+		}
+
+		private static float range(String name, float value, float min, float max) {
+			if (!(value >= min && value <= max)) throw new IllegalArgumentException(name + " has to be from " + min + " to " + max);
+			// No negative zero, it would be a key of its own
+			return value + 0.0f;
+		}
+
+		/**
+		 * Every parameter of the palette in a fixed order and notation.
+		 * The png resolution isn't part of it, one palette serves them all.
+		 */
+		String key() {
+			return hueStyle + "," + hueCount + "," + hueOffset + "," + valueCount + "," + saturation + ","
+					+ brightness + "," + rTint + "," + gTint + "," + bTint + "," + renderStyle + "," + workingSpace;
+		}
+
+		/**
+		 * Runs the same pipeline the Application does.
+		 */
+		PaletteBuffer colors() {
+			float[] hues = PaletteEngine.deriveHues(hueStyle, hueCount, hueOffset);
+			float[] valueIDs = PaletteEngine.deriveValueIds(valueCount);
+			PaletteBuffer rawColors = PaletteEngine.finalizeTints(hues, valueIDs, saturation, brightness, rTint, gTint, bTint, workingSpace);
+			return PaletteEngine.finalizeColors(rawColors, renderStyle, workingSpace);
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Cache
+
+	/**
+	 * Colors of one palette and every encoding asked for so far.
+	 */
+	private static final class Palette {
+
+		final String key;
+		final PaletteBuffer colors;
+		final Map<String, byte[]> encoded = new ConcurrentHashMap<>();
+		// Colors and encodings, only changed by the cache
+		long bytes;
+
+		Palette(String key, PaletteBuffer colors) {
+			this.key = key;
+			this.colors = colors;
+			this.bytes = (long) colors.size() * Integer.BYTES;
+		}
+	}
+
+	/**
+	 * Palettes by key. Once the colors and encodings add up to more than
+	 * the capacity the least recently used palettes go, with everything
+	 * encoded from them.
+	 */
+	private static final class PaletteCache {
+
+		private final Map<String, Palette> palettes = new LinkedHashMap<>(16, 0.75f, true);
+		private final long capacity;
+		private long bytes;
+
+		PaletteCache(long capacity) {
+			this.capacity = capacity;
+		}
+
+		synchronized Palette get(String key) {
+			return palettes.get(key);
+		}
+
+		synchronized long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Keeps the palette unless another request got there first, returns the one kept.
+		 */
+		synchronized Palette putIfAbsent(Palette palette) {
+			Palette existing = palettes.putIfAbsent(palette.key, palette);
+			if (existing != null) return existing;
+			bytes += palette.bytes;
+			trim();
+			return palette;
+		}
+
+		/**
+		 * Keeps an encoding of a palette, unless the palette was evicted in
+		 * the meantime or the encoding is already there.
+		 */
+		synchronized void addEncoding(Palette palette, String encoding, byte[] encoded) {
+			if (palettes.get(palette.key) != palette) return;
+			if (palette.encoded.putIfAbsent(encoding, encoded) != null) return;
+			palette.bytes += encoded.length;
+			bytes += encoded.length;
+			trim();
+		}
+
+		/**
+		 * Evicts the least recently used palettes until it fits again. A
+		 * palette bigger than the whole cache goes as well, after it was sent.
+		 */
+		private void trim() {
+			Iterator<Palette> eldest = palettes.values().iterator();
+			while (bytes > capacity && eldest.hasNext()) {
+				bytes -= eldest.next().bytes;
+				eldest.remove();
+			}
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Main
+
+	/**
+	 * Usage: -serve [port], 8080 by default. -Dpalette.serverCacheMB sets how
+	 * many megabytes of palettes are cached, 64 by default.
+	 */
+	public static void main(String[] args) {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+		PaletteServer server = new PaletteServer(Long.getLong("palette.serverCacheMB", DEFAULT_CACHE_BYTES >> 20) << 20,
+				Integer.getInteger("palette.pngLevel", 9));
+		try {
+			port = server.start(port);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		System.out.println("serving palettes on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + "/palette.png");
+	}
+
+}
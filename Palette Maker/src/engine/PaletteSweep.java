@@ -0,0 +1,428 @@
+package engine;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+import engine.Application.HueStyle;
+import engine.Application.RenderStyle;
+
+/**
+ * Generates every combination of a grid of pipeline parameters and packs
+ * the palettes into contact sheet atlas images, with a csv index next to
+ * them saying which parameters ended up at which tile.
+ *
+ * <p> Combinations are decoded from their index instead of being listed
+ * up front, the tiles of a page are computed in parallel on a ForkJoinPool
+ * and each page is encoded on a separate thread while the next one is
+ * computed. At most two pages are in memory at any time no matter how
+ * big the sweep is.
+ *
+ * <p> Every tile is big enough for the largest hue and value count of the
+ * sweep. Smaller palettes sit in its bottom left corner, with the first
+ * row of values at the bottom like the exported images.
+ */
+
+public final class PaletteSweep {
+
+	private static final int TILES_PER_TASK = 16;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	// Parameter grid, defaults match everything the Application can pick without a hue image
+	private HueStyle[] hueStyles = { HueStyle.LINEAR, HueStyle.RADIAL };
+	private ImageHues imageHues;
+	private int[] hueCounts = range(1, 28);
+	private int[] valueCounts = range(3, 8);
+	private float[] saturations = steps(1, 10);
+	private float[] brightnesses = steps(1, 10);
+	private RenderStyle[] renderStyles = RenderStyle.values();
+	private float hueOffset = 0.0f;
+	private double rTint, gTint, bTint;
+
+	// Layout
+	private int swatchRes = 1;
+	private int padding = 1;
+	private int pageColumns = 64;
+	private int pageRows = 64;
+	private int background = 0x000000;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int pngLevel = 6;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Parameters
+
+	public PaletteSweep hueStyles(HueStyle... hueStyles) {
+		this.hueStyles = nonEmpty(hueStyles.clone(), hueStyles.length);
+		return this;
+	}
+
+	/**
+	 * Reference image for the IMAGE hue style, which is LINEAR without one.
+	 */
+	public PaletteSweep hueImage(ImageHues imageHues) {
+		this.imageHues = imageHues;
+		return this;
+	}
+
+	public PaletteSweep hueCounts(int... hueCounts) {
+		for (int count : hueCounts) {
+			if (count < 1) throw new IllegalArgumentException("Hue count must be at least 1: " + count);
+		}
+		this.hueCounts = nonEmpty(hueCounts.clone(), hueCounts.length);
+		return this;
+	}
+
+	public PaletteSweep valueCounts(int... valueCounts) {
+		for (int count : valueCounts) {
+			if (count < 2) throw new IllegalArgumentException("Value count must be at least 2: " + count);
+		}
+		this.valueCounts = nonEmpty(valueCounts.clone(), valueCounts.length);
+		return this;
+	}
+
+	public PaletteSweep saturations(float... saturations) {
+		this.saturations = nonEmpty(saturations.clone(), saturations.length);
+		return this;
+	}
+
+	public PaletteSweep brightnesses(float... brightnesses) {
+		this.brightnesses = nonEmpty(brightnesses.clone(), brightnesses.length);
+		return this;
+	}
+
+	public PaletteSweep renderStyles(RenderStyle... renderStyles) {
+		this.renderStyles = nonEmpty(renderStyles.clone(), renderStyles.length);
+		return this;
+	}
+
+	/**
+	 * Hue offset and tint shared by every palette of the sweep.
+	 */
+	public PaletteSweep fixed(float hueOffset, double rTint, double gTint, double bTint) {
+		this.hueOffset = hueOffset;
+		this.rTint = rTint;
+		this.gTint = gTint;
+		this.bTint = bTint;
+		return this;
+	}
+
+	/**
+	 * Size of every swatch in pixels and the gap between tiles.
+	 */
+	public PaletteSweep tileLayout(int swatchRes, int padding) {
+		if (swatchRes < 1 || padding < 0) throw new IllegalArgumentException("Bad tile layout: " + swatchRes + ", " + padding);
+		this.swatchRes = swatchRes;
+		this.padding = padding;
+		return this;
+	}
+
+	/**
+	 * How many tiles fit on one atlas page. Bigger pages mean fewer files but more memory.
+	 */
+	public PaletteSweep pageSize(int pageColumns, int pageRows) {
+		if (pageColumns < 1 || pageRows < 1) throw new IllegalArgumentException("Bad page size: " + pageColumns + "x" + pageRows);
+		this.pageColumns = pageColumns;
+		this.pageRows = pageRows;
+		return this;
+	}
+
+	public PaletteSweep parallelism(int parallelism) {
+		if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public PaletteSweep pngLevel(int pngLevel) {
+		this.pngLevel = pngLevel;
+		return this;
+	}
+
+	/**
+	 * Amount of palettes in the sweep.
+	 */
+	public long size() {
+		return (long) hueStyles.length * hueCounts.length * valueCounts.length
+				* saturations.length * brightnesses.length * renderStyles.length;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Sweep
+
+	/**
+	 * Generates every palette into atlas_N.png pages and index.csv inside directory.
+	 *
+	 * @return How many pages were written
+	 */
+	public int run(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		long total = size();
+		int tilesPerPage = pageColumns * pageRows;
+		int pageCount = (int) ((total + tilesPerPage - 1) / tilesPerPage);
+		Layout layout = new Layout();
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		ExecutorService encoder = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "PaletteSweep encoder");
+			t.setDaemon(true);
+			return t;
+		});
+		PalettePngWriter pngWriter = new PalettePngWriter(pngLevel);
+		try (BufferedWriter index = Files.newBufferedWriter(directory.resolve("index.csv"), StandardCharsets.UTF_8)) {
+			index.write("page,x,y,width,height,hueStyle,hueCount,hueOffset,valueCount,saturation,brightness,rTint,gTint,bTint,renderStyle");
+			index.newLine();
+
+			// Two pages, one being computed while the other one is encoded
+			int[][] pages = new int[2][];
+			Future<?> pending = null;
+			for (int page = 0; page < pageCount; page++) {
+				long first = (long) page * tilesPerPage;
+				int tiles = (int) Math.min(tilesPerPage, total - first);
+				int columns = Math.min(pageColumns, tiles);
+				int rows = (tiles + pageColumns - 1) / pageColumns;
+				int width = columns * layout.tileWidth + (columns + 1) * padding;
+				int height = rows * layout.tileHeight + (rows + 1) * padding;
+
+				int[] pixels = pages[page & 1];
+				if (pixels == null || pixels.length < width * height) {
+					pixels = new int[Math.multiplyExact(width, height)];
+					pages[page & 1] = pixels;
+				}
+				Arrays.fill(pixels, 0, width * height, background);
+
+				// Compute the page
+				pool.invoke(new TileTask(layout, first, 0, tiles, pixels, width));
+				for (int t = 0; t < tiles; t++) {
+					writeIndexLine(index, page, t, layout, first + t);
+				}
+
+				// Wait for the previous page to finish encoding before handing over this one
+				waitFor(pending);
+				Path file = directory.resolve("atlas_" + page + ".png");
+				int[] finishedPixels = pixels;
+				pending = encoder.submit(() -> {
+					encode(pngWriter, file, finishedPixels, width, height);
+					return null;
+				});
+			}
+			waitFor(pending);
+		} finally {
+			pool.shutdown();
+			// Queued behind any encode still running
+			encoder.execute(pngWriter::close);
+			encoder.shutdown();
+		}
+		return pageCount;
+	}
+
+	private static void waitFor(Future<?> pending) throws IOException {
+		if (pending == null) return;
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while encoding", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Encoding failed", e.getCause());
+		}
+	}
+
+	private static void encode(PalettePngWriter pngWriter, Path file, int[] pixels, int width, int height) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+			pngWriter.beginTruecolor(out, width, height);
+			for (int y = 0; y < height; y++) {
+				pngWriter.writeRgbRow(pixels, y * width);
+			}
+			pngWriter.end();
+		}
+	}
+
+	private void writeIndexLine(BufferedWriter index, int page, int tile, Layout layout, long combination) throws IOException {
+		Combination c = new Combination(combination);
+		int x = padding + (tile % pageColumns) * (layout.tileWidth + padding);
+		int y = padding + (tile / pageColumns) * (layout.tileHeight + padding);
+		index.write(page + "," + x + "," + y + "," + (c.hueCount * swatchRes) + "," + (c.valueCount * swatchRes) + ","
+				+ c.hueStyle + "," + c.hueCount + "," + hueOffset + "," + c.valueCount + ","
+				+ c.saturation + "," + c.brightness + "," + rTint + "," + gTint + "," + bTint + "," + c.renderStyle);
+		index.newLine();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Tiles
+
+	/**
+	 * Size of a tile in pixels, big enough for the largest palette of the sweep.
+	 */
+	private final class Layout {
+		final int tileWidth = max(hueCounts) * swatchRes;
+		final int tileHeight = max(valueCounts) * swatchRes;
+	}
+
+	/**
+	 * Parameters of one palette, decoded from its index in the sweep. The
+	 * render style changes fastest so neighboring tiles share raw colors.
+	 */
+	private final class Combination {
+		final HueStyle hueStyle;
+		final int hueCount;
+		final int valueCount;
+		final float saturation;
+		final float brightness;
+		final RenderStyle renderStyle;
+		// Index of the raw colors, same for every render style
+		final long rawIndex;
+
+		Combination(long index) {
+			renderStyle = renderStyles[(int) (index % renderStyles.length)];
+			index /= renderStyles.length;
+			rawIndex = index;
+			brightness = brightnesses[(int) (index % brightnesses.length)];
+			index /= brightnesses.length;
+			saturation = saturations[(int) (index % saturations.length)];
+			index /= saturations.length;
+			valueCount = valueCounts[(int) (index % valueCounts.length)];
+			index /= valueCounts.length;
+			hueCount = hueCounts[(int) (index % hueCounts.length)];
+			index /= hueCounts.length;
+			hueStyle = hueStyles[(int) index];
+		}
+	}
+
+	/**
+	 * Computes a range of tiles of one page, splitting itself up until
+	 * the ranges are small enough.
+	 */
+	private final class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Layout layout;
+		private final long firstCombination;
+		private final int from, to;
+		private final int[] pixels;
+		private final int pageWidth;
+
+		TileTask(Layout layout, long firstCombination, int from, int to, int[] pixels, int pageWidth) {
+			this.layout = layout;
+			this.firstCombination = firstCombination;
+			this.from = from;
+			this.to = to;
+			this.pixels = pixels;
+			this.pageWidth = pageWidth;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > TILES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new TileTask(layout, firstCombination, from, middle, pixels, pageWidth),
+						new TileTask(layout, firstCombination, middle, to, pixels, pageWidth));
+				return;
+			}
+			long lastRawIndex = -1;
+			PaletteBuffer rawColors = null;
+			for (int t = from; t < to; t++) {
+				Combination c = new Combination(firstCombination + t);
+				if (c.rawIndex != lastRawIndex) {
+					float[] hues = PaletteEngine.deriveHues(c.hueStyle, c.hueCount, hueOffset, imageHues);
+					float[] valueIDs = PaletteEngine.deriveValueIds(c.valueCount);
+					rawColors = PaletteEngine.finalizeTints(hues, valueIDs, c.saturation, c.brightness, rTint, gTint, bTint);
+					lastRawIndex = c.rawIndex;
+				}
+				PaletteBuffer finalColors = PaletteEngine.finalizeColors(rawColors, c.renderStyle);
+				int x = padding + (t % pageColumns) * (layout.tileWidth + padding);
+				int y = padding + (t / pageColumns) * (layout.tileHeight + padding);
+				drawTile(finalColors, x, y + layout.tileHeight);
+			}
+		}
+
+		/**
+		 * Draws the palette with its bottom left corner at x, bottom.
+		 */
+		private void drawTile(PaletteBuffer colors, int x, int bottom) {
+			int[] argb = colors.array();
+			int hueCount = colors.getHueCount();
+			for (int j = 0; j < colors.getValueCount(); j++) {
+				int firstLine = (bottom - (j + 1) * swatchRes) * pageWidth + x;
+				for (int i = 0; i < hueCount; i++) {
+					int start = firstLine + i * swatchRes;
+					Arrays.fill(pixels, start, start + swatchRes, argb[j * hueCount + i] & 0xffffff);
+				}
+				for (int y = 1; y < swatchRes; y++) {
+					System.arraycopy(pixels, firstLine, pixels, firstLine + y * pageWidth, hueCount * swatchRes);
+				}
+			}
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Misc
+
+	private static int[] range(int min, int max) {
+		int[] values = new int[max - min + 1];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = min + i;
+		}
+		return values;
+	}
+
+	/**
+	 * Levels in tenths like the ADJUST_SATURATION and ADJUST_BRIGHTNESS states.
+	 */
+	private static float[] steps(int min, int max) {
+		float[] values = new float[max - min + 1];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = ((float) (min + i)) / 10.0f;
+		}
+		return values;
+	}
+
+	private static int max(int[] values) {
+		int max = 0;
+		for (int v : values) {
+			max = Math.max(max, v);
+		}
+		return max;
+	}
+
+	private static <T> T nonEmpty(T values, int length) {
+		if (length == 0) throw new IllegalArgumentException("Sweep needs at least one value per parameter");
+		return values;
+	}
+
+	/**
+	 * Runs the default sweep into the given directory.
+	 */
+	public static void main(String[] args) {
+		Path directory = Path.of(args.length > 0 ? args[0] : "palette_sweep");
+		PaletteSweep sweep = new PaletteSweep();
+		long start = System.nanoTime();
+		try {
+			int pages = sweep.run(directory);
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			System.out.println("swept " + sweep.size() + " palettes into " + pages + " pages in " + millis + "ms");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
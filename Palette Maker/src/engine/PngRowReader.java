@@ -0,0 +1,321 @@
+package engine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a png one scanline at a time, so only two rows of the image are
+ * ever in memory. The counterpart of the streaming half of PalettePngWriter.
+ *
+ * <p> ImageIO can read bands of a png with a source region, but it inflates
+ * the image from the start on every read, so reading a large image band
+ * by band costs the whole image once per band.
+ *
+ * <p> Handles every non-interlaced color type and bit depth. Rows come out
+ * as packed RGB, alpha is dropped and 16-bit samples keep their high byte.
+ */
+
+public final class PngRowReader implements AutoCloseable {
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+	private static final int COLOR_TYPE_GRAY = 0;
+	private static final int COLOR_TYPE_TRUECOLOR = 2;
+	private static final int COLOR_TYPE_INDEXED = 3;
+	private static final int COLOR_TYPE_GRAY_ALPHA = 4;
+	private static final int COLOR_TYPE_TRUECOLOR_ALPHA = 6;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final DataInputStream in;
+	private final Inflater inflater = new Inflater();
+	private final DataInputStream pixels;
+
+	private int width;
+	private int height;
+	private int bitDepth;
+	private int colorType;
+	private int[] palette;
+
+	// Bytes per complete pixel, at least 1, for the filters
+	private int filterStride;
+	private byte[] row;
+	private byte[] previous;
+	private int rowsRead;
+
+	// Bytes left of the current IDAT chunk, -1 after the last one
+	private int idatRemaining;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * Reads the header, the stream is positioned at the image data afterwards.
+	 *
+	 * @throws IOException If it isn't a png or it's interlaced
+	 */
+	public PngRowReader(InputStream stream) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+		try {
+			readHeader();
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+		pixels = new DataInputStream(new InflaterInputStream(new IdatStream(), inflater, 1 << 16));
+	}
+
+	private void readHeader() throws IOException {
+		byte[] signature = new byte[SIGNATURE.length];
+		in.readFully(signature);
+		if (!Arrays.equals(signature, SIGNATURE)) throw new IOException("Not a png");
+		while (true) {
+			int length = in.readInt();
+			String type = readType();
+			if (type.equals("IDAT")) {
+				idatRemaining = length;
+				break;
+			}
+			byte[] data = new byte[length];
+			in.readFully(data);
+			in.readInt(); // CRC
+			switch (type) {
+			case "IHDR":
+				readIhdr(data);
+				break;
+			case "PLTE":
+				palette = new int[length / 3];
+				for (int k = 0; k < palette.length; k++) {
+					palette[k] = ((data[k * 3] & 0xff) << 16) | ((data[k * 3 + 1] & 0xff) << 8) | (data[k * 3 + 2] & 0xff);
+				}
+				break;
+			case "IEND":
+				throw new IOException("Png has no image data");
+			}
+		}
+		if (width == 0) throw new IOException("Png has no header");
+		if (colorType == COLOR_TYPE_INDEXED && palette == null) throw new IOException("Indexed png has no palette");
+	}
+
+	private void readIhdr(byte[] data) throws IOException {
+		width = ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) | ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+		height = ((data[4] & 0xff) << 24) | ((data[5] & 0xff) << 16) | ((data[6] & 0xff) << 8) | (data[7] & 0xff);
+		bitDepth = data[8];
+		colorType = data[9];
+		if (data[12] != 0) throw new IOException("Interlaced pngs can't be read by row");
+		if (width <= 0 || height <= 0) throw new IOException("Empty png: " + width + "x" + height);
+		int samples;
+		switch (colorType) {
+		case COLOR_TYPE_GRAY:
+		case COLOR_TYPE_INDEXED:
+			samples = 1;
+			break;
+		case COLOR_TYPE_GRAY_ALPHA:
+			samples = 2;
+			break;
+		case COLOR_TYPE_TRUECOLOR:
+			samples = 3;
+			break;
+		case COLOR_TYPE_TRUECOLOR_ALPHA:
+			samples = 4;
+			break;
+		default:
+			throw new IOException("Unknown png color type " + colorType);
+		}
+		if (bitDepth != 1 && bitDepth != 2 && bitDepth != 4 && bitDepth != 8 && bitDepth != 16) {
+			throw new IOException("Unknown png bit depth " + bitDepth);
+		}
+		int bitsPerPixel = samples * bitDepth;
+		filterStride = Math.max(1, bitsPerPixel / 8);
+		int rowBytes = (int) (((long) width * bitsPerPixel + 7) / 8);
+		row = new byte[rowBytes];
+		previous = new byte[rowBytes];
+	}
+
+	private String readType() throws IOException {
+		byte[] type = new byte[4];
+		in.readFully(type);
+		return new String(type, StandardCharsets.US_ASCII);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Reading
+
+	/**
+	 * Reads the next scanline into rgb as width packed RGB colors from offset.
+	 */
+	public void readRow(int[] rgb, int offset) throws IOException {
+		if (rowsRead == height) throw new EOFException("All " + height + " rows were read");
+		int filter = pixels.readUnsignedByte();
+		byte[] swap = previous;
+		previous = row;
+		row = swap;
+		pixels.readFully(row);
+		unfilter(filter);
+		convert(rgb, offset);
+		rowsRead++;
+	}
+
+	private void unfilter(int filter) throws IOException {
+		byte[] cur = row;
+		byte[] up = previous;
+		int n = cur.length;
+		int bpp = filterStride;
+		switch (filter) {
+		case 0: // None
+			break;
+		case 1: // Sub
+			for (int k = bpp; k < n; k++) {
+				cur[k] += cur[k - bpp];
+			}
+			break;
+		case 2: // Up
+			for (int k = 0; k < n; k++) {
+				cur[k] += up[k];
+			}
+			break;
+		case 3: // Average
+			for (int k = 0; k < n; k++) {
+				int left = (k >= bpp) ? cur[k - bpp] & 0xff : 0;
+				cur[k] += (left + (up[k] & 0xff)) >>> 1;
+			}
+			break;
+		case 4: // Paeth
+			for (int k = 0; k < n; k++) {
+				int a = (k >= bpp) ? cur[k - bpp] & 0xff : 0;
+				int b = up[k] & 0xff;
+				int c = (k >= bpp) ? up[k - bpp] & 0xff : 0;
+				int p = a + b - c;
+				int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+				cur[k] += (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+			}
+			break;
+		default:
+			throw new IOException("Unknown png filter " + filter + " on row " + rowsRead);
+		}
+	}
+
+	private void convert(int[] rgb, int offset) {
+		byte[] r = row;
+		switch (colorType) {
+		case COLOR_TYPE_TRUECOLOR:
+		case COLOR_TYPE_TRUECOLOR_ALPHA: {
+			int step = (colorType == COLOR_TYPE_TRUECOLOR ? 3 : 4) * (bitDepth / 8);
+			int channel = bitDepth / 8;
+			for (int x = 0, p = 0; x < width; x++, p += step) {
+				rgb[offset + x] = ((r[p] & 0xff) << 16) | ((r[p + channel] & 0xff) << 8) | (r[p + channel * 2] & 0xff);
+			}
+			break;
+		}
+		case COLOR_TYPE_GRAY_ALPHA: {
+			int step = 2 * (bitDepth / 8);
+			for (int x = 0, p = 0; x < width; x++, p += step) {
+				rgb[offset + x] = (r[p] & 0xff) * 0x010101;
+			}
+			break;
+		}
+		case COLOR_TYPE_GRAY:
+			for (int x = 0; x < width; x++) {
+				rgb[offset + x] = scaleSample(sample(x)) * 0x010101;
+			}
+			break;
+		case COLOR_TYPE_INDEXED:
+			for (int x = 0; x < width; x++) {
+				int index = sample(x);
+				rgb[offset + x] = (index < palette.length) ? palette[index] : 0;
+			}
+			break;
+		}
+	}
+
+	/**
+	 * The x-th sample of a single sample per pixel row, 16-bit samples
+	 * are cut down to their high byte.
+	 */
+	private int sample(int x) {
+		switch (bitDepth) {
+		case 8:
+			return row[x] & 0xff;
+		case 16:
+			return row[x * 2] & 0xff;
+		default:
+			int bitOffset = x * bitDepth;
+			int shift = 8 - bitDepth - (bitOffset & 7);
+			return ((row[bitOffset >> 3] & 0xff) >> shift) & ((1 << bitDepth) - 1);
+		}
+	}
+
+	private int scaleSample(int sample) {
+		return (bitDepth >= 8) ? sample : sample * 255 / ((1 << bitDepth) - 1);
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Image data
+
+	/**
+	 * The payload of every IDAT chunk one after another.
+	 */
+	private final class IdatStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			if (!nextChunk()) return -1;
+			idatRemaining--;
+			return in.readUnsignedByte();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (!nextChunk()) return -1;
+			int n = in.read(b, off, Math.min(len, idatRemaining));
+			if (n < 0) throw new EOFException("Png ends inside IDAT");
+			idatRemaining -= n;
+			return n;
+		}
+
+		/**
+		 * Moves on to the next IDAT chunk once the current one is used up.
+		 * Returns false after the last one.
+		 */
+		private boolean nextChunk() throws IOException {
+			while (idatRemaining == 0) {
+				in.readInt(); // CRC
+				int length = in.readInt();
+				if (!readType().equals("IDAT")) {
+					idatRemaining = -1;
+					break;
+				}
+				idatRemaining = length;
+			}
+			return idatRemaining > 0;
+		}
+	}
+
+}
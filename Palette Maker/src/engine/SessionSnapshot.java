@@ -0,0 +1,227 @@
+package engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+import engine.Application.HueStyle;
+import engine.Application.RenderStyle;
+import engine.Application.WorkingSpace;
+
+/**
+ * Everything picked so far in an Application session, saved as a small
+ * binary file so a session can be resumed at any state instead of walking
+ * through every step again.
+ *
+ * <p> One file is kept per ApplicationState, STATE.session, holding the
+ * session as it was when that state was entered. Files are written next
+ * to each other and moved over the old one, so a crash never leaves a
+ * half written snapshot behind.
+ *
+ * <p> The format starts with MAGIC and VERSION. Enums are stored by name
+ * so reordering them doesn't break old snapshots, and snapshots written
+ * by a newer version are refused instead of being misread. Derived data
+ * like the raw colors isn't stored, it's worked out again on resume.
+ */
+
+public final class SessionSnapshot {
+
+	/**
+	 * First four bytes of every snapshot, "PMSS".
+	 */
+	public static final int MAGIC = 0x504d5353;
+
+	/**
+	 * Format version written, and the newest one that can be read.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Extension of snapshot files.
+	 */
+	public static final String EXTENSION = ".session";
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	ApplicationState state;
+	int selectionVal;
+	int selectionMin;
+	int selectionMax;
+	HueStyle hueStyle;
+	float hueOffset;
+	float[] hues;
+	int valueCount;
+	float[] valueIDs;
+	float saturationAdjustment;
+	float brightnessAdjustment;
+	double rTint, gTint, bTint;
+	char selectedColor;
+	RenderStyle renderStyle;
+	WorkingSpace workingSpace;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Files
+
+	/**
+	 * File the snapshot of a state is kept in.
+	 */
+	public static Path file(Path directory, ApplicationState state) {
+		return directory.resolve(state.name() + EXTENSION);
+	}
+
+	/**
+	 * Writes the snapshot to the file of its state in the directory,
+	 * replacing the previous one in a single move.
+	 */
+	public void save(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path target = file(directory, state);
+		Path temp = Files.createTempFile(directory, state.name(), ".tmp");
+		try {
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				write(out);
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads the snapshot of a state from the directory.
+	 *
+	 * @param state State to resume at, or null for whichever was saved last
+	 * @throws NoSuchFileException If there is no snapshot to resume
+	 */
+	public static SessionSnapshot load(Path directory, ApplicationState state) throws IOException {
+		Path file = (state != null) ? file(directory, state) : latest(directory);
+		if (file == null) throw new NoSuchFileException(directory.toString(), null, "No saved sessions");
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Most recently written snapshot in the directory, or null if there is none.
+	 */
+	private static Path latest(Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) return null;
+		Path latest = null;
+		FileTime latestTime = null;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+			for (Path file : files) {
+				FileTime time = Files.getLastModifiedTime(file);
+				if (latestTime == null || time.compareTo(latestTime) > 0) {
+					latest = file;
+					latestTime = time;
+				}
+			}
+		}
+		return latest;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Format
+
+	public void write(OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeUTF(state.name());
+		out.writeInt(selectionVal);
+		out.writeInt(selectionMin);
+		out.writeInt(selectionMax);
+		out.writeUTF(hueStyle.name());
+		out.writeFloat(hueOffset);
+		writeFloats(out, hues);
+		out.writeInt(valueCount);
+		writeFloats(out, valueIDs);
+		out.writeFloat(saturationAdjustment);
+		out.writeFloat(brightnessAdjustment);
+		out.writeDouble(rTint);
+		out.writeDouble(gTint);
+		out.writeDouble(bTint);
+		out.writeChar(selectedColor);
+		out.writeUTF(renderStyle.name());
+		out.writeUTF(workingSpace.name());
+		out.flush();
+	}
+
+	/**
+	 * @throws IOException If it isn't a snapshot or it's from a newer version
+	 */
+	public static SessionSnapshot read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC) throw new IOException("Not a session snapshot");
+		int version = in.readUnsignedShort();
+		if (version > VERSION) throw new IOException("Session snapshot version " + version + " is newer than " + VERSION);
+		SessionSnapshot snapshot = new SessionSnapshot();
+		try {
+			snapshot.state = ApplicationState.valueOf(in.readUTF());
+			snapshot.selectionVal = in.readInt();
+			snapshot.selectionMin = in.readInt();
+			snapshot.selectionMax = in.readInt();
+			snapshot.hueStyle = HueStyle.valueOf(in.readUTF());
+			snapshot.hueOffset = in.readFloat();
+			snapshot.hues = readFloats(in);
+			snapshot.valueCount = in.readInt();
+			snapshot.valueIDs = readFloats(in);
+			snapshot.saturationAdjustment = in.readFloat();
+			snapshot.brightnessAdjustment = in.readFloat();
+			snapshot.rTint = in.readDouble();
+			snapshot.gTint = in.readDouble();
+			snapshot.bTint = in.readDouble();
+			snapshot.selectedColor = in.readChar();
+			snapshot.renderStyle = RenderStyle.valueOf(in.readUTF());
+			snapshot.workingSpace = WorkingSpace.valueOf(in.readUTF());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Session snapshot names an unknown value", e);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Length and values, -1 for null.
+	 */
+	private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.length);
+		for (float value : values) {
+			out.writeFloat(value);
+		}
+	}
+
+	private static float[] readFloats(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+		if (length > (1 << 20)) throw new IOException("Session snapshot has " + length + " values in one array");
+		float[] values = new float[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = in.readFloat();
+		}
+		return values;
+	}
+
+}
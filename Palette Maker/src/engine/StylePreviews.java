@@ -0,0 +1,182 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import engine.Application.RenderStyle;
+import engine.Application.WorkingSpace;
+import engine.Instrumentation.Stage;
+
+/**
+ * Every RenderStyle of a palette worked out on background threads, so
+ * the render loop only ever draws finished images.
+ *
+ * <p> compute() hands one task per style to the executor and returns
+ * right away. Each finished style is published on its own together with
+ * a thumbnail, and the onReady callback is run so
+ * the frame loop can wake up and draw it. Until a style is done its
+ * getters return null.
+ *
+ * <p> Starting a new computation cancels the tasks of the previous one,
+ * anything they still finish lands in a batch nobody looks at anymore.
+ *
+ * <p> Palettes with more than MAX_KEPT_SWATCHES only keep the thumbnails,
+ * a copy of the colors per style would take hundreds of megabytes. Their
+ * colors are worked out again by colors() for one style at a time.
+ */
+
+public final class StylePreviews {
+
+	/**
+	 * Largest palette whose colors are kept for every style, 4 MB each.
+	 */
+	public static final int MAX_KEPT_SWATCHES = 1 << 20;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private final ExecutorService executor;
+	private final Runnable onReady;
+	private final List<Future<?>> pending = new ArrayList<>();
+	private volatile Batch batch;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Construction
+
+	/**
+	 * @param onReady Run on a background thread whenever another style is done
+	 */
+	public StylePreviews(Runnable onReady) {
+		this.onReady = onReady;
+		int threads = Math.max(1, Math.min(RenderStyle.values().length, Runtime.getRuntime().availableProcessors() - 1));
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "StylePreviews");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Computation
+
+	/**
+	 * Starts working out every style of rawColors in the background.
+	 *
+	 * @param thumbnailWidth Width the thumbnails have to fit in
+	 * @param thumbnailHeight Height the thumbnails have to fit in
+	 * @param thumbnailRes Largest swatch size of the thumbnails
+	 * @see PaletteRaster#fit(PaletteBuffer, int, int, int)
+	 */
+	public synchronized void compute(PaletteBuffer rawColors, WorkingSpace workingSpace, int thumbnailWidth,
+			int thumbnailHeight, int thumbnailRes) {
+		cancel();
+		PaletteBuffer snapshot = rawColors.copy();
+		boolean keepColors = snapshot.size() <= MAX_KEPT_SWATCHES;
+		Batch next = new Batch(snapshot, workingSpace);
+		batch = next;
+		for (RenderStyle style : RenderStyle.values()) {
+			pending.add(executor.submit(() -> {
+				long start = Instrumentation.begin(Stage.FINALIZE_COLORS);
+				PaletteBuffer colors = PaletteEngine.finalizeColors(snapshot, style, workingSpace);
+				Instrumentation.record(Stage.FINALIZE_COLORS, start);
+				Preview preview = new Preview(keepColors ? colors : null,
+						PaletteRaster.fit(colors, thumbnailWidth, thumbnailHeight, thumbnailRes));
+				next.previews.set(style.ordinal(), preview);
+				if (batch == next) onReady.run();
+			}));
+		}
+	}
+
+	/**
+	 * Cancels the current computation and drops every finished style.
+	 */
+	public synchronized void clear() {
+		cancel();
+		batch = null;
+	}
+
+	private void cancel() {
+		for (Future<?> future : pending) {
+			future.cancel(false);
+		}
+		pending.clear();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Results
+
+	/**
+	 * Finished colors of the style, or null if it isn't done yet. Worked out
+	 * on the calling thread for palettes too big to keep every style of,
+	 * the last style asked for is kept.
+	 */
+	public PaletteBuffer colors(RenderStyle style) {
+		Batch current = batch;
+		Preview preview = (current == null) ? null : current.previews.get(style.ordinal());
+		if (preview == null) return null;
+		return (preview.colors != null) ? preview.colors : current.colors(style);
+	}
+
+	/**
+	 * Finished thumbnail of the style, or null if it isn't done yet.
+	 */
+	public BufferedImage thumbnail(RenderStyle style) {
+		Preview preview = preview(style);
+		return (preview == null) ? null : preview.thumbnail;
+	}
+
+	private Preview preview(RenderStyle style) {
+		Batch current = batch;
+		return (current == null) ? null : current.previews.get(style.ordinal());
+	}
+
+	/**
+	 * Results of one compute() call.
+	 */
+	private static final class Batch {
+
+		final AtomicReferenceArray<Preview> previews = new AtomicReferenceArray<>(RenderStyle.values().length);
+		final PaletteBuffer rawColors;
+		final WorkingSpace workingSpace;
+		// Last style worked out again by colors()
+		private RenderStyle recentStyle;
+		private PaletteBuffer recentColors;
+
+		Batch(PaletteBuffer rawColors, WorkingSpace workingSpace) {
+			this.rawColors = rawColors;
+			this.workingSpace = workingSpace;
+		}
+
+		synchronized PaletteBuffer colors(RenderStyle style) {
+			if (style != recentStyle) {
+				recentColors = null;
+				long start = Instrumentation.begin(Stage.FINALIZE_COLORS);
+				recentColors = PaletteEngine.finalizeColors(rawColors, style, workingSpace);
+				Instrumentation.record(Stage.FINALIZE_COLORS, start);
+				recentStyle = style;
+			}
+			return recentColors;
+		}
+	}
+
+	private static final class Preview {
+
+		final PaletteBuffer colors;
+		final BufferedImage thumbnail;
+
+		Preview(PaletteBuffer colors, BufferedImage thumbnail) {
+			this.colors = colors;
+			this.thumbnail = thumbnail;
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * Pre-rendered image of the swatch grid so frames where the palette
+ * didn't change are a single drawImage instead of a fillRect per swatch.
+ *
+ * <p> The grid is rasterized into a BufferedImage whenever the revision
+ * it was built from goes stale, and copied into a VolatileImage so it can
+ * live in video memory. If the VolatileImage can't be created or keeps
+ * losing its contents the BufferedImage is drawn instead.
+ */
+
+public final class SwatchGridCache {
+
+	private static final int MAX_RESTORE_ATTEMPTS = 2;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	private BufferedImage buffered;
+	private VolatileImage accelerated;
+	private boolean acceleratedStale = true;
+	private boolean useAccelerated = true;
+	// Whether buffered was handed in and mustn't be drawn over
+	private boolean shared;
+	private long revision = -1;
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Update
+
+	/**
+	 * Whether the cached grid was built from a different revision.
+	 */
+	public boolean isStale(long revision) {
+		return this.revision != revision;
+	}
+
+	/**
+	 * Rebuilds the grid from the colors with each swatch res x res pixels big.
+	 * The first row of values ends up at the bottom.
+	 */
+	public void update(PaletteBuffer colors, int res, long revision) {
+		buffered = PaletteRaster.rasterize(colors, res, shared ? null : buffered);
+		shared = false;
+		acceleratedStale = true;
+		this.revision = revision;
+	}
+
+	/**
+	 * Uses a grid that's already rasterized. It's only ever read, later
+	 * updates rasterize into a new image instead of reusing it.
+	 */
+	public void update(BufferedImage grid, long revision) {
+		buffered = grid;
+		shared = true;
+		acceleratedStale = true;
+		this.revision = revision;
+	}
+
+	/**
+	 * Drops the cached grid, the next isStale() call always returns true.
+	 */
+	public void clear() {
+		buffered = null;
+		shared = false;
+		revision = -1;
+	}
+
+	public int getWidth() {
+		return (buffered == null) ? 0 : buffered.getWidth();
+	}
+
+	public int getHeight() {
+		return (buffered == null) ? 0 : buffered.getHeight();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Render
+
+	/**
+	 * Draws the cached grid with its top left corner at x, y.
+	 */
+	public void draw(Graphics2D g, int x, int y) {
+		if (buffered == null) return;
+		if (useAccelerated) {
+			GraphicsConfiguration gc = g.getDeviceConfiguration();
+			for (int attempt = 0; attempt < MAX_RESTORE_ATTEMPTS; attempt++) {
+				if (!validateAccelerated(gc)) break;
+				g.drawImage(accelerated, x, y, null);
+				if (!accelerated.contentsLost()) return;
+				acceleratedStale = true;
+			}
+		}
+		// Fallback
+		g.drawImage(buffered, x, y, null);
+	}
+
+	/**
+	 * Makes sure the VolatileImage exists, fits the grid and holds its
+	 * current contents. Returns false if there is no VolatileImage to draw.
+	 */
+	private boolean validateAccelerated(GraphicsConfiguration gc) {
+		int width = buffered.getWidth();
+		int height = buffered.getHeight();
+		if (accelerated == null || accelerated.getWidth() != width || accelerated.getHeight() != height) {
+			createAccelerated(gc, width, height);
+		} else {
+			int status = accelerated.validate(gc);
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				createAccelerated(gc, width, height);
+			} else if (status == VolatileImage.IMAGE_RESTORED) {
+				acceleratedStale = true;
+			}
+		}
+		if (accelerated == null) {
+			useAccelerated = false;
+			return false;
+		}
+		if (acceleratedStale) {
+			Graphics2D vg = accelerated.createGraphics();
+			vg.drawImage(buffered, 0, 0, null);
+			vg.dispose();
+			acceleratedStale = false;
+		}
+		return true;
+	}
+
+	private void createAccelerated(GraphicsConfiguration gc, int width, int height) {
+		if (accelerated != null) {
+			accelerated.flush();
+		}
+		accelerated = (gc == null) ? null : gc.createCompatibleVolatileImage(width, height);
+		acceleratedStale = true;
+	}
+
+}
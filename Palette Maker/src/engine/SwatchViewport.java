@@ -0,0 +1,300 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Shows a palette of any size in an area of the screen, only ever drawing
+ * the swatches that are visible.
+ *
+ * <p> A palette that fits at its natural swatch size is drawn where the grid
+ * always was. Bigger ones are shrunk along each axis until they fit the
+ * area, and can be zoomed into by powers of two and panned around.
+ *
+ * <p> The palette's own array is wrapped as the most detailed level, when
+ * several swatches share a pixel one of the mip levels is drawn instead,
+ * the palette averaged down by powers of two along each axis. Levels are
+ * built the first time they're needed after a change, from the smallest
+ * more detailed level there already is. Only the visible
+ * part of a level is scaled into a view image, and only when the palette
+ * or the view moved, the frames in between draw the view through a
+ * SwatchGridCache. Either way a frame costs about the same however big
+ * the palette is.
+ */
+
+public final class SwatchViewport {
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Variables
+
+	// Mip levels by hue level, then value level. Level x, y has every
+	// 2^x by 2^y block of swatches averaged down to one
+	private PaletteBuffer[][] levels;
+	private BufferedImage[][] images;
+	private int hueCount, valueCount;
+	private long revision = -1;
+	// Bumped by every update, the view has to be rendered again
+	private long updates;
+
+	// Powers of two zoomed in from the fitted size
+	private int zoom;
+	// Swatch in the middle of the view, as drawn with the first row at the bottom
+	private double centerHue = Double.NaN, centerValue = Double.NaN;
+	// Swatches visible at the last draw, pans go by a quarter of them
+	private double visibleHues = 1, visibleValues = 1;
+	private boolean fitted;
+
+	// The visible part of the palette, rendered again when what it was
+	// rendered from changes: update, scales, origin and bounds
+	private final SwatchGridCache view = new SwatchGridCache();
+	private BufferedImage viewImage;
+	private long viewRevision;
+	private double[] viewState = new double[9];
+	private double[] nextViewState = new double[9];
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Update
+
+	/**
+	 * Whether the palette shown was from a different revision.
+	 */
+	public boolean isStale(long revision) {
+		return this.revision != revision;
+	}
+
+	/**
+	 * Shows the colors, which are only read from here on. The zoom stays, the
+	 * view only moves back to the middle if the palette changed size.
+	 */
+	public void update(PaletteBuffer colors, long revision) {
+		if (colors.getHueCount() != hueCount || colors.getValueCount() != valueCount) {
+			centerHue = centerValue = Double.NaN;
+		}
+		hueCount = colors.getHueCount();
+		valueCount = colors.getValueCount();
+		levels = new PaletteBuffer[levelCount(hueCount)][levelCount(valueCount)];
+		images = new BufferedImage[levels.length][levels[0].length];
+		levels[0][0] = colors;
+		images[0][0] = PaletteRaster.wrap(colors);
+		this.revision = revision;
+		updates++;
+	}
+
+	/**
+	 * Shows nothing until the next update, the next isStale() call always returns true.
+	 */
+	public void clear() {
+		levels = null;
+		images = null;
+		revision = -1;
+	}
+
+	public boolean isEmpty() {
+		return levels == null;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// View
+
+	/**
+	 * Zooms in by steps powers of two, or out for negative steps. Never
+	 * further out than the fitted size.
+	 */
+	public void zoom(int steps) {
+		zoom = Math.max(0, zoom + steps);
+	}
+
+	/**
+	 * Moves the view by a quarter of what's visible along each axis.
+	 */
+	public void pan(int hueSteps, int valueSteps) {
+		if (Double.isNaN(centerHue)) {
+			centerHue = hueCount / 2.0;
+			centerValue = valueCount / 2.0;
+		}
+		centerHue += hueSteps * visibleHues / 4;
+		centerValue += valueSteps * visibleValues / 4;
+	}
+
+	/**
+	 * Back to the whole palette at the fitted size.
+	 */
+	public void resetView() {
+		zoom = 0;
+		centerHue = centerValue = Double.NaN;
+	}
+
+	public int getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Whether the last draw had to shrink, zoom or pan the palette instead
+	 * of drawing it at its natural size.
+	 */
+	public boolean isFitted() {
+		return fitted && !isEmpty();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Render
+
+	/**
+	 * Draws the palette inside the area. If it fits at swatches of res
+	 * pixels and isn't zoomed it's centered on centerX, centerY like the grid
+	 * always was, otherwise it's shrunk to fit the area or zoomed and panned.
+	 */
+	public void draw(Graphics2D g, Rectangle area, int centerX, int centerY, int res) {
+		if (isEmpty() || area.width <= 0 || area.height <= 0) return;
+		int naturalWidth = hueCount * res;
+		int naturalHeight = valueCount * res;
+		int naturalX = centerX - naturalWidth / 2;
+		int naturalY = centerY + naturalHeight / 2 - naturalHeight;
+		fitted = zoom > 0 || !area.contains(naturalX, naturalY, naturalWidth, naturalHeight);
+
+		// Pixels per swatch along each axis
+		double scaleX = res, scaleY = res;
+		double originX = naturalX, originY = naturalY;
+		if (fitted) {
+			scaleX = Math.min(res, (double) area.width / hueCount);
+			scaleY = Math.min(res, (double) area.height / valueCount);
+			// Zooming in stops once the smaller swatch side is as big as the area
+			while (zoom > 0 && Math.min(scaleX, scaleY) * (1L << zoom) > Math.max(area.width, area.height)) {
+				zoom--;
+			}
+			scaleX *= 1L << zoom;
+			scaleY *= 1L << zoom;
+			visibleHues = Math.min(hueCount, area.width / scaleX);
+			visibleValues = Math.min(valueCount, area.height / scaleY);
+			if (Double.isNaN(centerHue)) {
+				centerHue = hueCount / 2.0;
+				centerValue = valueCount / 2.0;
+			}
+			centerHue = Math.max(visibleHues / 2, Math.min(hueCount - visibleHues / 2, centerHue));
+			centerValue = Math.max(visibleValues / 2, Math.min(valueCount - visibleValues / 2, centerValue));
+			originX = area.getCenterX() - centerHue * scaleX;
+			originY = area.getCenterY() - centerValue * scaleY;
+		} else {
+			visibleHues = hueCount;
+			visibleValues = valueCount;
+		}
+
+		// Part of the palette that's on screen
+		int left = naturalX, top = naturalY;
+		int right = naturalX + naturalWidth, bottom = naturalY + naturalHeight;
+		if (fitted) {
+			left = (int) Math.max(area.x, Math.floor(originX));
+			top = (int) Math.max(area.y, Math.floor(originY));
+			right = (int) Math.min(area.x + area.width, Math.ceil(originX + hueCount * scaleX));
+			bottom = (int) Math.min(area.y + area.height, Math.ceil(originY + valueCount * scaleY));
+		}
+		if (right <= left || bottom <= top) return;
+
+		double[] state = nextViewState;
+		state[0] = updates;
+		state[1] = scaleX;
+		state[2] = scaleY;
+		state[3] = originX;
+		state[4] = originY;
+		state[5] = left;
+		state[6] = top;
+		state[7] = right;
+		state[8] = bottom;
+		if (!Arrays.equals(state, viewState)) {
+			renderView(left, top, right - left, bottom - top, originX, originY, scaleX, scaleY);
+			view.update(viewImage, ++viewRevision);
+			nextViewState = viewState;
+			viewState = state;
+		}
+		view.draw(g, (int) viewState[5], (int) viewState[6]);
+	}
+
+	/**
+	 * Scales the swatches inside the given screen rectangle from the mip
+	 * level closest to a pixel per swatch into the view image.
+	 */
+	private void renderView(int x, int y, int width, int height, double originX, double originY, double scaleX, double scaleY) {
+		if (viewImage == null || viewImage.getWidth() != width || viewImage.getHeight() != height) {
+			viewImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+		int hueLevel = level(scaleX, hueCount);
+		int valueLevel = level(scaleY, valueCount);
+		int hueBlock = 1 << hueLevel;
+		int valueBlock = 1 << valueLevel;
+		BufferedImage image = image(hueLevel, valueLevel);
+
+		// Visible swatches, rows counted from the top as drawn
+		int firstHue = Math.max(0, (int) Math.floor((x - originX) / scaleX));
+		int lastHue = Math.min(hueCount, (int) Math.ceil((x + width - originX) / scaleX));
+		int firstRow = Math.max(0, (int) Math.floor((y - originY) / scaleY));
+		int lastRow = Math.min(valueCount, (int) Math.ceil((y + height - originY) / scaleY));
+		// The same in level pixels, the buffer has the first row of values at the top
+		int sx1 = firstHue / hueBlock;
+		int sx2 = PaletteRaster.ceilDiv(lastHue, hueBlock);
+		int sy1 = (valueCount - lastRow) / valueBlock;
+		int sy2 = PaletteRaster.ceilDiv(valueCount - firstRow, valueBlock);
+		// Where those level pixels end up, flipped vertically
+		int dx1 = (int) Math.round(originX + sx1 * hueBlock * scaleX) - x;
+		int dx2 = (int) Math.round(originX + Math.min(hueCount, sx2 * hueBlock) * scaleX) - x;
+		int dy1 = (int) Math.round(originY + (valueCount - Math.min(valueCount, sy2 * valueBlock)) * scaleY) - y;
+		int dy2 = (int) Math.round(originY + (valueCount - sy1 * valueBlock) * scaleY) - y;
+
+		Graphics2D vg = viewImage.createGraphics();
+		vg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		vg.drawImage(image, dx1, dy1, dx2, dy2, sx1, sy2, sx2, sy1, null);
+		vg.dispose();
+	}
+
+	/**
+	 * Mip level along an axis that has a pixel or more per averaged swatch.
+	 */
+	private static int level(double scale, int count) {
+		int level = 0;
+		while (scale * (1L << level) < 1 && (1 << level) < count) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Levels along an axis, down to a single swatch.
+	 */
+	private static int levelCount(int count) {
+		int levels = 1;
+		while ((1 << (levels - 1)) < count) {
+			levels++;
+		}
+		return levels;
+	}
+
+	/**
+	 * Image of a mip level, averaged down from the smallest more detailed
+	 * level already built the first time it's asked for.
+	 */
+	private BufferedImage image(int hueLevel, int valueLevel) {
+		if (images[hueLevel][valueLevel] == null) {
+			int fromHue = 0, fromValue = 0;
+			for (int x = 0; x <= hueLevel; x++) {
+				for (int y = 0; y <= valueLevel; y++) {
+					if (levels[x][y] != null && levels[x][y].size() < levels[fromHue][fromValue].size()) {
+						fromHue = x;
+						fromValue = y;
+					}
+				}
+			}
+			PaletteBuffer level = PaletteRaster.downsample(levels[fromHue][fromValue],
+					1 << (hueLevel - fromHue), 1 << (valueLevel - fromValue));
+			levels[hueLevel][valueLevel] = level;
+			images[hueLevel][valueLevel] = PaletteRaster.wrap(level);
+		}
+		return images[hueLevel][valueLevel];
+	}
+
+}
@@ -0,0 +1,141 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Searches of ColorKdTree have to find what a search through every color
+ * would. Palettes repeat channel values a lot, so some are built from few
+ * levels per channel. Ties may pick either color, so distances are compared.
+ */
+
+public class ColorKdTreeTest {
+
+	private static final int[] SIZES = { 1, 2, 3, 17, 500, 20_000 };
+
+	@Test
+	public void nearestMatchesBruteForce() {
+		for (int size : SIZES) {
+			for (int levels : new int[] { 4, 256 }) {
+				int[] colors = randomColors(size, levels, size + levels);
+				ColorKdTree tree = new ColorKdTree(colors);
+				int[] distinct = distinct(colors);
+				Random random = new Random(size);
+				for (int k = 0; k < 2000; k++) {
+					int rgb = random.nextInt() & 0xffffff;
+					int found = tree.color(tree.nearest(PaletteBuffer.red(rgb), PaletteBuffer.green(rgb), PaletteBuffer.blue(rgb)));
+					int best = Integer.MAX_VALUE;
+					for (int color : distinct) {
+						best = Math.min(best, distance(color, rgb));
+					}
+					assertEquals(best, distance(found, rgb), Integer.toHexString(rgb));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void nearestKMatchesBruteForce() {
+		int[] indices = new int[8];
+		int[] distances = new int[8];
+		for (int size : SIZES) {
+			int[] colors = randomColors(size, 16, size);
+			ColorKdTree tree = new ColorKdTree(colors);
+			int[] distinct = distinct(colors);
+			Random random = new Random(size);
+			for (int k = 0; k < 500; k++) {
+				int rgb = random.nextInt() & 0xffffff;
+				int found = tree.nearest(PaletteBuffer.red(rgb), PaletteBuffer.green(rgb), PaletteBuffer.blue(rgb), 8, indices,
+						distances);
+				int[] expected = new int[distinct.length];
+				for (int n = 0; n < distinct.length; n++) {
+					expected[n] = distance(distinct[n], rgb);
+				}
+				Arrays.sort(expected);
+				assertEquals(Math.min(8, expected.length), found);
+				assertArrayEquals(Arrays.copyOf(expected, found), Arrays.copyOf(distances, found), Integer.toHexString(rgb));
+				for (int n = 0; n < found; n++) {
+					assertEquals(distances[n], distance(tree.color(indices[n]), rgb));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void withinMatchesBruteForce() {
+		int[] colors = randomColors(5000, 64, 9);
+		ColorKdTree tree = new ColorKdTree(colors);
+		Random random = new Random(9);
+		for (int k = 0; k < 500; k++) {
+			int[] min = new int[3];
+			int[] max = new int[3];
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = random.nextInt(240);
+				max[axis] = min[axis] + random.nextInt(16);
+			}
+			int bound = random.nextInt(400);
+			int expected = 0;
+			for (int n = 0; n < tree.size(); n++) {
+				if (boxDistance(tree.color(n), min, max) <= bound) expected++;
+			}
+			int[] found = new int[tree.size()];
+			int count = tree.within(min, max, bound, found);
+			assertEquals(expected, count);
+			for (int n = 0; n < count; n++) {
+				assertTrue(boxDistance(tree.color(found[n]), min, max) <= bound);
+			}
+			assertEquals(count, Arrays.stream(found, 0, count).distinct().count());
+			if (expected > 0) {
+				assertEquals(-1, tree.within(min, max, bound, new int[expected - 1]));
+			}
+		}
+	}
+
+	@Test
+	public void dropsDuplicatesAndAlpha() {
+		ColorKdTree tree = new ColorKdTree(new int[] { 0xff102030, 0x00102030, 0x102030, 0x405060 });
+		assertEquals(2, tree.size());
+		assertEquals(0x405060, tree.nearestColor(0x415161));
+	}
+
+	private static int[] distinct(int[] colors) {
+		return Arrays.stream(colors).map(c -> c & 0xffffff).distinct().toArray();
+	}
+
+	private static int boxDistance(int color, int[] min, int[] max) {
+		int distance = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			int v = (color >> (16 - axis * 8)) & 0xff;
+			int d = (v < min[axis]) ? min[axis] - v : (v > max[axis]) ? v - max[axis] : 0;
+			distance += d * d;
+		}
+		return distance;
+	}
+
+	private static int distance(int a, int b) {
+		int dr = PaletteBuffer.red(a) - PaletteBuffer.red(b);
+		int dg = PaletteBuffer.green(a) - PaletteBuffer.green(b);
+		int db = PaletteBuffer.blue(a) - PaletteBuffer.blue(b);
+		return dr * dr + dg * dg + db * db;
+	}
+
+	/**
+	 * Colors with the given amount of levels per channel.
+	 */
+	private static int[] randomColors(int count, int levels, long seed) {
+		Random random = new Random(seed);
+		int step = 256 / levels;
+		int[] colors = new int[count];
+		for (int k = 0; k < count; k++) {
+			colors[k] = PaletteBuffer.pack(random.nextInt(levels) * step, random.nextInt(levels) * step, random.nextInt(levels) * step);
+		}
+		return colors;
+	}
+
+}
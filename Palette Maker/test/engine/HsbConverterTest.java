@@ -0,0 +1,64 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * HsbConverter has to give exactly what Color.HSBtoRGB gives, palettes
+ * exported before it was added must come out the same.
+ */
+
+public class HsbConverterTest {
+
+	private static final int HUE_STEPS = 1024;
+	private static final int CHANNEL_STEPS = 64;
+
+	@Test
+	public void matchesColorOverDenseGrid() {
+		// Hues past 0 and 1 too, the hue offset can push them there
+		for (int h = -HUE_STEPS; h <= 2 * HUE_STEPS; h++) {
+			float hue = (float) h / HUE_STEPS;
+			for (int s = 0; s <= CHANNEL_STEPS; s++) {
+				float saturation = (float) s / CHANNEL_STEPS;
+				for (int b = 0; b <= CHANNEL_STEPS; b++) {
+					float brightness = (float) b / CHANNEL_STEPS;
+					int expected = Color.HSBtoRGB(hue, saturation, brightness);
+					int actual = HsbConverter.toRGB(hue, saturation, brightness);
+					if (expected != actual) {
+						assertEquals(Integer.toHexString(expected), Integer.toHexString(actual),
+								"hue " + hue + " saturation " + saturation + " brightness " + brightness);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void hueTableMatchesColor() {
+		float[] hues = new float[HUE_STEPS];
+		for (int i = 0; i < hues.length; i++) {
+			// Not a multiple of the steps, so the fractions aren't all round
+			hues[i] = (i * 0.6180339f) % 1.0f;
+		}
+		HsbConverter.HueTable table = new HsbConverter.HueTable(hues);
+		assertEquals(hues.length, table.size());
+		for (int i = 0; i < hues.length; i++) {
+			for (int s = 0; s <= CHANNEL_STEPS; s++) {
+				float saturation = (float) s / CHANNEL_STEPS;
+				for (int b = 0; b <= CHANNEL_STEPS; b++) {
+					float brightness = (float) b / CHANNEL_STEPS;
+					int expected = Color.HSBtoRGB(hues[i], saturation, brightness);
+					int actual = HsbConverter.toRGB(table, i, saturation, brightness);
+					if (expected != actual) {
+						assertEquals(Integer.toHexString(expected), Integer.toHexString(actual),
+								"hue " + hues[i] + " saturation " + saturation + " brightness " + brightness);
+					}
+				}
+			}
+		}
+	}
+
+}
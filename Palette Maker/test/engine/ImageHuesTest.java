@@ -0,0 +1,78 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Hues picked from an image are distinct and land on the colors the image has.
+ */
+
+public class ImageHuesTest {
+
+	@Test
+	public void clustersLandOnImageHues() {
+		float[] imageHues = { 0.0f, 0.33f, 0.66f };
+		float[] hues = ImageHues.fromImage(stripes(imageHues)).hues(3);
+		assertEquals(3, hues.length);
+		for (int i = 0; i < hues.length; i++) {
+			// The RGB histogram has 5 bits per channel, hues come out a little off
+			assertEquals(imageHues[i], hues[i], 0.01, "hue " + i);
+		}
+	}
+
+	@Test
+	public void moreHuesThanColorsAreDistinct() {
+		ImageHues image = ImageHues.fromImage(stripes(new float[] { 0.1f, 0.6f }));
+		for (int hueCount = 1; hueCount <= 64; hueCount++) {
+			assertDistinct(image.hues(hueCount));
+		}
+	}
+
+	@Test
+	public void spreadHuesAreDistinctAndSorted() {
+		float[] hues = ImageHues.fromImage(stripes(new float[] { 0.1f, 0.3f, 0.6f })).hues(500);
+		assertEquals(500, hues.length);
+		for (int i = 1; i < hues.length; i++) {
+			assertTrue(hues[i] > hues[i - 1], "hue " + i);
+		}
+	}
+
+	@Test
+	public void grayImageFallsBackToEquidistantHues() {
+		BufferedImage gray = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+		ImageHues image = ImageHues.fromImage(gray);
+		float[] hues = image.hues(4);
+		for (int i = 0; i < hues.length; i++) {
+			assertEquals(i / 4.0f, hues[i]);
+		}
+	}
+
+	private static void assertDistinct(float[] hues) {
+		float[] sorted = hues.clone();
+		Arrays.sort(sorted);
+		for (int i = 1; i < sorted.length; i++) {
+			assertTrue(sorted[i] != sorted[i - 1], hues.length + " hues, duplicate " + sorted[i]);
+		}
+	}
+
+	/**
+	 * Image of equally wide stripes of fully saturated hues.
+	 */
+	private static BufferedImage stripes(float[] hues) {
+		BufferedImage image = new BufferedImage(hues.length * 32, 32, BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < image.getWidth(); x++) {
+			int rgb = Color.HSBtoRGB(hues[x / 32], 1, 1);
+			for (int y = 0; y < image.getHeight(); y++) {
+				image.setRGB(x, y, rgb);
+			}
+		}
+		return image;
+	}
+
+}
@@ -0,0 +1,103 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Keys come out of the InputQueue in order, none are lost, and a parked
+ * consumer is always woken by the next key instead of sleeping out its timeout.
+ */
+
+public class InputQueueTest {
+
+	@Test
+	public void keepsOrderAndCapacity() {
+		InputQueue input = new InputQueue(5);
+		assertEquals(InputQueue.EMPTY, input.poll());
+		for (int k = 0; k < 8; k++) {
+			assertTrue(input.offer(k));
+		}
+		// Rounded up to 8
+		assertFalse(input.offer(8));
+		for (int k = 0; k < 8; k++) {
+			assertEquals(k, input.poll());
+		}
+		assertTrue(input.isEmpty());
+	}
+
+	@Test
+	public void putWaitsForRoom() throws InterruptedException {
+		InputQueue input = new InputQueue(4);
+		int keys = 100_000;
+		Thread producer = new Thread(() -> {
+			for (int k = 0; k < keys; k++) {
+				input.put(k);
+			}
+		});
+		producer.start();
+		for (int k = 0; k < keys; k++) {
+			int key;
+			while ((key = input.poll()) == InputQueue.EMPTY) {
+				input.await(1, TimeUnit.SECONDS);
+			}
+			assertEquals(k, key);
+		}
+		producer.join(10_000);
+		assertFalse(producer.isAlive());
+	}
+
+	@Test
+	public void everyKeyWakesParkedConsumer() throws InterruptedException {
+		InputQueue input = new InputQueue();
+		int rounds = 20_000;
+		Semaphore taken = new Semaphore(0);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread producer = new Thread(() -> {
+			try {
+				for (int k = 0; k < rounds; k++) {
+					input.offer(k);
+					taken.acquire();
+				}
+			} catch (InterruptedException e) {
+				failure.set(e);
+			}
+		});
+		producer.start();
+		for (int k = 0; k < rounds; k++) {
+			// A lost wake up sleeps out the whole timeout and returns false
+			assertTrue(input.await(5, TimeUnit.SECONDS), "round " + k);
+			assertEquals(k, input.poll());
+			taken.release();
+		}
+		producer.join(10_000);
+		assertEquals(null, failure.get());
+	}
+
+	@Test
+	public void wakeReturnsWithoutKey() throws InterruptedException {
+		InputQueue input = new InputQueue();
+		Thread waker = new Thread(() -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				return;
+			}
+			input.wake();
+		});
+		waker.start();
+		long start = System.nanoTime();
+		assertTrue(input.await(5, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+		assertEquals(InputQueue.EMPTY, input.poll());
+		assertFalse(input.await(10, TimeUnit.MILLISECONDS));
+		waker.join();
+	}
+
+}
@@ -0,0 +1,92 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import engine.Instrumentation.Stage;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Stages go into their histograms, and into a Flight Recorder recording when one is running.
+ */
+
+public class InstrumentationTest {
+
+	@Test
+	public void recordsIntoHistogram() {
+		long before = Instrumentation.histogram(Stage.RENDER_CONTROLS).getCount();
+		for (int k = 0; k < 100; k++) {
+			Instrumentation.record(Stage.RENDER_CONTROLS, System.nanoTime() - 1_000_000);
+		}
+		LatencyHistogram histogram = Instrumentation.histogram(Stage.RENDER_CONTROLS);
+		assertEquals(before + 100, histogram.getCount());
+		assertTrue(histogram.percentile(0.5) >= 1_000_000 * 15 / 16, "p50 " + histogram.percentile(0.5));
+		assertTrue(Instrumentation.report().contains("RENDER_CONTROLS"));
+	}
+
+	@Test
+	public void histogramPercentilesAreWithinBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long nanos = 1; nanos <= 10_000; nanos++) {
+			histogram.record(nanos);
+		}
+		assertEquals(10_000, histogram.getCount());
+		assertEquals(10_000, histogram.getMax());
+		assertEquals(5000.5, histogram.getMean(), 1e-9);
+		for (double fraction : new double[] { 0.1, 0.5, 0.9, 0.99 }) {
+			double exact = fraction * 10_000;
+			// Off by at most 1/16 of the value
+			assertEquals(exact, histogram.percentile(fraction), exact / 16, "percentile " + fraction);
+		}
+		LatencyHistogram drained = histogram.drain();
+		assertEquals(10_000, drained.getCount());
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.percentile(0.5));
+	}
+
+	@Test
+	public void stagesAreFlightRecorderEvents() throws Exception {
+		Path file = Files.createTempFile("palette", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("engine.Stage").withThreshold(Duration.ZERO);
+			recording.enable("engine.Export").withThreshold(Duration.ZERO);
+			recording.start();
+			long start = Instrumentation.begin(Stage.FINALIZE_TINTS);
+			Thread.sleep(2);
+			Instrumentation.record(Stage.FINALIZE_TINTS, start);
+			start = Instrumentation.begin(Stage.EXPORT);
+			Thread.sleep(3);
+			Instrumentation.recordExport(start, "palette_7", "png,gpl", 42);
+			recording.stop();
+			recording.dump(file);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			RecordedEvent stage = events.stream().filter(e -> e.getEventType().getName().equals("engine.Stage")
+					&& "FINALIZE_TINTS".equals(e.getString("stage"))).findFirst().orElseThrow();
+			assertTrue(stage.getDuration("latency").toNanos() >= 2_000_000);
+			// The event spans the stage, not just the instant it was recorded
+			assertTrue(stage.getDuration().toNanos() >= 2_000_000);
+			RecordedEvent export = events.stream().filter(e -> e.getEventType().getName().equals("engine.Export"))
+					.findFirst().orElseThrow();
+			assertEquals("palette_7", export.getString("name"));
+			assertEquals("png,gpl", export.getString("formats"));
+			assertEquals(42, export.getDuration("queued").toNanos());
+			assertTrue(export.getDuration().toNanos() >= 3_000_000);
+			RecordedEvent exportStage = events.stream().filter(e -> e.getEventType().getName().equals("engine.Stage")
+					&& "EXPORT".equals(e.getString("stage"))).findFirst().orElseThrow();
+			assertTrue(exportStage.getDuration().toNanos() >= 3_000_000);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import engine.Application.RenderStyle;
+import engine.Application.WorkingSpace;
+
+/**
+ * Palettes as big as Application lets them get have to export without
+ * running out of memory or time, the lookup based formats only up to
+ * their limit.
+ */
+
+public class LargePaletteTest {
+
+	private static final PaletteBuffer COLORS = new PaletteEngine().hueCount(Application.MAX_HUE_COUNT)
+			.valueCount(Application.MAX_VALUE_COUNT).tint(10, 20, 30).renderStyle(RenderStyle.PAIRWISE_GRADIENT).generate();
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void exportsAtMaximumSize() throws IOException {
+		List<PaletteExporter> exporters = new ArrayList<>(PaletteExporters.available(1, 1).values());
+		exporters.add(new PaletteExporters.Remap(remapImage(), 1));
+		exporters.add(new PaletteExporters.Ramp(1024, 1024, 1));
+		List<String> names = new ArrayList<>();
+		for (PaletteExporter exporter : PaletteExporters.supporting(exporters, COLORS.size())) {
+			names.add(exporter.getName());
+		}
+		assertEquals(List.of("png", "gpl", "ase", "hex", "json", "raw", "ramp"), names);
+
+		// The png, one pixel per swatch with the first row of values at the bottom
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		try (ChannelWriter out = new ChannelWriter(Channels.newChannel(png))) {
+			new PaletteExporters.Png(1, 1).write(COLORS, "palette", out);
+		}
+		try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png.toByteArray()))) {
+			assertEquals(COLORS.getHueCount(), reader.getWidth());
+			assertEquals(COLORS.getValueCount(), reader.getHeight());
+			int[] row = new int[reader.getWidth()];
+			for (int y = 0; y < reader.getHeight(); y++) {
+				reader.readRow(row, 0);
+				if (y == 0 || y == reader.getHeight() - 1) {
+					int value = COLORS.getValueCount() - 1 - y;
+					for (int hue = 0; hue < COLORS.getHueCount(); hue++) {
+						assertEquals(COLORS.get(hue, value) & 0xffffff, row[hue] & 0xffffff, "hue " + hue + " value " + value);
+					}
+				}
+			}
+		}
+
+		// Everything else that takes a palette this big
+		assertEquals(3L * COLORS.size(), written(new PaletteExporters.Raw(), COLORS));
+		assertEquals(7L * COLORS.size(), written(new PaletteExporters.Hex(), COLORS));
+		for (PaletteExporter exporter : new PaletteExporter[] { new PaletteExporters.Gpl(), new PaletteExporters.Ase(),
+				new PaletteExporters.Json(), new PaletteExporters.Ramp(1024, 1024, 1) }) {
+			assertTrue(written(exporter, COLORS) > 0, exporter.getName());
+		}
+	}
+
+	@Test
+	public void lookupExportersTakePalettesUpToTheLimit() throws IOException {
+		PaletteBuffer largest = new PaletteEngine().hueCount(256).valueCount(PaletteExporters.MAX_LOOKUP_SWATCHES / 256)
+				.tint(10, 20, 30).renderStyle(RenderStyle.PAIRWISE_GRADIENT).generate();
+		PaletteBuffer tooLarge = new PaletteEngine().hueCount(257).valueCount(PaletteExporters.MAX_LOOKUP_SWATCHES / 256)
+				.generate();
+		List<PaletteExporter> lookups = List.of(new PaletteExporters.Cube(PaletteExporters.DEFAULT_LUT_SIZE, PaletteLut.Mode.NEAREST),
+				new PaletteExporters.LutStrip(PaletteExporters.DEFAULT_LUT_SIZE, PaletteLut.Mode.BLEND, 1),
+				new PaletteExporters.Remap(remapImage(), 1));
+		assertEquals(lookups, PaletteExporters.supporting(lookups, largest.size()));
+		assertEquals(List.of(), PaletteExporters.supporting(lookups, tooLarge.size()));
+		for (PaletteExporter exporter : lookups) {
+			assertTrue(written(exporter, largest) > 0, exporter.getName());
+			assertThrows(IllegalArgumentException.class, () -> written(exporter, tooLarge), exporter.getName());
+		}
+	}
+
+	@Test
+	public void previewsKeepOnlyThumbnailsOfLargePalettes() throws InterruptedException {
+		int styles = RenderStyle.values().length;
+		CountDownLatch ready = new CountDownLatch(styles);
+		StylePreviews previews = new StylePreviews(ready::countDown);
+		previews.compute(COLORS, WorkingSpace.HSB, 200, 100, 8);
+		assertTrue(ready.await(5, TimeUnit.MINUTES));
+		for (RenderStyle style : new RenderStyle[] { RenderStyle.BASIC, RenderStyle.PAIRWISE_GRADIENT_DEGREE_3 }) {
+			assertTrue(previews.thumbnail(style).getWidth() <= 200);
+			PaletteBuffer colors = previews.colors(style);
+			assertArrayEquals(PaletteEngine.finalizeColors(COLORS, style, WorkingSpace.HSB).array(), colors.array(), style.name());
+			assertSame(colors, previews.colors(style));
+		}
+		previews.clear();
+	}
+
+	/**
+	 * Small noisy image for the remap export.
+	 */
+	private Path remapImage() throws IOException {
+		BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(3);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+		Path file = directory.resolve("remap.png");
+		if (!Files.exists(file)) ImageIO.write(image, "png", file.toFile());
+		return file;
+	}
+
+	/**
+	 * Bytes the exporter writes for the colors.
+	 */
+	private static long written(PaletteExporter exporter, PaletteBuffer colors) throws IOException {
+		CountingChannel channel = new CountingChannel();
+		try (ChannelWriter out = new ChannelWriter(channel)) {
+			exporter.write(colors, "palette", out);
+		}
+		return channel.count;
+	}
+
+	/**
+	 * Counts the bytes written to it and drops them.
+	 */
+	private static final class CountingChannel implements WritableByteChannel {
+
+		long count;
+
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			count += n;
+			src.position(src.limit());
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
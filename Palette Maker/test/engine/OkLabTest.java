@@ -0,0 +1,119 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The table driven OkLab conversion has to agree with the published
+ * reference values and with a plain double precision conversion, and every
+ * sRGB color has to come back as itself.
+ */
+
+public class OkLabTest {
+
+	@Test
+	public void roundTripsEverySrgbColor() {
+		float[] lab = new float[3];
+		for (int rgb = 0; rgb <= 0xffffff; rgb++) {
+			OkLab.fromRGB(rgb, lab, 0);
+			int back = OkLab.toRGB(lab[0], lab[1], lab[2]) & 0xffffff;
+			if (back != rgb) {
+				assertEquals(Integer.toHexString(rgb), Integer.toHexString(back));
+			}
+		}
+	}
+
+	@Test
+	public void matchesReferenceValues() {
+		// From the OKLab definition, for the sRGB primaries and white
+		checkLab(0xffffff, 1.0, 0.0, 0.0);
+		checkLab(0xff0000, 0.627955, 0.224863, 0.125846);
+		checkLab(0x00ff00, 0.866440, -0.233888, 0.179498);
+		checkLab(0x0000ff, 0.452014, -0.032457, -0.311528);
+		checkLab(0x000000, 0.0, 0.0, 0.0);
+	}
+
+	@Test
+	public void matchesDoublePrecisionAcrossCube() {
+		for (int r = 0; r < 256; r += 3) {
+			for (int g = 0; g < 256; g += 3) {
+				for (int b = 0; b < 256; b += 3) {
+					int rgb = PaletteBuffer.pack(r, g, b);
+					double[] expected = reference(rgb);
+					checkLab(rgb, expected[0], expected[1], expected[2]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void cbrtWithinError() {
+		for (double x = 1e-30; x <= 1.0; x *= 1.001) {
+			float expected = (float) Math.cbrt(x);
+			float actual = OkLab.cbrt((float) x);
+			assertTrue(Math.abs(actual - expected) <= OkLab.CBRT_ERROR * expected, "cbrt " + x);
+		}
+		assertEquals(0.0f, OkLab.cbrt(0.0f));
+		assertEquals(-OkLab.cbrt(0.3f), OkLab.cbrt(-0.3f));
+	}
+
+	@Test
+	public void transferTablesRoundTrip() {
+		for (int c = 0; c < 256; c++) {
+			assertEquals(c, OkLab.toSrgb(OkLab.toLinear(c)));
+			assertEquals(c, (int) Math.round(encode(OkLab.toLinear(c)) * 255.0));
+		}
+		assertEquals(0, OkLab.toSrgb(-0.5f));
+		assertEquals(0, OkLab.toSrgb(Float.NaN));
+		assertEquals(255, OkLab.toSrgb(1.5f));
+	}
+
+	@Test
+	public void outOfGamutKeepsLightness() {
+		float[] lab = new float[3];
+		for (float hue = 0.0f; hue < 1.0f; hue += 1.0f / 64) {
+			int rgb = OkLab.fromLCh(0.7f, 0.5f, hue);
+			OkLab.fromRGB(rgb, lab, 0);
+			assertEquals(0.7f, lab[0], 0.01f, "hue " + hue);
+			// Only the chroma is lowered, the hue stays
+			double angle = Math.atan2(lab[2], lab[1]) / (2 * Math.PI);
+			double turn = Math.abs(angle - hue) % 1.0;
+			assertTrue(Math.min(turn, 1.0 - turn) < 0.02, "hue " + hue + " came out as " + angle);
+		}
+	}
+
+	private static void checkLab(int rgb, double lightness, double a, double b) {
+		float[] lab = new float[3];
+		OkLab.fromRGB(rgb, lab, 0);
+		String color = Integer.toHexString(rgb);
+		assertEquals(lightness, lab[0], 1e-5, color + " L");
+		assertEquals(a, lab[1], 1e-5, color + " a");
+		assertEquals(b, lab[2], 1e-5, color + " b");
+	}
+
+	/**
+	 * OKLab straight from the definition, in doubles.
+	 */
+	private static double[] reference(int rgb) {
+		double r = decode(PaletteBuffer.red(rgb) / 255.0);
+		double g = decode(PaletteBuffer.green(rgb) / 255.0);
+		double b = decode(PaletteBuffer.blue(rgb) / 255.0);
+		double l = Math.cbrt(0.4122214708 * r + 0.5363325363 * g + 0.0514459929 * b);
+		double m = Math.cbrt(0.2119034982 * r + 0.6806995451 * g + 0.1073969566 * b);
+		double s = Math.cbrt(0.0883024619 * r + 0.2817188376 * g + 0.6299787005 * b);
+		return new double[] { 0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s,
+				1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s,
+				0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s };
+	}
+
+	private static double decode(double encoded) {
+		return (encoded <= 0.04045) ? encoded / 12.92 : Math.pow((encoded + 0.055) / 1.055, 2.4);
+	}
+
+	private static double encode(double linear) {
+		return (linear <= 0.0031308) ? linear * 12.92 : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+	}
+
+}
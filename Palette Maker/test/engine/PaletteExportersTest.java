@@ -0,0 +1,130 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The png based exporters keep one PalettePngWriter for the whole session,
+ * an export that fails must leave it ready for the next one.
+ */
+
+public class PaletteExportersTest {
+
+	private static final PaletteBuffer COLORS = new PaletteEngine().hueCount(8).valueCount(5).tint(10, 20, 30)
+			.renderStyle(Application.RenderStyle.PAIRWISE_GRADIENT).generate();
+
+	@Test
+	public void pngRecoversFromFailedExport() throws IOException {
+		checkRecovers(new PaletteExporters.Png(64, 0), 8 * 64, 5 * 64);
+	}
+
+	@Test
+	public void lutStripRecoversFromFailedExport() throws IOException {
+		checkRecovers(new PaletteExporters.LutStrip(33, PaletteLut.Mode.NEAREST, 0), 33 * 33, 33);
+	}
+
+	@Test
+	public void rampRecoversFromFailedExport() throws IOException {
+		checkRecovers(new PaletteExporters.Ramp(300, 200, 0), 300, 200);
+	}
+
+	@Test
+	public void rampHitsSwatchCenters() throws IOException {
+		int res = 9;
+		byte[] png = export(new PaletteExporters.Ramp(8 * res, 5 * res, 6));
+		try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png))) {
+			int[] row = new int[reader.getWidth()];
+			for (int y = 0; y < reader.getHeight(); y++) {
+				reader.readRow(row, 0);
+				if (y % res != res / 2) continue;
+				// First row of values at the bottom
+				int value = 4 - y / res;
+				for (int hue = 0; hue < 8; hue++) {
+					assertEquals(Integer.toHexString(COLORS.get(hue, value) & 0xffffff),
+							Integer.toHexString(row[hue * res + res / 2] & 0xffffff), "hue " + hue + " value " + value);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rampSizes() {
+		PaletteExporters.Ramp.parse("4096", 9);
+		PaletteExporters.Ramp.parse("16384x1024", 9);
+		assertThrows(IllegalArgumentException.class, () -> PaletteExporters.Ramp.parse("big", 9));
+		assertThrows(IllegalArgumentException.class, () -> PaletteExporters.Ramp.parse("0x10", 9));
+		assertThrows(IllegalArgumentException.class, () -> PaletteExporters.Ramp.parse("1x2x3", 9));
+	}
+
+	/**
+	 * Fails the exporter partway through its image data, then checks the
+	 * next export is a whole image again.
+	 */
+	private static void checkRecovers(PaletteExporter exporter, int width, int height) throws IOException {
+		assertThrows(IOException.class, () -> {
+			try (ChannelWriter out = new ChannelWriter(new FailingChannel(200), 64)) {
+				exporter.write(COLORS, "palette", out);
+			}
+		});
+		byte[] first = export(exporter);
+		byte[] second = export(exporter);
+		assertArrayEquals(first, second);
+		try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(first))) {
+			assertEquals(width, reader.getWidth());
+			assertEquals(height, reader.getHeight());
+			int[] row = new int[width];
+			for (int y = 0; y < height; y++) {
+				reader.readRow(row, 0);
+			}
+		}
+	}
+
+	private static byte[] export(PaletteExporter exporter) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ChannelWriter out = new ChannelWriter(Channels.newChannel(bytes))) {
+			exporter.write(COLORS, "palette", out);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Takes some bytes and then fails like a full disk.
+	 */
+	private static final class FailingChannel implements WritableByteChannel {
+
+		private int room;
+
+		FailingChannel(int room) {
+			this.room = room;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			if (src.remaining() > room) throw new IOException("No space left on device");
+			room -= src.remaining();
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.Color;
+
+import org.junit.jupiter.api.Test;
+
+import engine.Application.HueStyle;
+import engine.Application.RenderStyle;
+import engine.Application.WorkingSpace;
+
+/**
+ * The pipeline and the render styles have to give exactly the colors the
+ * original Application did, which are copied here as the baseline, and a
+ * change has to redo only the stages after it.
+ */
+
+public class PalettePipelineTest {
+
+	private static final int[] HUE_COUNTS = { 1, 2, 5, 8, 28 };
+	private static final float[] ADJUSTMENTS = { 0.1f, 0.5f, 1.0f };
+	private static final double[][] TINTS = { { 0, 0, 0 }, { 10, 20, 30 }, { 100, 0, 255 } };
+	private static final float[] HUE_OFFSETS = { 0.0f, 0.37f };
+
+	@Test
+	public void matchesBaseline() {
+		// One pipeline for everything, so stale stages would show up too
+		PalettePipeline pipeline = new PalettePipeline().workingSpace(WorkingSpace.HSB);
+		for (int valueCount = 3; valueCount <= 8; valueCount++) {
+			float[] valueIDs = PaletteEngine.deriveValueIds(valueCount);
+			assertArrayEquals(baselineValueIds(valueCount), valueIDs);
+			for (HueStyle hueStyle : new HueStyle[] { HueStyle.LINEAR, HueStyle.RADIAL }) {
+				for (int hueCount : HUE_COUNTS) {
+					for (float hueOffset : HUE_OFFSETS) {
+						float[] hues = PaletteEngine.deriveHues(hueStyle, hueCount, hueOffset);
+						for (float saturation : ADJUSTMENTS) {
+							for (float brightness : ADJUSTMENTS) {
+								for (double[] tint : TINTS) {
+									Color[][] expected = baselineTints(hues, valueIDs, saturation, brightness, tint);
+									PaletteBuffer tinted = pipeline.hues(hues).valueIDs(valueIDs).saturation(saturation)
+											.brightness(brightness).tint(tint[0], tint[1], tint[2]).tinted();
+									String palette = hueStyle + " " + hueCount + "x" + valueCount + " offset " + hueOffset
+											+ " s " + saturation + " b " + brightness + " tint " + tint[0] + "," + tint[1] + "," + tint[2];
+									assertColors(expected, tinted, palette);
+									for (RenderStyle style : RenderStyle.values()) {
+										assertColors(baselineStyle(expected, style),
+												PaletteEngine.finalizeColors(tinted, style, WorkingSpace.HSB), palette + " " + style);
+									}
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void recomputesOnlyDownstreamStages() {
+		float[] hues = PaletteEngine.deriveHues(HueStyle.LINEAR, 8, 0.0f);
+		float[] valueIDs = PaletteEngine.deriveValueIds(5);
+		PalettePipeline pipeline = new PalettePipeline().hues(hues).valueIDs(valueIDs).saturation(0.8f).brightness(0.9f);
+		pipeline.tinted();
+		PaletteBuffer colors = pipeline.colors();
+		long computed = pipeline.computations();
+
+		// Nothing changed, or set to what it already was
+		pipeline.hues(hues.clone()).valueIDs(valueIDs.clone()).saturation(0.8f).tint(0, 0, 0).tinted();
+		assertEquals(computed, pipeline.computations());
+
+		// Tint: only the tinted stage
+		pipeline.tint(10, 20, 30).tinted();
+		assertEquals(computed + 1, pipeline.computations());
+		assertSame(colors, pipeline.colors());
+		computed = pipeline.computations();
+
+		// Hues: hue basis, colors and tinted, not the value rows
+		pipeline.hues(PaletteEngine.deriveHues(HueStyle.LINEAR, 8, 0.1f)).tinted();
+		assertEquals(computed + 3, pipeline.computations());
+		computed = pipeline.computations();
+
+		// Saturation: value rows, colors and tinted, not the hue basis
+		pipeline.saturation(0.5f).tinted();
+		assertEquals(computed + 3, pipeline.computations());
+		computed = pipeline.computations();
+
+		// Working space: everything
+		pipeline.workingSpace(WorkingSpace.OKLAB).tinted();
+		assertEquals(computed + 4, pipeline.computations());
+		computed = pipeline.computations();
+
+		// Stages are only worked out when asked for
+		pipeline.brightness(0.3f).tint(1, 2, 3);
+		assertEquals(computed, pipeline.computations());
+		pipeline.colors();
+		assertEquals(computed + 2, pipeline.computations());
+	}
+
+	private static void assertColors(Color[][] expected, PaletteBuffer actual, String palette) {
+		assertEquals(expected.length, actual.getValueCount(), palette);
+		assertEquals(expected[0].length, actual.getHueCount(), palette);
+		for (int j = 0; j < expected.length; j++) {
+			for (int i = 0; i < expected[j].length; i++) {
+				assertEquals(Integer.toHexString(expected[j][i].getRGB() & 0xffffff), Integer.toHexString(actual.get(i, j) & 0xffffff),
+						palette + " hue " + i + " value " + j);
+			}
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//
+	// Baseline, as the original Application worked it out with java.awt.Color
+
+	private static float[] baselineValueIds(int selectionVal) {
+		float[] values = new float[selectionVal];
+		float valueStep = 1.0f / ((float) selectionVal - 1);
+		for (int i = 0; i < selectionVal; i++) {
+			values[i] = valueStep * i;
+			values[i] *= 2;
+		}
+		return values;
+	}
+
+	private static Color[][] baselineTints(float[] hues, float[] valueIDs, float saturationAdjustment,
+			float brightnessAdjustment, double[] tint) {
+		Color[][] rawColors = new Color[valueIDs.length][hues.length];
+		for (int j = 0; j < valueIDs.length; j++) {
+			for (int i = 0; i < hues.length; i++) {
+				Color c;
+				if (valueIDs[j] > 1.0f) {
+					c = Color.getHSBColor(hues[i], (2.0f - valueIDs[j]) * saturationAdjustment, 1.0f * brightnessAdjustment);
+				} else {
+					c = Color.getHSBColor(hues[i], 1.0f * saturationAdjustment, valueIDs[j] * brightnessAdjustment);
+				}
+				double redRatio = tint[0] / 100.0;
+				double greenRatio = tint[1] / 100.0;
+				double blueRatio = tint[2] / 100.0;
+				int deltaRed = (int) (redRatio * 255);
+				int deltaGreen = (int) (greenRatio * 255);
+				int deltaBlue = (int) (blueRatio * 255);
+				// Every channel is weighted by the red ratio, like it always was
+				int newRed = Math.max(0, Math.min(255, deltaRed + (int) (c.getRed() * (1.0 - redRatio))));
+				int newGreen = Math.max(0, Math.min(255, deltaGreen + (int) (c.getGreen() * (1.0 - redRatio))));
+				int newBlue = Math.max(0, Math.min(255, deltaBlue + (int) (c.getBlue() * (1.0 - redRatio))));
+				rawColors[j][i] = new Color(newRed, newGreen, newBlue);
+			}
+		}
+		return rawColors;
+	}
+
+	private static Color[][] baselineStyle(Color[][] rawColors, RenderStyle renderStyle) {
+		int valueCount = rawColors.length;
+		int hueCount = rawColors[0].length;
+		Color[][] finalColors = new Color[valueCount][hueCount];
+		int shift;
+		boolean inverse = false;
+		switch (renderStyle) {
+		case BASIC:
+			for (int j = 0; j < valueCount; j++) {
+				finalColors[j] = rawColors[j].clone();
+			}
+			return finalColors;
+		case INVERSE_PAIRWISE_GRADIENT:
+			inverse = true;
+			shift = 1;
+			break;
+		case PAIRWISE_GRADIENT_DEGREE_2:
+			shift = 2;
+			break;
+		case PAIRWISE_GRADIENT_DEGREE_3:
+			shift = 3;
+			break;
+		case PAIRWISE_GRADIENT_DEGREE_4:
+			shift = 4;
+			break;
+		default:
+			shift = 1;
+			break;
+		}
+		double gradientStep = 1.0 / valueCount;
+		for (int j = 0; j < valueCount; j++) {
+			for (int i = 0; i < hueCount; i++) {
+				// Wrapped one step at a time like the original, the same as modulo
+				int next = i;
+				for (int k = 0; k < shift; k++) {
+					next = (next == hueCount - 1) ? 0 : next + 1;
+				}
+				Color currentColor = rawColors[j][i];
+				Color nextColor = rawColors[j][next];
+				double gradient = gradientStep * j + gradientStep / 2.0;
+				double invGradient = 1 - gradient;
+				if (inverse) {
+					double swap = gradient;
+					gradient = invGradient;
+					invGradient = swap;
+				}
+				int wr = (int) ((double) (currentColor.getRed() * gradient) + (double) (nextColor.getRed() * invGradient));
+				int wg = (int) ((double) (currentColor.getGreen() * gradient) + (double) (nextColor.getGreen() * invGradient));
+				int wb = (int) ((double) (currentColor.getBlue() * gradient) + (double) (nextColor.getBlue() * invGradient));
+				finalColors[j][i] = new Color(wr, wg, wb);
+			}
+		}
+		return finalColors;
+	}
+
+}
@@ -0,0 +1,117 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Images from PalettePngWriter have to decode with ImageIO to exactly the
+ * pixels of PaletteRaster.rasterize, indexed or truecolor.
+ */
+
+public class PalettePngWriterTest {
+
+	@Test
+	public void indexedPaletteDecodesToRaster() throws IOException {
+		PaletteBuffer colors = new PaletteEngine().hueCount(8).valueCount(5).tint(10, 20, 30)
+				.renderStyle(Application.RenderStyle.PAIRWISE_GRADIENT).generate();
+		assertNotNull(PalettePngWriter.indexPalette(colors.array()));
+		checkDecodes(colors, 16);
+		checkDecodes(colors, 1);
+	}
+
+	@Test
+	public void truecolorPaletteDecodesToRaster() throws IOException {
+		PaletteBuffer colors = random(40, 30, 1);
+		assertNull(PalettePngWriter.indexPalette(colors.array()));
+		checkDecodes(colors, 3);
+	}
+
+	@Test
+	public void writerRecoversFromFailedImage() throws IOException {
+		PalettePngWriter pngWriter = new PalettePngWriter();
+		PaletteBuffer colors = random(64, 64, 2);
+		assertThrows(IOException.class, () -> pngWriter.write(colors, 8, new FailingStream(500)));
+		// Begun by hand and never finished
+		pngWriter.beginTruecolor(new ByteArrayOutputStream(), 4, 4);
+		assertThrows(IllegalStateException.class, () -> pngWriter.beginTruecolor(new ByteArrayOutputStream(), 4, 4));
+		pngWriter.abort();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		pngWriter.write(colors, 2, out);
+		assertPixels(PaletteRaster.rasterize(colors, 2), ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+		pngWriter.close();
+	}
+
+	@Test
+	public void endWithMissingRowsLeavesWriterReady() throws IOException {
+		PalettePngWriter pngWriter = new PalettePngWriter();
+		pngWriter.beginTruecolor(new ByteArrayOutputStream(), 4, 4);
+		pngWriter.writeRgbRow(new int[4], 0);
+		assertThrows(IllegalStateException.class, pngWriter::end);
+		pngWriter.beginTruecolor(new ByteArrayOutputStream(), 4, 1);
+		pngWriter.writeRgbRow(new int[4], 0);
+		pngWriter.end();
+		pngWriter.close();
+	}
+
+	private static void checkDecodes(PaletteBuffer colors, int res) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PalettePngWriter pngWriter = new PalettePngWriter();
+		pngWriter.write(colors, res, out);
+		pngWriter.close();
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+		assertPixels(PaletteRaster.rasterize(colors, res), decoded);
+	}
+
+	static void assertPixels(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals(Integer.toHexString(expected.getRGB(x, y) & 0xffffff),
+						Integer.toHexString(actual.getRGB(x, y) & 0xffffff), "pixel " + x + ", " + y);
+			}
+		}
+	}
+
+	static PaletteBuffer random(int hueCount, int valueCount, long seed) {
+		PaletteBuffer colors = new PaletteBuffer(hueCount, valueCount);
+		Random random = new Random(seed);
+		int[] argb = colors.array();
+		for (int k = 0; k < argb.length; k++) {
+			argb[k] = 0xff000000 | random.nextInt();
+		}
+		return colors;
+	}
+
+	/**
+	 * Takes some bytes and then fails like a full disk.
+	 */
+	private static final class FailingStream extends OutputStream {
+
+		private int room;
+
+		FailingStream(int room) {
+			this.room = room;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (room-- <= 0) throw new IOException("No space left on device");
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The cell lookup of PaletteQuantizer has to find a color as close as a
+ * search through the whole palette would. Ties may pick either color, so
+ * distances are compared rather than indices.
+ */
+
+public class PaletteQuantizerTest {
+
+	@Test
+	public void nearestIndexMatchesBruteForce() {
+		for (int size : new int[] { 1, 2, 7, 40, 256, 1000 }) {
+			int[] colors = randomColors(size, size);
+			PaletteQuantizer quantizer = new PaletteQuantizer(colors);
+			int[] palette = quantizer.getPalette();
+			// Every fifth level of each channel, 0 and 255 included
+			for (int r = 0; r < 256; r += 5) {
+				for (int g = 0; g < 256; g += 5) {
+					for (int b = 0; b < 256; b += 5) {
+						checkNearest(quantizer, palette, (r << 16) | (g << 8) | b);
+					}
+				}
+			}
+			Random random = new Random(size);
+			for (int k = 0; k < 100_000; k++) {
+				checkNearest(quantizer, palette, random.nextInt() & 0xffffff);
+			}
+		}
+	}
+
+	@Test
+	public void denseCellsSearchTheTree() {
+		PaletteBuffer colors = new PaletteEngine().hueCount(256).valueCount(64).tint(10, 20, 30)
+				.renderStyle(Application.RenderStyle.PAIRWISE_GRADIENT).generate();
+		PaletteQuantizer quantizer = new PaletteQuantizer(colors);
+		int[] palette = quantizer.getPalette();
+		// Some cells keep their candidates and some are too crowded
+		assertTrue(quantizer.treeCells() > 0);
+		assertTrue(quantizer.treeCells() < 32 * 32 * 32);
+		Random random = new Random(7);
+		for (int k = 0; k < 2000; k++) {
+			checkNearest(quantizer, palette, random.nextInt() & 0xffffff);
+		}
+		for (int k = 0; k < 2000; k++) {
+			// Right next to the palette, where the candidates are the densest
+			int color = colors.array()[random.nextInt(colors.size())];
+			checkNearest(quantizer, palette, color ^ random.nextInt(4) ^ (random.nextInt(4) << 8) ^ (random.nextInt(4) << 16));
+		}
+	}
+
+	@Test
+	public void readsHexPalettes(@TempDir Path directory) throws IOException {
+		Locale locale = Locale.getDefault();
+		Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+		try {
+			Path file = directory.resolve("PALETTE.HEX");
+			Files.write(file, List.of("#ff0000", "00ff00", "", "  0000FF  "));
+			int[] palette = PaletteQuantizer.fromFile(file).getPalette();
+			Arrays.sort(palette);
+			assertArrayEquals(new int[] { 0x0000ff, 0x00ff00, 0xff0000 }, palette);
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void nearestIndexOfPaletteColors() {
+		PaletteBuffer colors = new PaletteEngine().hueCount(28).valueCount(8)
+				.renderStyle(Application.RenderStyle.PAIRWISE_GRADIENT).generate();
+		PaletteQuantizer quantizer = new PaletteQuantizer(colors);
+		int[] palette = quantizer.getPalette();
+		for (int color : colors.array()) {
+			assertEquals(color & 0xffffff, palette[quantizer.nearestIndex(color)] & 0xffffff);
+		}
+	}
+
+	@Test
+	public void quantizesStreamedImage() throws IOException {
+		int[] colors = randomColors(64, 5);
+		PaletteQuantizer quantizer = new PaletteQuantizer(colors).parallelism(3);
+		int[] palette = quantizer.getPalette();
+		// Taller than a band, so several bands are remapped
+		BufferedImage image = new BufferedImage(77, PaletteQuantizer.BAND_HEIGHT * 2 + 13, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(6);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+		ByteArrayOutputStream in = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", in);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		quantizer.quantize(new ByteArrayInputStream(in.toByteArray()), out);
+
+		BufferedImage remapped = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(image.getWidth(), remapped.getWidth());
+		assertEquals(image.getHeight(), remapped.getHeight());
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int expected = palette[quantizer.nearestIndex(image.getRGB(x, y))];
+				assertEquals(expected & 0xffffff, remapped.getRGB(x, y) & 0xffffff, "pixel " + x + ", " + y);
+			}
+		}
+	}
+
+	private static void checkNearest(PaletteQuantizer quantizer, int[] palette, int rgb) {
+		int best = Integer.MAX_VALUE;
+		for (int color : palette) {
+			best = Math.min(best, distance(color, rgb));
+		}
+		assertEquals(best, distance(palette[quantizer.nearestIndex(rgb)], rgb), Integer.toHexString(rgb));
+	}
+
+	private static int distance(int a, int b) {
+		int dr = PaletteBuffer.red(a) - PaletteBuffer.red(b);
+		int dg = PaletteBuffer.green(a) - PaletteBuffer.green(b);
+		int db = PaletteBuffer.blue(a) - PaletteBuffer.blue(b);
+		return dr * dr + dg * dg + db * db;
+	}
+
+	private static int[] randomColors(int count, long seed) {
+		Random random = new Random(seed);
+		int[] colors = new int[count];
+		for (int k = 0; k < count; k++) {
+			colors[k] = 0xff000000 | random.nextInt();
+		}
+		return colors;
+	}
+
+}
@@ -0,0 +1,96 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Requests against a PaletteServer on a free loopback port.
+ */
+
+public class PaletteServerTest {
+
+	private static final long CACHE_BYTES = 256 << 10;
+
+	private final HttpClient client = HttpClient.newHttpClient();
+	private PaletteServer server;
+	private int port;
+
+	@AfterEach
+	public void stop() {
+		if (server != null) server.stop();
+	}
+
+	@Test
+	public void servesFromCacheAfterFirstRequest() throws Exception {
+		start(CACHE_BYTES);
+		HttpResponse<byte[]> first = get("/palette.png?hueCount=8&valueCount=5&renderStyle=PAIRWISE_GRADIENT");
+		// Same palette, parameters in another order and notation
+		HttpResponse<byte[]> second = get("/palette.png?renderStyle=pairwise_gradient&valueCount=5&hueCount=8&saturation=1");
+		assertEquals(200, first.statusCode());
+		assertEquals("miss", first.headers().firstValue("X-Palette-Cache").orElse(""));
+		assertEquals("hit", second.headers().firstValue("X-Palette-Cache").orElse(""));
+		assertArrayEquals(first.body(), second.body());
+		assertEquals(1, server.getHits());
+		assertEquals(1, server.getMisses());
+	}
+
+	@Test
+	public void rejectsBadRequests() throws Exception {
+		start(CACHE_BYTES);
+		assertEquals(400, get("/palette.png?hueCount=29").statusCode());
+		assertEquals(400, get("/palette.png?valueCount=2").statusCode());
+		assertEquals(400, get("/palette.png?res=65").statusCode());
+		assertEquals(400, get("/palette.png?color=red").statusCode());
+		assertEquals(404, get("/palette.bmp").statusCode());
+		assertEquals(200, get("/palette.gpl?hueCount=28&valueCount=8").statusCode());
+	}
+
+	@Test
+	public void cacheStaysWithinItsBytes() throws Exception {
+		start(CACHE_BYTES);
+		// Many resolutions of one palette, then many palettes in many formats
+		for (int res = 1; res <= 64; res += 3) {
+			assertEquals(200, get("/palette.png?hueCount=28&valueCount=8&rTint=3&res=" + res).statusCode());
+			assertTrue(server.getCachedBytes() <= CACHE_BYTES, "res " + res + ": " + server.getCachedBytes());
+		}
+		for (int hueCount = 1; hueCount <= 28; hueCount += 3) {
+			for (String format : new String[] { "png", "json", "cube", "lutstrip" }) {
+				assertEquals(200, get("/palette." + format + "?hueCount=" + hueCount).statusCode());
+				assertTrue(server.getCachedBytes() <= CACHE_BYTES, format + " " + hueCount + ": " + server.getCachedBytes());
+			}
+		}
+		assertTrue(server.getCachedBytes() > 0);
+
+		// The most recent one is still there
+		assertEquals("hit", get("/palette.lutstrip?hueCount=28").headers().firstValue("X-Palette-Cache").orElse(""));
+	}
+
+	@Test
+	public void servesWithoutCache() throws Exception {
+		start(0);
+		assertEquals(200, get("/palette.json").statusCode());
+		assertEquals("miss", get("/palette.json").headers().firstValue("X-Palette-Cache").orElse(""));
+		assertEquals(0, server.getCachedBytes());
+	}
+
+	private void start(long cacheBytes) throws IOException {
+		server = new PaletteServer(cacheBytes, 1);
+		port = server.start(0);
+	}
+
+	private HttpResponse<byte[]> get(String path) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path)).GET().build();
+		return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+	}
+
+}
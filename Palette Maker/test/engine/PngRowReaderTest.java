@@ -0,0 +1,126 @@
+package engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * PngRowReader has to give back exactly the rows PalettePngWriter wrote,
+ * and read the pngs other encoders write, with their filters and color
+ * types, the same as ImageIO.
+ */
+
+public class PngRowReaderTest {
+
+	@Test
+	public void readsBackStreamedTruecolorRows() throws IOException {
+		int width = 301, height = 97;
+		int[] pixels = new int[width * height];
+		Random random = new Random(3);
+		for (int k = 0; k < pixels.length; k++) {
+			pixels[k] = random.nextInt() & 0xffffff;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PalettePngWriter pngWriter = new PalettePngWriter();
+		pngWriter.beginTruecolor(out, width, height);
+		for (int y = 0; y < height; y++) {
+			pngWriter.writeRgbRow(pixels, y * width);
+		}
+		pngWriter.end();
+		pngWriter.close();
+
+		int[] read = new int[width * height];
+		try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(out.toByteArray()))) {
+			assertEquals(width, reader.getWidth());
+			assertEquals(height, reader.getHeight());
+			for (int y = 0; y < height; y++) {
+				reader.readRow(read, y * width);
+			}
+		}
+		assertArrayEquals(pixels, read);
+	}
+
+	@Test
+	public void readsBackPalettes() throws IOException {
+		PaletteBuffer indexed = new PaletteEngine().hueCount(8).valueCount(5)
+				.renderStyle(Application.RenderStyle.PAIRWISE_GRADIENT).generate();
+		checkPalette(indexed, 7);
+		checkPalette(PalettePngWriterTest.random(40, 30, 4), 2);
+	}
+
+	@Test
+	public void readsImageIoColorTypes() throws IOException {
+		for (int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY,
+				BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_BINARY, BufferedImage.TYPE_BYTE_INDEXED }) {
+			BufferedImage image = new BufferedImage(123, 45, type);
+			Random random = new Random(type);
+			for (int y = 0; y < image.getHeight(); y++) {
+				for (int x = 0; x < image.getWidth(); x++) {
+					// Smooth with some noise, so the encoder picks different filters
+					int v = (x * 2 + y + random.nextInt(8)) & 0xff;
+					image.setRGB(x, y, 0xff000000 | (v << 16) | ((255 - v) << 8) | (x * y & 0xff));
+				}
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			byte[] png = out.toByteArray();
+			BufferedImage expected = ImageIO.read(new ByteArrayInputStream(png));
+			try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png))) {
+				int[] row = new int[reader.getWidth()];
+				for (int y = 0; y < reader.getHeight(); y++) {
+					reader.readRow(row, 0);
+					for (int x = 0; x < row.length; x++) {
+						assertEquals(Integer.toHexString(expectedRgb(expected, x, y)), Integer.toHexString(row[x] & 0xffffff),
+								"type " + type + " pixel " + x + ", " + y);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Color of a decoded pixel as stored in the file. getRGB() of a gray
+	 * image goes through a linear gray color space, the reader doesn't.
+	 */
+	private static int expectedRgb(BufferedImage image, int x, int y) {
+		switch (image.getType()) {
+		case BufferedImage.TYPE_BYTE_GRAY:
+		case BufferedImage.TYPE_USHORT_GRAY:
+			int gray = image.getRaster().getSample(x, y, 0) >> (image.getColorModel().getComponentSize(0) - 8);
+			return (gray << 16) | (gray << 8) | gray;
+		default:
+			return image.getRGB(x, y) & 0xffffff;
+		}
+	}
+
+	private static void checkPalette(PaletteBuffer colors, int res) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PalettePngWriter pngWriter = new PalettePngWriter();
+		pngWriter.write(colors, res, out);
+		pngWriter.close();
+		BufferedImage expected = PaletteRaster.rasterize(colors, res);
+		try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(out.toByteArray()))) {
+			assertEquals(expected.getWidth(), reader.getWidth());
+			assertEquals(expected.getHeight(), reader.getHeight());
+			int[] row = new int[reader.getWidth()];
+			int[] expectedRow = new int[row.length];
+			for (int y = 0; y < reader.getHeight(); y++) {
+				reader.readRow(row, 0);
+				expected.getRGB(0, y, row.length, 1, expectedRow, 0, row.length);
+				for (int x = 0; x < row.length; x++) {
+					assertEquals(expectedRow[x] & 0xffffff, row[x] & 0xffffff, "pixel " + x + ", " + y);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package engine;
+
+import java.awt.Canvas;
+import java.awt.Dimension;
+import java.awt.event.KeyEvent;
+
+/**
+ * Drives a headless Application through its states the same way the
+ * keyboard would, so benchmarks can start from any point of the pipeline.
+ */
+
+final class BenchmarkSessions {
+
+	static final Dimension SCREEN = new Dimension(1920, 1080);
+
+	private static final Canvas SOURCE = new Canvas();
+
+	private BenchmarkSessions() {
+	}
+
+	/**
+	 * New Application advanced to the given state, with the hue and value
+	 * counts picked on the way and everything else left at its default.
+	 */
+	static Application sessionAt(ApplicationState target, int hueCount, int valueCount) {
+		Application app = new Application(SCREEN);
+		app.update();
+		pickCounts(app, hueCount, valueCount);
+		while (app.state != target) {
+			press(app, KeyEvent.VK_ENTER);
+			pickCounts(app, hueCount, valueCount);
+		}
+		return app;
+	}
+
+	private static void pickCounts(Application app, int hueCount, int valueCount) {
+		switch (app.state) {
+		case PICK_HUES:
+			app.selectionVal = hueCount;
+			app.update();
+			break;
+		case PICK_VALUE_COUNT:
+			app.selectionVal = valueCount;
+			app.update();
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Sends a key release like Main does and runs the update that handles it.
+	 */
+	static void press(Application app, int keyCode) {
+		app.keyPressed(new KeyEvent(SOURCE, KeyEvent.KEY_RELEASED, 0, 0, keyCode, KeyEvent.CHAR_UNDEFINED));
+		app.update();
+	}
+
+}
@@ -0,0 +1,94 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of writing an exported palette to disk, into a temp directory that
+ * is removed afterwards. imageIo is the generic path exports used to take.
+ * ramp streams a RAMP_SIZE x RAMP_SIZE gradient texture of the palette.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+
+	private static final int RAMP_SIZE = 1024;
+
+	@Param({ "8", "28" })
+	public int hueCount;
+
+	@Param({ "3", "8" })
+	public int valueCount;
+
+	@Param({ "1", "16" })
+	public int resolution;
+
+	private PaletteBuffer finalColors;
+	private PalettePngWriter pngWriter;
+	private PaletteExporters.Ramp ramp;
+	private Path directory;
+	private Path file;
+
+	@Setup
+	public void setup() throws IOException {
+		finalColors = new PaletteEngine().hueCount(hueCount).valueCount(valueCount).tint(10, 20, 30)
+				.renderStyle(Application.RenderStyle.PAIRWISE_GRADIENT).generate();
+		pngWriter = new PalettePngWriter(9);
+		ramp = new PaletteExporters.Ramp(RAMP_SIZE, RAMP_SIZE, 9);
+		directory = Files.createTempDirectory("palette-export");
+		file = directory.resolve("palette_0.png");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		pngWriter.close();
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(directory);
+	}
+
+	@Benchmark
+	public Path exportPalette() throws IOException {
+		pngWriter.write(finalColors, resolution, file);
+		return file;
+	}
+
+	@Benchmark
+	public Path imageIo() throws IOException {
+		ImageIO.write(PaletteRaster.rasterize(finalColors, resolution), "png", file.toFile());
+		return file;
+	}
+
+	@Benchmark
+	public Path ramp() throws IOException {
+		try (ChannelWriter out = new ChannelWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+			ramp.write(finalColors, "palette_0", out);
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,80 @@
+package engine;
+
+import java.awt.Graphics2D;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a full Application.render frame in each state, drawn headless
+ * into an image the size of a 1080p screen.
+ *
+ * <p> idleFrame renders without any input in between, changedFrame
+ * presses LEFT or RIGHT before every frame so the palette has to be redone.
+ * 2048 hues is past the natural grid and goes through the fitted viewport.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+
+	@Param({ "PICK_HUES", "PICK_VALUE_COUNT", "ADJUST_SATURATION", "ADJUST_BRIGHTNESS", "ADJUST_TINTS", "PICK_RENDER_STYLE" })
+	public ApplicationState state;
+
+	@Param({ "8", "28", "2048" })
+	public int hueCount;
+
+	@Param({ "8" })
+	public int valueCount;
+
+	private Application app;
+	private BufferedImage screen;
+	private Graphics2D g;
+	private boolean right;
+
+	@Setup
+	public void setup() {
+		app = BenchmarkSessions.sessionAt(state, hueCount, valueCount);
+		screen = new BufferedImage(BenchmarkSessions.SCREEN.width, BenchmarkSessions.SCREEN.height, BufferedImage.TYPE_INT_RGB);
+		g = screen.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage idleFrame() {
+		app.update();
+		app.render(g);
+		return screen;
+	}
+
+	@Benchmark
+	public BufferedImage changedFrame() {
+		// Alternate so the selection stays in range
+		right = !right;
+		BenchmarkSessions.press(app, right ? KeyEvent.VK_RIGHT : KeyEvent.VK_LEFT);
+		app.render(g);
+		return screen;
+	}
+
+}
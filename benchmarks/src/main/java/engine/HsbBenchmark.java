@@ -0,0 +1,69 @@
+package engine;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * HSB conversion of a 28x8 grid of swatches, the old Color.getHSBColor
+ * way against HsbConverter with and without a HueTable.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HsbBenchmark {
+
+	private float[] hues;
+	private float[] valueIDs;
+	private HsbConverter.HueTable hueTable;
+
+	@Setup
+	public void setup() {
+		hues = PaletteEngine.deriveHues(Application.HueStyle.LINEAR, 28, 0.0f);
+		valueIDs = PaletteEngine.deriveValueIds(8);
+		hueTable = new HsbConverter.HueTable(hues);
+	}
+
+	@Benchmark
+	public void getHSBColor(Blackhole bh) {
+		for (float valueID : valueIDs) {
+			for (float hue : hues) {
+				bh.consume(Color.getHSBColor(hue, 0.8f, valueID * 0.5f).getRGB());
+			}
+		}
+	}
+
+	@Benchmark
+	public void converter(Blackhole bh) {
+		for (float valueID : valueIDs) {
+			for (float hue : hues) {
+				bh.consume(HsbConverter.toRGB(hue, 0.8f, valueID * 0.5f));
+			}
+		}
+	}
+
+	@Benchmark
+	public void hueTable(Blackhole bh) {
+		for (float valueID : valueIDs) {
+			for (int i = 0; i < hues.length; i++) {
+				bh.consume(HsbConverter.toRGB(hueTable, i, 0.8f, valueID * 0.5f));
+			}
+		}
+	}
+
+}
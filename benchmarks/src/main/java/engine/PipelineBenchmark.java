@@ -0,0 +1,100 @@
+package engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import engine.Application.HueStyle;
+import engine.Application.WorkingSpace;
+
+/**
+ * Cost of each stage of the palette pipeline up to the tinted raw colors,
+ * and of the PalettePipeline redoing only what a change affects.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+	@Param({ "LINEAR", "RADIAL" })
+	public HueStyle hueStyle;
+
+	@Param({ "1", "8", "28" })
+	public int hueCount;
+
+	@Param({ "3", "8" })
+	public int valueCount;
+
+	@Param({ "HSB", "OKLAB" })
+	public WorkingSpace workingSpace;
+
+	private float[] hues;
+	private float[] valueIDs;
+	private PalettePipeline pipeline;
+	private int step;
+
+	@Setup
+	public void setup() {
+		hues = PaletteEngine.deriveHues(hueStyle, hueCount, 0.0f);
+		valueIDs = PaletteEngine.deriveValueIds(valueCount);
+		pipeline = new PalettePipeline().hues(hues).valueIDs(valueIDs).saturation(0.8f).brightness(0.9f)
+				.tint(10, 20, 30).workingSpace(workingSpace);
+		pipeline.tinted();
+	}
+
+	@Benchmark
+	public float[] reevaluateHues() {
+		return PaletteEngine.deriveHues(hueStyle, hueCount, 0.0f);
+	}
+
+	@Benchmark
+	public float[] deriveValueId() {
+		return PaletteEngine.deriveValueIds(valueCount);
+	}
+
+	@Benchmark
+	public PaletteBuffer finalizeTints() {
+		return PaletteEngine.finalizeTints(hues, valueIDs, 0.8f, 0.9f, 10, 20, 30, workingSpace);
+	}
+
+	/**
+	 * Only the tint stage runs again.
+	 */
+	@Benchmark
+	public PaletteBuffer pipelineRetint() {
+		return pipeline.tint(10 + (++step & 1), 20, 30).tinted();
+	}
+
+	/**
+	 * Hue basis, swatches and tint run again, the value rows don't.
+	 */
+	@Benchmark
+	public PaletteBuffer pipelineHueOffset() {
+		float hueStep = ((++step & 1) == 0) ? 0.025f : -0.025f;
+		for (int i = 0; i < hues.length; i++) {
+			hues[i] += hueStep;
+		}
+		return pipeline.hues(hues).tinted();
+	}
+
+	@Benchmark
+	public PaletteBuffer generate() {
+		return new PaletteEngine().hueStyle(hueStyle).hueCount(hueCount).valueCount(valueCount)
+				.saturation(0.8f).brightness(0.9f).tint(10, 20, 30).workingSpace(workingSpace).generate();
+	}
+
+}
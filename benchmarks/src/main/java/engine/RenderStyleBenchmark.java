@@ -0,0 +1,56 @@
+package engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import engine.Application.RenderStyle;
+import engine.Application.WorkingSpace;
+
+/**
+ * Cost of finalizeColors for every RenderStyle in both working spaces.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderStyleBenchmark {
+
+	@Param
+	public RenderStyle renderStyle;
+
+	@Param({ "8", "28" })
+	public int hueCount;
+
+	@Param({ "3", "8" })
+	public int valueCount;
+
+	@Param({ "HSB", "OKLAB" })
+	public WorkingSpace workingSpace;
+
+	private PaletteBuffer rawColors;
+
+	@Setup
+	public void setup() {
+		rawColors = new PaletteEngine().hueCount(hueCount).valueCount(valueCount).tint(10, 20, 30).generate();
+	}
+
+	@Benchmark
+	public PaletteBuffer finalizeColors() {
+		return PaletteEngine.finalizeColors(rawColors, renderStyle, workingSpace);
+	}
+
+}